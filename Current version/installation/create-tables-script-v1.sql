@@ -14,8 +14,9 @@ CREATE TABLE IF NOT EXISTS `clients` (
   `ID` int(11) NOT NULL,
   `Name` int(11) NOT NULL,
   `UserID` int(11) NOT NULL,
-  `GraphID` int(11) NOT NULL
-) ENGINE=MyISAM DEFAULT CHARSET=utf8 COLLATE=utf8_unicode_ci;
+  `GraphID` int(11) NOT NULL,
+  `LastSequence` bigint(20) NOT NULL DEFAULT '0'
+) ENGINE=InnoDB DEFAULT CHARSET=utf8 COLLATE=utf8_unicode_ci;
 
 DROP TABLE IF EXISTS `commands`;
 CREATE TABLE IF NOT EXISTS `commands` (
@@ -56,7 +57,8 @@ CREATE TABLE IF NOT EXISTS `graphs` (
   `Name` varchar(50) COLLATE utf8_unicode_ci NOT NULL,
   `FolderID` int(11) NOT NULL,
   `CommandSetVersion` int(11) NOT NULL,
-  `RenderEngineGUID` varchar(50) COLLATE utf8_unicode_ci NOT NULL
+  `RenderEngineGUID` varchar(50) COLLATE utf8_unicode_ci NOT NULL,
+  `LastCommandID` bigint(20) NOT NULL DEFAULT '0'
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8 COLLATE=utf8_unicode_ci;
 
 DROP TABLE IF EXISTS `groups`;
@@ -84,6 +86,13 @@ CREATE TABLE IF NOT EXISTS `permissions` (
 INSERT INTO `permissions` (`GroupID`, `FolderID`, `Type`) VALUES
 (1, 1, 2);
 
+DROP TABLE IF EXISTS `snapshots`;
+CREATE TABLE IF NOT EXISTS `snapshots` (
+  `GraphID` int(11) NOT NULL,
+  `CommandID` bigint(20) NOT NULL,
+  `State` longtext COLLATE utf8_unicode_ci NOT NULL
+) ENGINE=InnoDB DEFAULT CHARSET=utf8 COLLATE=utf8_unicode_ci;
+
 DROP TABLE IF EXISTS `users`;
 CREATE TABLE IF NOT EXISTS `users` (
   `ID` int(11) NOT NULL,
@@ -130,6 +139,9 @@ ALTER TABLE `memberships`
 ALTER TABLE `permissions`
   ADD PRIMARY KEY (`GroupID`,`FolderID`), ADD KEY `FolderID` (`FolderID`);
 
+ALTER TABLE `snapshots`
+  ADD PRIMARY KEY (`GraphID`);
+
 ALTER TABLE `users`
   ADD PRIMARY KEY (`ID`), ADD UNIQUE KEY `Username` (`Username`);
 
@@ -0,0 +1,137 @@
+package We3Graph;
+
+import We3Graph.IDSystem.FullID;
+
+/**
+ * Counts the edges of a vertex to each of its neighbors, so that a vertex with many
+ * edges can be checked for a connection without scanning them.
+ * Like FullIDHashDictionary it's an open addressing table with linear probing keyed
+ * by the FullID of the neighbor packed in a long.
+ */
+class AdjacencyIndex
+{
+    private static final int INITIAL_CAPACITY = 64;
+    private static final float MAX_LOAD_FACTOR = 0.75f;
+
+    private long[] keys_;
+    private int[] counts_;
+    private int count_;
+    private int mask_;
+    private int shift_;
+    private int resizeThreshold_;
+
+    AdjacencyIndex()
+    {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Counts an edge to a neighbor
+     */
+    void __add(FullID neighborFullID)
+    {
+        if (count_ >= resizeThreshold_)
+            resize(keys_.length * 2);
+
+        long key = neighborFullID.ToLong();
+        int index = hashFunction(key);
+        while (counts_[index] != 0)
+        {
+            if (keys_[index] == key)
+            {
+                counts_[index]++;
+                return;
+            }
+            index = (index + 1) & mask_;
+        }
+
+        keys_[index] = key;
+        counts_[index] = 1;
+        count_++;
+    }
+
+    /**
+     * Uncounts an edge to a neighbor
+     */
+    void __remove(FullID neighborFullID)
+    {
+        int index = findIndex(neighborFullID.ToLong());
+        if (index < 0)
+            return;
+
+        counts_[index]--;
+        if (counts_[index] > 0)
+            return;
+
+        // Move back the keys after it which would no longer be found
+        int next = (index + 1) & mask_;
+        while (counts_[next] != 0)
+        {
+            int home = hashFunction(keys_[next]);
+            if (((next - home) & mask_) >= ((next - index) & mask_))
+            {
+                keys_[index] = keys_[next];
+                counts_[index] = counts_[next];
+                index = next;
+            }
+            next = (next + 1) & mask_;
+        }
+
+        counts_[index] = 0;
+        count_--;
+    }
+
+    boolean __contains(FullID neighborFullID)
+    {
+        return findIndex(neighborFullID.ToLong()) >= 0;
+    }
+
+    private int findIndex(long key)
+    {
+        int index = hashFunction(key);
+        while (counts_[index] != 0)
+        {
+            if (keys_[index] == key)
+                return index;
+            index = (index + 1) & mask_;
+        }
+
+        return -1;
+    }
+
+    private void allocate(int capacity)
+    {
+        keys_ = new long[capacity];
+        counts_ = new int[capacity];
+        count_ = 0;
+        mask_ = capacity - 1;
+        shift_ = 64 - Integer.numberOfTrailingZeros(capacity);
+        resizeThreshold_ = (int) (capacity * MAX_LOAD_FACTOR);
+    }
+
+    private void resize(int capacity)
+    {
+        long[] oldKeys = keys_;
+        int[] oldCounts = counts_;
+        int oldCount = count_;
+
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++)
+        {
+            if (oldCounts[i] == 0)
+                continue;
+
+            int index = hashFunction(oldKeys[i]);
+            while (counts_[index] != 0)
+                index = (index + 1) & mask_;
+            keys_[index] = oldKeys[i];
+            counts_[index] = oldCounts[i];
+        }
+        count_ = oldCount;
+    }
+
+    private int hashFunction(long key)
+    {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift_);
+    }
+}
@@ -9,35 +9,143 @@ import java.util.ArrayList;
 public class Bend
 {
     private Point3D position_;
+    private int coordinatesSlot_;
     private Edge edge_;
     private Graph graph_;
 
     public Bend(Point3D position, Edge edge, Graph graph)
     {
-        position_ = position;
         edge_ = edge;
         graph_ = graph;
+
+        CoordinateStore coordinates = graph.__getBendCoordinates();
+        if (coordinates != null)
+            coordinatesSlot_ = coordinates.__allocate(position.GetX(), position.GetY(),
+                    position.GetZ());
+        else
+        {
+            coordinatesSlot_ = -1;
+            position_ = position;
+        }
+    }
+
+    /**
+     * Gets the store of the position of the bend
+     *
+     * @return null if the position is kept in the bend
+     */
+    private CoordinateStore coordinates()
+    {
+        return coordinatesSlot_ >= 0 ? graph_.__getBendCoordinates() : null;
+    }
+
+    /**
+     * Removes a removed bend from the spatial index and moves its position from the
+     * store to the bend, so that its slot can be reused
+     */
+    void __release()
+    {
+        SpatialIndex spatialIndex = graph_.__getSpatialIndex();
+        if (spatialIndex != null)
+            spatialIndex.__removeBend(this);
+
+        CoordinateStore coordinates = coordinates();
+        if (coordinates == null)
+            return;
+
+        position_ = coordinates.__getPosition(coordinatesSlot_);
+        coordinates.__release(coordinatesSlot_);
+        coordinatesSlot_ = -1;
     }
 
     public void Move(Point3D position)
     {
-        __move(position);
-        graph_.__getCommandSender().__sendMoveBendCommand(this);
+        GraphLock lock = graph_.__getLock();
+        lock.__lockWrite();
+        try
+        {
+            __move(position);
+            graph_.__getCommandSender().__sendMoveBendCommand(this);
+        } finally
+        {
+            lock.__unlockWrite();
+        }
     }
 
     void __move(Point3D position)
     {
-        this.position_ = position;
+        CoordinateStore coordinates = coordinates();
+        if (coordinates != null)
+            coordinates.__setPosition(coordinatesSlot_, position.GetX(), position.GetY(),
+                    position.GetZ());
+        else
+            this.position_ = position;
+
+        SpatialIndex spatialIndex = graph_.__getSpatialIndex();
+        if (spatialIndex != null)
+            spatialIndex.__moveBend(this, position.GetX(), position.GetY(), position.GetZ());
+        edge_.__updateSnapshot();
+    }
+
+    void __move(double x, double y, double z)
+    {
+        CoordinateStore coordinates = coordinates();
+        if (coordinates != null)
+            coordinates.__setPosition(coordinatesSlot_, x, y, z);
+        else
+            this.position_ = new Point3D(x, y, z);
+
+        SpatialIndex spatialIndex = graph_.__getSpatialIndex();
+        if (spatialIndex != null)
+            spatialIndex.__moveBend(this, x, y, z);
+        edge_.__updateSnapshot();
     }
 
     public void Remove()
     {
-        int index = GetIndexAtEdge();
-        edge_.RemoveBend(index);
+        GraphLock lock = graph_.__getLock();
+        lock.__lockWrite();
+        try
+        {
+            int index = GetIndexAtEdge();
+            edge_.RemoveBend(index);
+        } finally
+        {
+            lock.__unlockWrite();
+        }
     }
 
+    /**
+     * Gets the position of the bend.
+     * If the graph keeps coordinates in a store, it's a copy which doesn't move the
+     * bend when changed.
+     */
     public Point3D GetPosition()
     {
+        // The position is read again under the lock if it changed meanwhile
+        GraphLock lock = graph_.__getLock();
+        long stamp = lock.__tryOptimisticRead();
+        Point3D position = __getPosition();
+        if (lock.__validate(stamp))
+            return position;
+
+        lock.__lockRead();
+        try
+        {
+            return __getPosition();
+        } finally
+        {
+            lock.__unlockRead();
+        }
+    }
+
+    Point3D __getPosition()
+    {
+        // The slot is read once, since this may run while the bend is being removed
+        int slot = coordinatesSlot_;
+        if (slot >= 0)
+            return graph_.__getBendCoordinates().__getPosition(slot);
+
         return position_;
     }
 
@@ -48,11 +156,19 @@ public class Bend
 
     public int GetIndexAtEdge()
     {
-        ArrayList<EdgeLine> edgeLines = edge_.GetEdgeLines();
-        for (int i = 0; i < edgeLines.size(); i++)
-            if (edgeLines.get(i).GetEndBend() == this)
-                return i;
+        GraphLock lock = graph_.__getLock();
+        lock.__lockRead();
+        try
+        {
+            ArrayList<EdgeLine> edgeLines = edge_.__getEdgeLines();
+            for (int i = 0; i < edgeLines.size(); i++)
+                if (edgeLines.get(i).GetEndBend() == this)
+                    return i;
 
-        return -1;
+            return -1;
+        } finally
+        {
+            lock.__unlockRead();
+        }
     }
 }
\ No newline at end of file
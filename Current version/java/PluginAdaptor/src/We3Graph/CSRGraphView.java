@@ -0,0 +1,299 @@
+package We3Graph;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A read-only snapshot of the vertices and edges of a graph in compressed sparse row
+ * form, for analytics which traverse the graph many times.
+ * Vertices are numbered like Vertex.GetIndex when the view is built. The neighbors of
+ * vertex i are targets[offsets[i]] to targets[offsets[i + 1] - 1]. In a directed view
+ * only the edges starting from a vertex are its neighbors.
+ * Edges are numbered from 0 to GetEdgeCount() - 1 if the view includes them, and the
+ * edge of each neighbor is in the edge ID array parallel to targets.
+ * The arrays returned are the ones of the view and must not be modified.
+ * Changes to the graph after the view is built are not reflected in it.
+ */
+public class CSRGraphView
+{
+    private static final int MIN_VERTICES_PER_TASK = 4096;
+
+    private boolean isDirected_;
+    private Vertex[] vertices_;
+    private int[] offsets_;
+    private int[] targets_;
+    private int[] edgeOffsets_;
+    private int[] edgeIDs_;
+    private Edge[] edges_;
+
+    CSRGraphView(Graph graph, boolean isDirected, boolean includeEdges, int threadsCount)
+    {
+        isDirected_ = isDirected;
+
+        ArrayList<Vertex> vertices = graph.__getVertices();
+        graph.__updateVertexIndices(Integer.MAX_VALUE);
+        vertices_ = vertices.toArray(new Vertex[vertices.size()]);
+
+        int verticesCount = vertices_.length;
+        offsets_ = new int[verticesCount + 1];
+        edgeOffsets_ = new int[verticesCount + 1];
+
+        int tasksCount = Math.max(1, Math.min(threadsCount * 4,
+                verticesCount / MIN_VERTICES_PER_TASK));
+        ExecutorService executor = tasksCount > 1 ?
+                Executors.newFixedThreadPool(Math.min(threadsCount, tasksCount)) : null;
+        try
+        {
+            // Count the neighbors and the edges starting from each vertex
+            runTasks(executor, tasksCount, new RangeTask()
+            {
+                public void run(int fromVertex, int toVertex)
+                {
+                    countNeighbors(fromVertex, toVertex);
+                }
+            });
+
+            for (int i = 0; i < verticesCount; i++)
+            {
+                offsets_[i + 1] += offsets_[i];
+                edgeOffsets_[i + 1] += edgeOffsets_[i];
+            }
+
+            targets_ = new int[offsets_[verticesCount]];
+            if (includeEdges)
+            {
+                edgeIDs_ = new int[targets_.length];
+                edges_ = new Edge[edgeOffsets_[verticesCount]];
+            }
+
+            runTasks(executor, tasksCount, new RangeTask()
+            {
+                public void run(int fromVertex, int toVertex)
+                {
+                    fillNeighbors(fromVertex, toVertex);
+                }
+            });
+
+            // In an undirected view the IDs of edges ending at a vertex are only known
+            // after their start vertices are filled
+            if (includeEdges && !isDirected_)
+                runTasks(executor, tasksCount, new RangeTask()
+                {
+                    public void run(int fromVertex, int toVertex)
+                    {
+                        fillEndEdgeIDs(fromVertex, toVertex);
+                    }
+                });
+        } finally
+        {
+            if (executor != null)
+                executor.shutdownNow();
+        }
+    }
+
+    public boolean IsDirected()
+    {
+        return isDirected_;
+    }
+
+    public int GetVertexCount()
+    {
+        return vertices_.length;
+    }
+
+    /**
+     * Gets the number of edges. A self loop in an undirected view is one edge but
+     * two neighbors of its vertex.
+     */
+    public int GetEdgeCount()
+    {
+        return edgeOffsets_[vertices_.length];
+    }
+
+    /**
+     * Gets the array of the positions in targets where the neighbors of each vertex
+     * start, with an additional item for the end of the last vertex
+     */
+    public int[] GetOffsets()
+    {
+        return offsets_;
+    }
+
+    /**
+     * Gets the array of the indices of the neighbors of all vertices
+     */
+    public int[] GetTargets()
+    {
+        return targets_;
+    }
+
+    /**
+     * Gets the array of the IDs of the edges to the neighbors, parallel to targets
+     *
+     * @return null if the view doesn't include edges
+     */
+    public int[] GetEdgeIDs()
+    {
+        return edgeIDs_;
+    }
+
+    public int GetDegree(int vertexIndex)
+    {
+        return offsets_[vertexIndex + 1] - offsets_[vertexIndex];
+    }
+
+    public Vertex GetVertex(int vertexIndex)
+    {
+        return vertices_[vertexIndex];
+    }
+
+    /**
+     * Gets the index of a vertex in the view
+     *
+     * @return -1 if the vertex is not in the view
+     */
+    public int GetVertexIndex(Vertex vertex)
+    {
+        // Removing vertices from the graph only decreases the indices of the others
+        for (int i = vertex.__getIndex(); i >= 0 && i < vertices_.length; i++)
+            if (vertices_[i] == vertex)
+                return i;
+
+        return -1;
+    }
+
+    /**
+     * Gets an edge by its ID
+     *
+     * @return null if the view doesn't include edges
+     */
+    public Edge GetEdge(int edgeID)
+    {
+        if (edges_ == null)
+            return null;
+
+        return edges_[edgeID];
+    }
+
+    private void countNeighbors(int fromVertex, int toVertex)
+    {
+        for (int i = fromVertex; i < toVertex; i++)
+        {
+            Vertex vertex = vertices_[i];
+            ArrayList<Edge> edges = vertex.__getEdges();
+
+            int startingEdgesCount = 0;
+            for (int j = 0; j < edges.size(); j++)
+                if (isStartOf(edges.get(j), vertex, j))
+                    startingEdgesCount++;
+
+            offsets_[i + 1] = isDirected_ ? startingEdgesCount : edges.size();
+            edgeOffsets_[i + 1] = startingEdgesCount;
+        }
+    }
+
+    private void fillNeighbors(int fromVertex, int toVertex)
+    {
+        for (int i = fromVertex; i < toVertex; i++)
+        {
+            Vertex vertex = vertices_[i];
+            ArrayList<Edge> edges = vertex.__getEdges();
+
+            // An undirected view keeps the order of the edges of the vertex
+            int position = offsets_[i];
+            int edgeID = edgeOffsets_[i];
+            for (int j = 0; j < edges.size(); j++)
+            {
+                Edge edge = edges.get(j);
+                boolean isStart = isStartOf(edge, vertex, j);
+                if (isDirected_ && !isStart)
+                    continue;
+
+                Vertex neighbor = isStart ? edge.GetEndVertex() : edge.GetStartVertex();
+                targets_[position] = neighbor.__getIndex();
+
+                if (edges_ != null && isStart)
+                {
+                    edgeIDs_[position] = edgeID;
+                    edges_[edgeID] = edge;
+                    edgeID++;
+                }
+                position++;
+            }
+        }
+    }
+
+    private void fillEndEdgeIDs(int fromVertex, int toVertex)
+    {
+        for (int i = fromVertex; i < toVertex; i++)
+        {
+            Vertex vertex = vertices_[i];
+            ArrayList<Edge> edges = vertex.__getEdges();
+
+            for (int j = 0; j < edges.size(); j++)
+            {
+                Edge edge = edges.get(j);
+                if (isStartOf(edge, vertex, j))
+                    continue;
+
+                int startVertex = edge.GetStartVertex().__getIndex();
+                edgeIDs_[offsets_[i] + j] =
+                        edgeIDs_[offsets_[startVertex] + edge.__getPosition(true)];
+            }
+        }
+    }
+
+    /**
+     * Whether an edge at a position in the edges of a vertex starts from it.
+     * A self loop is in the edges of its vertex twice.
+     */
+    private static boolean isStartOf(Edge edge, Vertex vertex, int position)
+    {
+        return edge.GetStartVertex() == vertex && edge.__getPosition(true) == position;
+    }
+
+    /**
+     * Runs a task for consecutive ranges of vertices and waits for all of them
+     */
+    private void runTasks(ExecutorService executor, int tasksCount, final RangeTask task)
+    {
+        int verticesCount = vertices_.length;
+        if (executor == null)
+        {
+            task.run(0, verticesCount);
+            return;
+        }
+
+        ArrayList<Future<Object>> futures = new ArrayList<Future<Object>>();
+        for (int i = 0; i < tasksCount; i++)
+        {
+            final int fromVertex = (int) ((long) verticesCount * i / tasksCount);
+            final int toVertex = (int) ((long) verticesCount * (i + 1) / tasksCount);
+            futures.add(executor.submit(new Callable<Object>()
+            {
+                public Object call()
+                {
+                    task.run(fromVertex, toVertex);
+                    return null;
+                }
+            }));
+        }
+
+        try
+        {
+            for (Future<Object> future : futures)
+                future.get();
+        } catch (Exception e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private interface RangeTask
+    {
+        void run(int fromVertex, int toVertex);
+    }
+}
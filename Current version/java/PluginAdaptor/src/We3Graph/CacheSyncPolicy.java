@@ -0,0 +1,18 @@
+package We3Graph;
+
+/**
+ * The policies for forcing commands written to the local command cache to the disk
+ */
+public enum CacheSyncPolicy
+{
+    /**
+     * Leaves it to the operating system. Commands received just before a crash
+     * may be missing from the cache and are requested again on the next start.
+     */
+    NEVER,
+
+    /**
+     * Forces every page of received commands to the disk before it is applied
+     */
+    EVERY_WRITE
+}
@@ -6,8 +6,9 @@ package We3Graph;
 public class Camera
 {
     private Graph graph_;
-    private Point3D position_;
-    private Point4D quaternionRotation_;
+    // Replaced, not changed, so they can be read without locking
+    private volatile Point3D position_;
+    private volatile Point4D quaternionRotation_;
 
     Camera(Graph graph)
     {
@@ -18,8 +19,16 @@ public class Camera
 
     public void ChangePosition(Point3D position)
     {
-        __changePosition(position);
-        graph_.__getCommandSender().__sendChangeCameraPositionCommand(position);
+        GraphLock lock = graph_.__getLock();
+        lock.__lockWrite();
+        try
+        {
+            __changePosition(position);
+            graph_.__getCommandSender().__sendChangeCameraPositionCommand(position);
+        } finally
+        {
+            lock.__unlockWrite();
+        }
     }
 
     void __changePosition(Point3D position)
@@ -34,8 +43,16 @@ public class Camera
 
     public void ChangeRotation(Point4D quaternion)
     {
-        __changeRotation(quaternion);
-        graph_.__getCommandSender().__sendChangeCameraRotationCommand(quaternion);
+        GraphLock lock = graph_.__getLock();
+        lock.__lockWrite();
+        try
+        {
+            __changeRotation(quaternion);
+            graph_.__getCommandSender().__sendChangeCameraRotationCommand(quaternion);
+        } finally
+        {
+            lock.__unlockWrite();
+        }
     }
 
     void __changeRotation(Point4D quaternion)
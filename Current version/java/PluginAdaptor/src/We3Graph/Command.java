@@ -5,9 +5,12 @@ import java.util.ArrayList;
 public class Command
 {
     private String name_;
+    private CommandType type_;
     private ArrayList<String> parameters_;
     private int clientID_;
     private int ID_;
+    private long sequence_;
+    private volatile boolean isSuperseded_;
 
     int __getClientID()
     {
@@ -29,6 +32,34 @@ public class Command
         this.ID_ = ID;
     }
 
+    /**
+     * Gets the number given to an outgoing command by its client,
+     * which lets the web service ignore a command sent again
+     */
+    long __getSequence()
+    {
+        return sequence_;
+    }
+
+    void __setSequence(long sequence)
+    {
+        this.sequence_ = sequence;
+    }
+
+    /**
+     * Whether a later outgoing command sets the same state, so that this one
+     * doesn't need to be sent
+     */
+    boolean __isSuperseded()
+    {
+        return isSuperseded_;
+    }
+
+    void __supersede()
+    {
+        isSuperseded_ = true;
+    }
+
     Command(String name, ArrayList<String> parameters)
     {
         this.name_ = name;
@@ -43,6 +74,18 @@ public class Command
         return name_;
     }
 
+    /**
+     * @return null if the command is not applied to graphs
+     */
+    CommandType __getType()
+    {
+        // The name is looked up once, when the command is first applied
+        if (type_ == null)
+            type_ = CommandType.__fromName(name_);
+
+        return type_;
+    }
+
     public ArrayList<String> GetParameters()
     {
         return parameters_;
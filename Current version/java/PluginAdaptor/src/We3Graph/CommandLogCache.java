@@ -0,0 +1,259 @@
+package We3Graph;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only file of the commands received for a graph.
+ * The file starts with a header identifying the web service and the graph,
+ * followed by one record for each command:
+ * the payload length, the CRC32 of the payload and the payload itself,
+ * i.e. the command ID, client ID, name and parameters.
+ * Records after a torn or corrupted one are ignored and overwritten.
+ */
+class CommandLogCache
+{
+    private static final int MAGIC = 0x57334743;
+    private static final short VERSION = 1;
+    private static final int MAX_RECORD_LENGTH = 1 << 16;
+
+    private RandomAccessFile file_;
+    private FileChannel channel_;
+    private FileLock lock_;
+    private CacheSyncPolicy syncPolicy_;
+    private DataInputStream reader_;
+    private DataOutputStream writer_;
+    private long validLength_;
+    private int lastCommandID_;
+    private ByteArrayOutputStream recordBuffer_;
+    private DataOutputStream recordWriter_;
+    private CRC32 crc_;
+
+    /**
+     * Opens the cache file of a graph, creating it if it doesn't exist
+     *
+     * @param directory  The directory of the cache files
+     * @param serviceURL The URL of the web service the graph belongs to
+     * @param graphID    The ID of the graph
+     * @param syncPolicy When written commands are forced to the disk
+     * @throws IOException if the file can't be opened or is used by another graph
+     */
+    CommandLogCache(File directory, String serviceURL, int graphID,
+                    CacheSyncPolicy syncPolicy) throws IOException
+    {
+        syncPolicy_ = syncPolicy;
+        recordBuffer_ = new ByteArrayOutputStream();
+        recordWriter_ = new DataOutputStream(recordBuffer_);
+        crc_ = new CRC32();
+        lastCommandID_ = 0;
+
+        directory.mkdirs();
+        String fileName = "graph-" + graphID + "-" +
+                Integer.toHexString(serviceURL.hashCode()) + ".log";
+        file_ = new RandomAccessFile(new File(directory, fileName), "rw");
+        channel_ = file_.getChannel();
+        lock_ = channel_.tryLock();
+        if (lock_ == null)
+        {
+            file_.close();
+            throw new IOException("The command cache is used by another graph");
+        }
+
+        byte[] header = createHeader(serviceURL, graphID);
+        byte[] existingHeader = new byte[header.length];
+
+        reader_ = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(channel_), 1 << 16));
+        try
+        {
+            reader_.readFully(existingHeader);
+        } catch (EOFException e)
+        {
+            existingHeader = null;
+        }
+
+        validLength_ = header.length;
+
+        if (!Arrays.equals(header, existingHeader))
+        {
+            // A new file or one written by a different version
+            channel_.truncate(0);
+            channel_.position(0);
+            channel_.write(ByteBuffer.wrap(header));
+            finishReading();
+        }
+    }
+
+    /**
+     * Gets the ID of the last command read from or written to the cache
+     */
+    int __getLastCommandID()
+    {
+        return lastCommandID_;
+    }
+
+    /**
+     * Reads the next cached commands
+     *
+     * @param maxCount The maximum number of commands to read
+     * @return An empty list if all the cached commands are read
+     */
+    ArrayList<Command> __readCommands(int maxCount) throws IOException
+    {
+        ArrayList<Command> commands = new ArrayList<Command>();
+        if (reader_ == null)
+            return commands;
+
+        while (commands.size() < maxCount)
+        {
+            Command command = readCommand();
+            if (command == null)
+            {
+                finishReading();
+                break;
+            }
+            commands.add(command);
+        }
+
+        return commands;
+    }
+
+    /**
+     * Appends received commands to the cache. Any command not read yet is skipped.
+     */
+    void __appendCommands(ArrayList<Command> commands) throws IOException
+    {
+        if (reader_ != null)
+        {
+            while (readCommand() != null)
+            {
+            }
+            finishReading();
+        }
+
+        for (Command command : commands)
+        {
+            recordBuffer_.reset();
+            recordWriter_.writeInt(command.__getID());
+            recordWriter_.writeInt(command.__getClientID());
+            recordWriter_.writeUTF(command.GetName());
+            ArrayList<String> parameters = command.GetParameters();
+            recordWriter_.writeByte(parameters.size());
+            for (String parameter : parameters)
+                recordWriter_.writeUTF(parameter);
+            recordWriter_.flush();
+
+            crc_.reset();
+            crc_.update(recordBuffer_.toByteArray(), 0, recordBuffer_.size());
+
+            writer_.writeInt(recordBuffer_.size());
+            writer_.writeInt((int) crc_.getValue());
+            recordBuffer_.writeTo(writer_);
+
+            lastCommandID_ = command.__getID();
+        }
+
+        writer_.flush();
+        if (syncPolicy_ == CacheSyncPolicy.EVERY_WRITE)
+            channel_.force(false);
+    }
+
+    void __close()
+    {
+        try
+        {
+            if (writer_ != null)
+                writer_.flush();
+            lock_.release();
+            file_.close();
+        } catch (IOException e)
+        {
+        }
+    }
+
+    /**
+     * Reads the next record
+     *
+     * @return null at the end of the file or at the first invalid record
+     */
+    private Command readCommand() throws IOException
+    {
+        try
+        {
+            int length = reader_.readInt();
+            int crc = reader_.readInt();
+            if (length <= 0 || length > MAX_RECORD_LENGTH)
+                return null;
+
+            byte[] payload = new byte[length];
+            reader_.readFully(payload);
+
+            crc_.reset();
+            crc_.update(payload, 0, length);
+            if ((int) crc_.getValue() != crc)
+                return null;
+
+            DataInputStream payloadReader =
+                    new DataInputStream(new ByteArrayInputStream(payload));
+            int commandID = payloadReader.readInt();
+            int clientID = payloadReader.readInt();
+            String name = payloadReader.readUTF();
+            int parametersCount = payloadReader.readByte();
+            ArrayList<String> parameters = new ArrayList<String>(parametersCount);
+            for (int i = 0; i < parametersCount; i++)
+                parameters.add(payloadReader.readUTF());
+
+            Command command = new Command(name, parameters);
+            command.__setID(commandID);
+            command.__setClientID(clientID);
+
+            validLength_ += 8 + length;
+            lastCommandID_ = commandID;
+
+            return command;
+        } catch (EOFException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Drops anything after the last valid record and prepares for appending
+     */
+    private void finishReading() throws IOException
+    {
+        reader_ = null;
+        channel_.truncate(validLength_);
+        channel_.position(validLength_);
+        writer_ = new DataOutputStream(new BufferedOutputStream(
+                Channels.newOutputStream(channel_), 1 << 16));
+    }
+
+    private static byte[] createHeader(String serviceURL, int graphID) throws IOException
+    {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream headerWriter = new DataOutputStream(header);
+        headerWriter.writeInt(MAGIC);
+        headerWriter.writeShort(VERSION);
+        headerWriter.writeUTF(serviceURL);
+        headerWriter.writeInt(graphID);
+        headerWriter.flush();
+
+        return header.toByteArray();
+    }
+}
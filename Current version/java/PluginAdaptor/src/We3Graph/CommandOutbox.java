@@ -0,0 +1,311 @@
+package We3Graph;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * A write-ahead file of the commands of a graph which are not acknowledged by
+ * the web service yet, so that they are sent after a restart.
+ * The file starts with a header identifying the web service, the graph and the user,
+ * followed by records of two types: a command, with its client ID, sequence, name
+ * and parameters, or an acknowledgement with the client ID and sequence of a command.
+ * Like CommandLogCache each record has its length and CRC32, and records after a
+ * torn or corrupted one are ignored.
+ * Writes from several threads are forced to the disk together.
+ */
+class CommandOutbox
+{
+    private static final int MAGIC = 0x5733474F;
+    private static final short VERSION = 1;
+    private static final int MAX_RECORD_LENGTH = 1 << 16;
+    private static final byte COMMAND_RECORD = 0;
+    private static final byte ACKNOWLEDGEMENT_RECORD = 1;
+
+    private RandomAccessFile file_;
+    private FileChannel channel_;
+    private FileLock lock_;
+    private DataOutputStream writer_;
+    private long headerLength_;
+    private ByteArrayOutputStream recordBuffer_;
+    private DataOutputStream recordWriter_;
+    private CRC32 crc_;
+    private ArrayList<Command> pendingCommands_;
+    private int pendingCount_;
+    private long writtenCount_;
+    private long syncedCount_;
+    private boolean isSyncing_;
+    private final Object syncLock_ = new Object();
+
+    /**
+     * Opens the outbox of a graph, creating it if it doesn't exist, and reads the
+     * commands not acknowledged before
+     *
+     * @param directory  The directory of the outbox files
+     * @param serviceURL The URL of the web service the graph belongs to
+     * @param graphID    The ID of the graph
+     * @param userID     The ID of the user sending the commands
+     * @throws IOException if the file can't be opened or is used by another graph
+     */
+    CommandOutbox(File directory, String serviceURL, int graphID, int userID)
+            throws IOException
+    {
+        recordBuffer_ = new ByteArrayOutputStream();
+        recordWriter_ = new DataOutputStream(recordBuffer_);
+        crc_ = new CRC32();
+
+        directory.mkdirs();
+        String fileName = "outbox-" + graphID + "-" + userID + "-" +
+                Integer.toHexString(serviceURL.hashCode()) + ".log";
+        file_ = new RandomAccessFile(new File(directory, fileName), "rw");
+        channel_ = file_.getChannel();
+        lock_ = channel_.tryLock();
+        if (lock_ == null)
+        {
+            file_.close();
+            throw new IOException("The outbox is used by another graph");
+        }
+
+        byte[] header = createHeader(serviceURL, graphID, userID);
+        headerLength_ = header.length;
+        pendingCommands_ = readPendingCommands(header);
+
+        // Rewrite the file with only the pending commands
+        channel_.truncate(0);
+        channel_.position(0);
+        writer_ = new DataOutputStream(new BufferedOutputStream(
+                Channels.newOutputStream(channel_), 1 << 16));
+        writer_.write(header);
+        for (Command command : pendingCommands_)
+            writeRecord(COMMAND_RECORD, command);
+        writer_.flush();
+        channel_.force(false);
+
+        pendingCount_ = pendingCommands_.size();
+        writtenCount_ = 0;
+        syncedCount_ = 0;
+    }
+
+    /**
+     * Gets the commands which were not acknowledged when the outbox was opened
+     */
+    ArrayList<Command> __getPendingCommands()
+    {
+        return pendingCommands_;
+    }
+
+    /**
+     * Writes a command without forcing it to the disk
+     *
+     * @return The number to pass to __sync
+     */
+    synchronized long __write(Command command) throws IOException
+    {
+        writeRecord(COMMAND_RECORD, command);
+        pendingCount_++;
+        writtenCount_++;
+
+        return writtenCount_;
+    }
+
+    /**
+     * Forces the commands written up to a number to the disk. While a thread forces
+     * the file, other threads wait and return without forcing it again if their
+     * commands were included.
+     *
+     * @param number The number returned by __write
+     */
+    void __sync(long number) throws IOException
+    {
+        synchronized (syncLock_)
+        {
+            while (syncedCount_ < number && isSyncing_)
+            {
+                try
+                {
+                    syncLock_.wait();
+                } catch (InterruptedException e)
+                {
+                    throw new InterruptedIOException();
+                }
+            }
+
+            if (syncedCount_ >= number)
+                return;
+
+            isSyncing_ = true;
+        }
+
+        long syncedCount = 0;
+        try
+        {
+            long count;
+            synchronized (this)
+            {
+                writer_.flush();
+                count = writtenCount_;
+            }
+
+            channel_.force(false);
+            syncedCount = count;
+        } finally
+        {
+            synchronized (syncLock_)
+            {
+                if (syncedCount > syncedCount_)
+                    syncedCount_ = syncedCount;
+                isSyncing_ = false;
+                syncLock_.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Marks commands as acknowledged by the web service.
+     * The file is emptied when no command is pending.
+     */
+    synchronized void __acknowledge(ArrayList<Command> commands) throws IOException
+    {
+        for (Command command : commands)
+            writeRecord(ACKNOWLEDGEMENT_RECORD, command);
+        pendingCount_ -= commands.size();
+
+        if (pendingCount_ <= 0)
+        {
+            pendingCount_ = 0;
+            writer_.flush();
+            channel_.truncate(headerLength_);
+            channel_.position(headerLength_);
+        }
+    }
+
+    void __close()
+    {
+        try
+        {
+            synchronized (this)
+            {
+                writer_.flush();
+            }
+            channel_.force(false);
+            lock_.release();
+            file_.close();
+        } catch (IOException e)
+        {
+        }
+    }
+
+    private void writeRecord(byte type, Command command) throws IOException
+    {
+        recordBuffer_.reset();
+        recordWriter_.writeByte(type);
+        recordWriter_.writeInt(command.__getClientID());
+        recordWriter_.writeLong(command.__getSequence());
+        if (type == COMMAND_RECORD)
+        {
+            recordWriter_.writeUTF(command.GetName());
+            ArrayList<String> parameters = command.GetParameters();
+            recordWriter_.writeByte(parameters.size());
+            for (String parameter : parameters)
+                recordWriter_.writeUTF(parameter);
+        }
+        recordWriter_.flush();
+
+        crc_.reset();
+        crc_.update(recordBuffer_.toByteArray(), 0, recordBuffer_.size());
+
+        writer_.writeInt(recordBuffer_.size());
+        writer_.writeInt((int) crc_.getValue());
+        recordBuffer_.writeTo(writer_);
+    }
+
+    private ArrayList<Command> readPendingCommands(byte[] header) throws IOException
+    {
+        LinkedHashMap<String, Command> pendingCommands = new LinkedHashMap<String, Command>();
+
+        DataInputStream reader = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(channel_), 1 << 16));
+        try
+        {
+            byte[] existingHeader = new byte[header.length];
+            reader.readFully(existingHeader);
+            if (!Arrays.equals(header, existingHeader))
+                return new ArrayList<Command>();
+
+            while (true)
+            {
+                int length = reader.readInt();
+                int crc = reader.readInt();
+                if (length <= 0 || length > MAX_RECORD_LENGTH)
+                    break;
+
+                byte[] payload = new byte[length];
+                reader.readFully(payload);
+
+                crc_.reset();
+                crc_.update(payload, 0, length);
+                if ((int) crc_.getValue() != crc)
+                    break;
+
+                DataInputStream payloadReader =
+                        new DataInputStream(new ByteArrayInputStream(payload));
+                byte type = payloadReader.readByte();
+                int clientID = payloadReader.readInt();
+                long sequence = payloadReader.readLong();
+                String key = clientID + "-" + sequence;
+
+                if (type == ACKNOWLEDGEMENT_RECORD)
+                {
+                    pendingCommands.remove(key);
+                    continue;
+                }
+
+                String name = payloadReader.readUTF();
+                int parametersCount = payloadReader.readByte();
+                ArrayList<String> parameters = new ArrayList<String>(parametersCount);
+                for (int i = 0; i < parametersCount; i++)
+                    parameters.add(payloadReader.readUTF());
+
+                Command command = new Command(name, parameters);
+                command.__setClientID(clientID);
+                command.__setSequence(sequence);
+                pendingCommands.put(key, command);
+            }
+        } catch (EOFException e)
+        {
+            // The end of the file or a torn record
+        }
+
+        return new ArrayList<Command>(pendingCommands.values());
+    }
+
+    private static byte[] createHeader(String serviceURL, int graphID, int userID)
+            throws IOException
+    {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream headerWriter = new DataOutputStream(header);
+        headerWriter.writeInt(MAGIC);
+        headerWriter.writeShort(VERSION);
+        headerWriter.writeUTF(serviceURL);
+        headerWriter.writeInt(graphID);
+        headerWriter.writeInt(userID);
+        headerWriter.flush();
+
+        return header.toByteArray();
+    }
+}
@@ -7,76 +7,177 @@ import java.util.ArrayList;
 
 /**
  * This class processes incoming commands and make necessary actions.
+ * Each command is decoded once into a DecodedCommand, which is reused for all commands,
+ * and applied from its numbers.
  */
 class CommandProcessor
 {
     private Graph graph_;
+    private DecodedCommand command_;
+    private EchoFilter echoFilter_;
 
-    CommandProcessor(Graph graph)
+    CommandProcessor(Graph graph, EchoFilter echoFilter)
     {
         graph_ = graph;
+        command_ = new DecodedCommand();
+        echoFilter_ = echoFilter;
     }
 
     void __processCommand(Command command)
     {
-        String name = command.GetName();
+        if (echoFilter_.__isAppliedEcho(command))
+        {
+            raiseEchoEvent(command);
+            return;
+        }
+
+        if (!command_.__decode(command))
+            return;
 
-        switch (name)
+        switch (command_.__getType())
         {
-            case "InsertVertex":
-                processInsertVertexCommand(command);
+            case INSERT_VERTEX:
+                processInsertVertexCommand(command_);
                 break;
-            case "InsertEdge":
-                processInsertEdgeCommand(command);
+            case INSERT_EDGE:
+                processInsertEdgeCommand(command_);
                 break;
-            case "BreakEdgeLine":
-                processBreakEdgeLineCommand(command);
+            case BREAK_EDGE_LINE:
+                processBreakEdgeLineCommand(command_);
                 break;
-            case "RemoveVertex":
-                processRemoveVertexCommand(command);
+            case REMOVE_VERTEX:
+                processRemoveVertexCommand(command_);
                 break;
-            case "RemoveEdge":
-                processRemoveEdgeCommand(command);
+            case REMOVE_EDGE:
+                processRemoveEdgeCommand(command_);
                 break;
-            case "RemoveBend":
-                processRemoveBendCommand(command);
+            case REMOVE_BEND:
+                processRemoveBendCommand(command_);
                 break;
-            case "MoveVertex":
-                processMoveVertexCommand(command);
+            case MOVE_VERTEX:
+                processMoveVertexCommand(command_);
                 break;
-            case "ChangeVertexScale":
-                processChangeVertexScaleCommand(command);
+            case CHANGE_VERTEX_SCALE:
+                processChangeVertexScaleCommand(command_);
                 break;
-            case "ChangeVertexRotation":
-                processChangeVertexRotationCommand(command);
+            case CHANGE_VERTEX_ROTATION:
+                processChangeVertexRotationCommand(command_);
                 break;
-            case "MoveBend":
-                processMoveBendCommand(command);
+            case MOVE_BEND:
+                processMoveBendCommand(command_);
                 break;
-            case "ChangeCameraPosition":
-                processChangeCameraPositionCommand(command);
+            case CHANGE_CAMERA_POSITION:
+                processChangeCameraPositionCommand(command_);
                 break;
-            case "ChangeCameraRotation":
-                processChangeCameraRotationCommand(command);
+            case CHANGE_CAMERA_ROTATION:
+                processChangeCameraRotationCommand(command_);
                 break;
-            case "SetVertexProperty":
-                processSetVertexPropertyCommand(command);
+            case SET_VERTEX_PROPERTY:
+                processSetVertexPropertyCommand(command_);
                 break;
-            case "SetEdgeProperty":
-                processSetEdgePropertyCommand(command);
+            case SET_EDGE_PROPERTY:
+                processSetEdgePropertyCommand(command_);
                 break;
         }
     }
 
-    private void processInsertVertexCommand(Command command)
+    /**
+     * Raises the event of an echo of a command of this client which is already applied,
+     * for the element it was applied to.
+     * Like before the echoes were recognized, the events of removals have no element and
+     * an inserted edge or a removed bend has no event.
+     */
+    private void raiseEchoEvent(Command command)
     {
         ArrayList<String> parameters = command.GetParameters();
-        int commandClientID = command.__getClientID();
+        FullIDHashDictionary<Vertex> verticesDictionary = graph_.__getVerticesDictionary();
+        FullIDHashDictionary<Edge> edgesDictionary = graph_.__getEdgesDictionary();
+        Vertex vertex;
+        Bend bend;
 
+        switch (command.__getType())
+        {
+            case INSERT_VERTEX:
+                vertex = verticesDictionary.Find(FullID.Pack(command.__getClientID(),
+                        Integer.parseInt(parameters.get(0))));
+                if (vertex != null)
+                    graph_.__raiseVertexAddedEvent(vertex);
+                break;
+            case BREAK_EDGE_LINE:
+                bend = findBend(parameters);
+                if (bend != null)
+                    graph_.__raiseBendAddedEvent(bend);
+                break;
+            case REMOVE_VERTEX:
+                graph_.__raiseVertexRemovedEvent(null);
+                break;
+            case REMOVE_EDGE:
+                graph_.__raiseEdgeRemovedEvent(null);
+                break;
+            case MOVE_VERTEX:
+                vertex = verticesDictionary.Find(FullID.Parse(parameters.get(0)));
+                if (vertex != null)
+                    graph_.__raiseVertexMovedEvent(vertex);
+                break;
+            case CHANGE_VERTEX_SCALE:
+                vertex = verticesDictionary.Find(FullID.Parse(parameters.get(0)));
+                if (vertex != null)
+                    graph_.__raiseVertexScaleChangedEvent(vertex);
+                break;
+            case CHANGE_VERTEX_ROTATION:
+                vertex = verticesDictionary.Find(FullID.Parse(parameters.get(0)));
+                if (vertex != null)
+                    graph_.__raiseVertexRotationChangedEvent(vertex);
+                break;
+            case MOVE_BEND:
+                bend = findBend(parameters);
+                if (bend != null)
+                    graph_.__raiseBendMovedEvent(bend);
+                break;
+            case CHANGE_CAMERA_POSITION:
+            case CHANGE_CAMERA_ROTATION:
+                graph_.__raiseCameraChangedEvent();
+                break;
+            case SET_VERTEX_PROPERTY:
+                vertex = verticesDictionary.Find(FullID.Parse(parameters.get(0)));
+                if (vertex != null)
+                    graph_.__raiseVertexPropertyChangedEvent(vertex, parameters.get(1),
+                            parameters.get(2));
+                break;
+            case SET_EDGE_PROPERTY:
+                Edge edge = edgesDictionary.Find(FullID.Parse(parameters.get(0)));
+                if (edge != null)
+                    graph_.__raiseEdgePropertyChangedEvent(edge, parameters.get(1),
+                            parameters.get(2));
+                break;
+        }
+    }
+
+    /**
+     * Finds the bend at the end of an edge line by the edge and the index in the first
+     * two parameters of a command
+     *
+     * @return null if the edge or the bend doesn't exist
+     */
+    private Bend findBend(ArrayList<String> parameters)
+    {
+        Edge edge = graph_.__getEdgesDictionary().Find(FullID.Parse(parameters.get(0)));
+        if (edge == null)
+            return null;
+
+        int index = Integer.parseInt(parameters.get(1));
+        if (index < 0 || index >= edge.__getEdgeLines().size())
+            return null;
+
+        return edge.__getEdgeLines().get(index).GetEndBend();
+    }
 
-        Point3D position = new Point3D(Double.parseDouble(parameters.get(1)),
-                Double.parseDouble(parameters.get(2)), Double.parseDouble(parameters.get(3)));
-        FullID vertexFullID = new FullID(commandClientID, Integer.parseInt(parameters.get(0)));
+    private void processInsertVertexCommand(DecodedCommand command)
+    {
+        int commandClientID = command.__getClientID();
+
+        Point3D position = new Point3D(command.__getX(), command.__getY(), command.__getZ());
+        FullID vertexFullID = new FullID(commandClientID, command.__getNumber());
         Vertex insertedVertex = graph_.__insertVertex(position, vertexFullID);
         if (graph_.IsLoading() && commandClientID == graph_.__getClientID())
             graph_.__setLastCreatedVertexID(vertexFullID.GetIDinCreator());
@@ -84,14 +185,12 @@ class CommandProcessor
         graph_.__raiseVertexAddedEvent(insertedVertex);
     }
 
-    private void processInsertEdgeCommand(Command command)
+    private void processInsertEdgeCommand(DecodedCommand command)
     {
-        ArrayList<String> parameters = command.GetParameters();
         int commandClientID = command.__getClientID();
-        FullIDHashDictionary<Vertex> verticesDictionary = graph_.__getVerticesDictionary();
 
-        Vertex fromVertex = verticesDictionary.Find(FullID.FromString(parameters.get(0)));
-        Vertex endVertex = verticesDictionary.Find(FullID.FromString(parameters.get(1)));
+        Vertex fromVertex = graph_.__getVerticesDictionary().Find(command.__getFullID());
+        Vertex endVertex = graph_.__getVerticesDictionary().Find(command.__getSecondFullID());
 
         if (fromVertex == null || endVertex == null)
             return;
@@ -99,7 +198,7 @@ class CommandProcessor
         if (fromVertex.IsConnectedTo(endVertex))
             return;
 
-        FullID edgeFullID = new FullID(commandClientID, Integer.parseInt(parameters.get(2)));
+        FullID edgeFullID = new FullID(commandClientID, command.__getNumber());
 
         Edge edge = fromVertex.__connectTo(endVertex, edgeFullID);
         if (graph_.IsLoading() && commandClientID == graph_.__getClientID())
@@ -108,185 +207,138 @@ class CommandProcessor
         graph_.__raiseEdgeAddedEvent(edge);
     }
 
-    private void processBreakEdgeLineCommand(Command command)
+    private void processBreakEdgeLineCommand(DecodedCommand command)
     {
-        ArrayList<String> parameters = command.GetParameters();
-        FullIDHashDictionary<Edge> edgesDictionary = graph_.__getEdgesDictionary();
-
-        Edge edge = edgesDictionary.Find(FullID.FromString(parameters.get(0)));
+        Edge edge = graph_.__getEdgesDictionary().Find(command.__getFullID());
         if (edge == null)
             return;
 
-        Point3D position = new Point3D(Double.parseDouble(parameters.get(2)),
-                Double.parseDouble(parameters.get(3)), Double.parseDouble(parameters.get(4)));
+        Point3D position = new Point3D(command.__getX(), command.__getY(), command.__getZ());
 
-        Bend bend = edge.__breakEdgeLine(position, Integer.parseInt(parameters.get(1)));
+        Bend bend = edge.__breakEdgeLine(position, command.__getNumber());
 
         graph_.__raiseBendAddedEvent(bend);
     }
 
-    private void processRemoveVertexCommand(Command command)
+    private void processRemoveVertexCommand(DecodedCommand command)
     {
-        ArrayList<String> parameters = command.GetParameters();
-        FullIDHashDictionary<Vertex> verticesDictionary = graph_.__getVerticesDictionary();
-
-        Vertex vertex = verticesDictionary.Find(FullID.FromString(parameters.get(0)));
+        Vertex vertex = graph_.__getVerticesDictionary().Find(command.__getFullID());
 
         graph_.__removeVertex(vertex);
 
         graph_.__raiseVertexRemovedEvent(vertex);
     }
 
-    private void processRemoveEdgeCommand(Command command)
+    private void processRemoveEdgeCommand(DecodedCommand command)
     {
-        ArrayList<String> parameters = command.GetParameters();
-        FullIDHashDictionary<Edge> edgesDictionary = graph_.__getEdgesDictionary();
-
-        Edge edge = edgesDictionary.Find(FullID.FromString(parameters.get(0)));
+        Edge edge = graph_.__getEdgesDictionary().Find(command.__getFullID());
         graph_.__removeEdge(edge);
 
         graph_.__raiseEdgeRemovedEvent(edge);
     }
 
-    private void processRemoveBendCommand(Command command)
+    private void processRemoveBendCommand(DecodedCommand command)
     {
-        ArrayList<String> parameters = command.GetParameters();
-        FullIDHashDictionary<Edge> edgesDictionary = graph_.__getEdgesDictionary();
-
-        Edge edge = edgesDictionary.Find(FullID.FromString(parameters.get(0)));
+        Edge edge = graph_.__getEdgesDictionary().Find(command.__getFullID());
 
         if (edge == null)
             return;
 
-        Bend bend = edge.__removeBend(Integer.parseInt(parameters.get(1)));
+        Bend bend = edge.__removeBend(command.__getNumber());
 
         graph_.__raiseBendRemovedEvent(bend);
     }
 
-    private void processMoveVertexCommand(Command command)
+    private void processMoveVertexCommand(DecodedCommand command)
     {
-        ArrayList<String> parameters = command.GetParameters();
-        FullIDHashDictionary<Vertex> verticesDictionary = graph_.__getVerticesDictionary();
-
-        Vertex vertex = verticesDictionary.Find(FullID.FromString(parameters.get(0)));
+        Vertex vertex = graph_.__getVerticesDictionary().Find(command.__getFullID());
 
         if (vertex == null)
             return;
 
-        Point3D position = new Point3D(Double.parseDouble(parameters.get(1)),
-                Double.parseDouble(parameters.get(2)), Double.parseDouble(parameters.get(3)));
-
-        vertex.__move(position);
+        vertex.__move(command.__getX(), command.__getY(), command.__getZ());
 
         graph_.__raiseVertexMovedEvent(vertex);
     }
 
-    private void processChangeVertexRotationCommand(Command command)
+    private void processChangeVertexRotationCommand(DecodedCommand command)
     {
-        ArrayList<String> parameters = command.GetParameters();
-        FullIDHashDictionary<Vertex> verticesDictionary = graph_.__getVerticesDictionary();
-
-        Vertex vertex = verticesDictionary.Find(FullID.FromString(parameters.get(0)));
+        Vertex vertex = graph_.__getVerticesDictionary().Find(command.__getFullID());
 
         if (vertex == null)
             return;
 
-        Point4D rotation = new Point4D(
-                Double.parseDouble(parameters.get(1)), Double.parseDouble(parameters.get(2)),
-                Double.parseDouble(parameters.get(3)), Double.parseDouble(parameters.get(4)));
-
-        vertex.__setRotation(rotation);
+        vertex.__setRotation(command.__getX(), command.__getY(), command.__getZ(),
+                command.__getW());
 
         graph_.__raiseVertexRotationChangedEvent(vertex);
     }
 
-    private void processChangeVertexScaleCommand(Command command)
+    private void processChangeVertexScaleCommand(DecodedCommand command)
     {
-        ArrayList<String> parameters = command.GetParameters();
-        FullIDHashDictionary<Vertex> verticesDictionary = graph_.__getVerticesDictionary();
-
-        Vertex vertex = verticesDictionary.Find(FullID.FromString(parameters.get(0)));
+        Vertex vertex = graph_.__getVerticesDictionary().Find(command.__getFullID());
 
         if (vertex == null)
             return;
 
-        double scale = Double.parseDouble(parameters.get(1));
-
-        vertex.__setScale(scale);
+        vertex.__setScale(command.__getX());
 
         graph_.__raiseVertexScaleChangedEvent(vertex);
     }
 
-    private void processMoveBendCommand(Command command)
+    private void processMoveBendCommand(DecodedCommand command)
     {
-        ArrayList<String> parameters = command.GetParameters();
-        FullIDHashDictionary<Edge> edgesDictionary = graph_.__getEdgesDictionary();
-
-        Edge edge = edgesDictionary.Find(FullID.FromString(parameters.get(0)));
+        Edge edge = graph_.__getEdgesDictionary().Find(command.__getFullID());
         if (edge == null)
             return;
 
-        Point3D position = new Point3D(Double.parseDouble(parameters.get(2)),
-                Double.parseDouble(parameters.get(3)), Double.parseDouble(parameters.get(4)));
-
-        int index = Integer.parseInt(parameters.get(1));
-        Bend bend = edge.GetEdgeLines().get(index).GetEndBend();
-        bend.__move(position);
+        Bend bend = edge.__getEdgeLines().get(command.__getNumber()).GetEndBend();
+        bend.__move(command.__getX(), command.__getY(), command.__getZ());
 
         graph_.__raiseBendMovedEvent(bend);
     }
 
-    private void processChangeCameraPositionCommand(Command command)
+    private void processChangeCameraPositionCommand(DecodedCommand command)
     {
-        ArrayList<String> parameters = command.GetParameters();
-
-        Point3D position = new Point3D(Double.parseDouble(parameters.get(0)),
-                Double.parseDouble(parameters.get(1)), Double.parseDouble(parameters.get(2)));
+        Point3D position = new Point3D(command.__getX(), command.__getY(), command.__getZ());
         graph_.GetCamera().__changePosition(position);
 
         graph_.__raiseCameraChangedEvent();
     }
 
-    private void processChangeCameraRotationCommand(Command command)
+    private void processChangeCameraRotationCommand(DecodedCommand command)
     {
-        ArrayList<String> parameters = command.GetParameters();
-
-        Point4D quaternion = new Point4D(Double.parseDouble(parameters.get(0)),
-                Double.parseDouble(parameters.get(1)), Double.parseDouble(parameters.get(2)),
-                Double.parseDouble(parameters.get(3)));
+        Point4D quaternion = new Point4D(command.__getX(), command.__getY(),
+                command.__getZ(), command.__getW());
 
         graph_.GetCamera().__changeRotation(quaternion);
 
         graph_.__raiseCameraChangedEvent();
     }
 
-    private void processSetVertexPropertyCommand(Command command)
+    private void processSetVertexPropertyCommand(DecodedCommand command)
     {
-        ArrayList<String> parameters = command.GetParameters();
-        FullIDHashDictionary<Vertex> verticesDictionary = graph_.__getVerticesDictionary();
-
-        Vertex vertex = verticesDictionary.Find(FullID.FromString(parameters.get(0)));
+        Vertex vertex = graph_.__getVerticesDictionary().Find(command.__getFullID());
 
         if (vertex == null)
             return;
 
-        vertex.__setProperty(parameters.get(1), parameters.get(2), parameters.get(3));
+        vertex.__setProperty(command.__getListName(), command.__getKey(), command.__getValue());
 
-        graph_.__raiseVertexPropertyChangedEvent(vertex, parameters.get(1), parameters.get(2));
+        graph_.__raiseVertexPropertyChangedEvent(vertex, command.__getListName(),
+                command.__getKey());
     }
 
-    private void processSetEdgePropertyCommand(Command command)
+    private void processSetEdgePropertyCommand(DecodedCommand command)
     {
-        ArrayList<String> parameters = command.GetParameters();
-        FullIDHashDictionary<Edge> edgesDictionary = graph_.__getEdgesDictionary();
-
-        Edge edge = edgesDictionary.Find(FullID.FromString(parameters.get(0)));
+        Edge edge = graph_.__getEdgesDictionary().Find(command.__getFullID());
 
         if (edge == null)
             return;
 
-        edge.__setProperty(parameters.get(1), parameters.get(2), parameters.get(3));
+        edge.__setProperty(command.__getListName(), command.__getKey(), command.__getValue());
 
-        graph_.__raiseEdgePropertyChangedEvent(edge, parameters.get(1), parameters.get(2));
+        graph_.__raiseEdgePropertyChangedEvent(edge, command.__getListName(),
+                command.__getKey());
     }
 }
@@ -3,15 +3,48 @@ package We3Graph;
 import java.util.ArrayList;
 
 /**
- * This class helps sending different command to the server
+ * This class helps sending different command to the server.
+ * The commands are queued while the graph is locked for writing, so that they are
+ * queued in the order of the changes, and they are committed after the lock is
+ * released, so that readers don't wait while they are forced to the outbox.
  */
 class CommandSender
 {
     private ServiceManager serviceManager_;
+    private boolean hasQueuedCommands_;
+    private long outboxNumber_;
 
     CommandSender(ServiceManager serviceManager)
     {
         serviceManager_ = serviceManager;
+        hasQueuedCommands_ = false;
+        outboxNumber_ = 0;
+    }
+
+    /**
+     * Takes the commands queued since the last call. The graph should be locked for
+     * writing.
+     *
+     * @return The number to pass to __commitCommands, or -1 if no command was queued
+     */
+    long __takeQueuedCommands()
+    {
+        if (!hasQueuedCommands_)
+            return -1;
+
+        hasQueuedCommands_ = false;
+        return outboxNumber_;
+    }
+
+    void __commitCommands(long outboxNumber)
+    {
+        serviceManager_.__commitCommands(outboxNumber);
+    }
+
+    private void queue(Command command)
+    {
+        outboxNumber_ = Math.max(outboxNumber_, serviceManager_.__queueCommand(command));
+        hasQueuedCommands_ = true;
     }
 
     void __sendInsertVertexCommand(Vertex vertex)
@@ -24,7 +57,7 @@ class CommandSender
         parameters.add("" + position.GetZ());
 
         Command command = new Command("InsertVertex", parameters);
-        serviceManager_.__runCommand(command);
+        queue(command);
     }
 
     void __sendInsertEdgeCommand(Edge edge)
@@ -35,7 +68,7 @@ class CommandSender
         parameters.add("" + edge.GetFullID().GetIDinCreator());
 
         Command command = new Command("InsertEdge", parameters);
-        serviceManager_.__runCommand(command);
+        queue(command);
     }
 
     void __sendBreakEdgeLineCommand(Edge edge, int index, Point3D position)
@@ -48,7 +81,7 @@ class CommandSender
         parameters.add("" + position.GetZ());
 
         Command command = new Command("BreakEdgeLine", parameters);
-        serviceManager_.__runCommand(command);
+        queue(command);
     }
 
     void __sendRemoveVertexCommand(Vertex vertex)
@@ -57,7 +90,7 @@ class CommandSender
         parameters.add(vertex.GetFullID().ToString());
 
         Command command = new Command("RemoveVertex", parameters);
-        serviceManager_.__runCommand(command);
+        queue(command);
     }
 
     void __sendRemoveEdgeCommand(Edge edge)
@@ -66,7 +99,7 @@ class CommandSender
         parameters.add(edge.GetFullID().ToString());
 
         Command command = new Command("RemoveEdge", parameters);
-        serviceManager_.__runCommand(command);
+        queue(command);
     }
 
     void __sendRemoveBendCommand(Edge edge, int index)
@@ -76,7 +109,7 @@ class CommandSender
         parameters.add("" + index);
 
         Command command = new Command("RemoveBend", parameters);
-        serviceManager_.__runCommand(command);
+        queue(command);
     }
 
     void __sendMoveVertexCommand(Vertex vertex)
@@ -89,7 +122,7 @@ class CommandSender
         parameters.add("" + position.GetZ());
 
         Command command = new Command("MoveVertex", parameters);
-        serviceManager_.__runCommand(command);
+        queue(command);
     }
 
     void __sendChangeVertexRotationCommand(Vertex vertex)
@@ -103,7 +136,7 @@ class CommandSender
         parameters.add("" + rotation.GetW());
 
         Command command = new Command("ChangeVertexRotation", parameters);
-        serviceManager_.__runCommand(command);
+        queue(command);
     }
 
     void __sendChangeVertexScaleCommand(Vertex vertex)
@@ -114,7 +147,7 @@ class CommandSender
         parameters.add("" + scale);
 
         Command command = new Command("ChangeVertexScale", parameters);
-        serviceManager_.__runCommand(command);
+        queue(command);
     }
 
     void __sendMoveBendCommand(Bend bend)
@@ -128,7 +161,7 @@ class CommandSender
         parameters.add("" + position.GetZ());
 
         Command command = new Command("MoveBend", parameters);
-        serviceManager_.__runCommand(command);
+        queue(command);
     }
 
     void __sendChangeCameraPositionCommand(Point3D position)
@@ -139,7 +172,7 @@ class CommandSender
         parameters.add("" + position.GetZ());
 
         Command command = new Command("ChangeCameraPosition", parameters);
-        serviceManager_.__runCommand(command);
+        queue(command);
     }
 
     void __sendChangeCameraRotationCommand(Point4D rotation)
@@ -151,7 +184,7 @@ class CommandSender
         parameters.add("" + rotation.GetW());
 
         Command command = new Command("ChangeCameraRotation", parameters);
-        serviceManager_.__runCommand(command);
+        queue(command);
     }
 
     void __sendSetVertexPropertyCommand(Vertex vertex, String listName,
@@ -168,7 +201,7 @@ class CommandSender
             parameters.add("0");
 
         Command command = new Command("SetVertexProperty", parameters);
-        serviceManager_.__runCommand(command);
+        queue(command);
     }
 
     void __sendSetEdgePropertyCommand(Edge edge, String listName,
@@ -185,7 +218,7 @@ class CommandSender
             parameters.add("0");
 
         Command command = new Command("SetEdgeProperty", parameters);
-        serviceManager_.__runCommand(command);
+        queue(command);
     }
 }
 
@@ -0,0 +1,49 @@
+package We3Graph;
+
+import java.util.HashMap;
+
+/**
+ * The commands of a graph which are applied by CommandProcessor, by their names
+ * in the web service
+ */
+enum CommandType
+{
+    INSERT_VERTEX("InsertVertex"),
+    INSERT_EDGE("InsertEdge"),
+    BREAK_EDGE_LINE("BreakEdgeLine"),
+    REMOVE_VERTEX("RemoveVertex"),
+    REMOVE_EDGE("RemoveEdge"),
+    REMOVE_BEND("RemoveBend"),
+    MOVE_VERTEX("MoveVertex"),
+    CHANGE_VERTEX_SCALE("ChangeVertexScale"),
+    CHANGE_VERTEX_ROTATION("ChangeVertexRotation"),
+    MOVE_BEND("MoveBend"),
+    CHANGE_CAMERA_POSITION("ChangeCameraPosition"),
+    CHANGE_CAMERA_ROTATION("ChangeCameraRotation"),
+    SET_VERTEX_PROPERTY("SetVertexProperty"),
+    SET_EDGE_PROPERTY("SetEdgeProperty");
+
+    private static final HashMap<String, CommandType> types_ =
+            new HashMap<String, CommandType>();
+
+    static
+    {
+        for (CommandType type : values())
+            types_.put(type.name_, type);
+    }
+
+    private final String name_;
+
+    CommandType(String name)
+    {
+        name_ = name;
+    }
+
+    /**
+     * @return null if no command has the name
+     */
+    static CommandType __fromName(String name)
+    {
+        return types_.get(name);
+    }
+}
@@ -0,0 +1,372 @@
+package We3Graph;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * Reads a JSON array of commands, as returned by the web service for a request
+ * for commands, directly from a stream into Command objects.
+ * Unlike org.json it doesn't build the response string or a tree of JSON objects,
+ * and the fields are matched without building strings for their names.
+ * Fields other than ID, Name, ClientID and Param1 to Param5 are skipped.
+ */
+class CommandsJSONReader
+{
+    private static final String[] FIELDS =
+            {"ID", "Name", "ClientID", "Param1", "Param2", "Param3", "Param4", "Param5"};
+    private static final int ID_FIELD = 0;
+    private static final int NAME_FIELD = 1;
+    private static final int CLIENT_ID_FIELD = 2;
+    private static final int FIRST_PARAMETER_FIELD = 3;
+
+    private Reader reader_;
+    private char[] buffer_;
+    private int position_;
+    private int length_;
+    private StringBuilder text_;
+    private ArrayList<String> names_;
+
+    CommandsJSONReader(InputStream inputStream)
+    {
+        reader_ = new InputStreamReader(inputStream, StandardCharsets.UTF_8);
+        buffer_ = new char[8192];
+        position_ = 0;
+        length_ = 0;
+        text_ = new StringBuilder();
+        names_ = new ArrayList<String>();
+    }
+
+    /**
+     * Reads the whole array
+     *
+     * @throws IOException if the stream can't be read or isn't a valid array of commands
+     */
+    ArrayList<Command> __readCommands() throws IOException
+    {
+        ArrayList<Command> commands = new ArrayList<Command>();
+
+        expect('[');
+        if (peekToken() == ']')
+        {
+            next();
+            return commands;
+        }
+
+        while (true)
+        {
+            commands.add(readCommand());
+
+            char c = nextToken();
+            if (c == ']')
+                break;
+            if (c != ',')
+                throw error();
+        }
+
+        return commands;
+    }
+
+    private Command readCommand() throws IOException
+    {
+        String name = null;
+        int commandID = 0;
+        int clientID = 0;
+        ArrayList<String> parameters = new ArrayList<String>(5);
+        for (int i = 0; i < 5; i++)
+            parameters.add("");
+
+        expect('{');
+        if (peekToken() == '}')
+            next();
+        else
+            while (true)
+            {
+                expect('"');
+                readString();
+                int field = findField();
+                expect(':');
+
+                if (field == ID_FIELD)
+                    commandID = readInteger();
+                else if (field == CLIENT_ID_FIELD)
+                    clientID = readInteger();
+                else if (field == NAME_FIELD)
+                    name = readName();
+                else if (field >= FIRST_PARAMETER_FIELD)
+                    parameters.set(field - FIRST_PARAMETER_FIELD, readText());
+                else
+                    skipValue();
+
+                char c = nextToken();
+                if (c == '}')
+                    break;
+                if (c != ',')
+                    throw error();
+            }
+
+        if (name == null)
+            throw error();
+
+        Command command = new Command(name, parameters);
+        command.__setID(commandID);
+        command.__setClientID(clientID);
+
+        return command;
+    }
+
+    /**
+     * Finds which field the name in text_ is
+     *
+     * @return -1 if it's not a command field
+     */
+    private int findField()
+    {
+        for (int i = 0; i < FIELDS.length; i++)
+            if (isText(FIELDS[i]))
+                return i;
+
+        return -1;
+    }
+
+    private boolean isText(String value)
+    {
+        if (value.length() != text_.length())
+            return false;
+        for (int i = 0; i < value.length(); i++)
+            if (value.charAt(i) != text_.charAt(i))
+                return false;
+
+        return true;
+    }
+
+    /**
+     * Reads a command name. The same string is returned for every command
+     * with the same name.
+     */
+    private String readName() throws IOException
+    {
+        expect('"');
+        readString();
+        for (String name : names_)
+            if (isText(name))
+                return name;
+
+        String name = text_.toString();
+        names_.add(name);
+        return name;
+    }
+
+    /**
+     * Reads a string, number, boolean or null value as text
+     */
+    private String readText() throws IOException
+    {
+        char c = peekToken();
+        if (c == '"')
+        {
+            next();
+            readString();
+        } else
+        {
+            readLiteral();
+            if (isText("null"))
+                return "";
+        }
+
+        return text_.toString();
+    }
+
+    private int readInteger() throws IOException
+    {
+        char c = peekToken();
+        if (c == '"')
+        {
+            next();
+            readString();
+        } else
+            readLiteral();
+
+        int result = 0;
+        boolean isNegative = false;
+        int i = 0;
+        if (text_.length() > 0 && text_.charAt(0) == '-')
+        {
+            isNegative = true;
+            i++;
+        }
+        if (i == text_.length())
+            throw error();
+        for (; i < text_.length(); i++)
+        {
+            char digit = text_.charAt(i);
+            if (digit < '0' || digit > '9')
+                throw error();
+            result = result * 10 + (digit - '0');
+        }
+
+        return isNegative ? -result : result;
+    }
+
+    /**
+     * Reads the rest of a string whose opening quote is read into text_
+     */
+    private void readString() throws IOException
+    {
+        text_.setLength(0);
+        while (true)
+        {
+            // Copy the characters up to the next quote or escape at once
+            int start = position_;
+            while (position_ < length_)
+            {
+                char c = buffer_[position_];
+                if (c == '"' || c == '\\')
+                    break;
+                position_++;
+            }
+            text_.append(buffer_, start, position_ - start);
+
+            char c = next();
+            if (c == '"')
+                return;
+            if (c == '\\')
+                text_.append(readEscape());
+            else
+                text_.append(c);
+        }
+    }
+
+    private char readEscape() throws IOException
+    {
+        char c = next();
+        switch (c)
+        {
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u':
+                int code = 0;
+                for (int i = 0; i < 4; i++)
+                {
+                    int digit = Character.digit(next(), 16);
+                    if (digit < 0)
+                        throw error();
+                    code = code * 16 + digit;
+                }
+                return (char) code;
+            default:
+                return c;
+        }
+    }
+
+    /**
+     * Reads a number, true, false or null into text_
+     */
+    private void readLiteral() throws IOException
+    {
+        text_.setLength(0);
+        while (true)
+        {
+            if (position_ == length_ && !fill())
+                break;
+            char c = buffer_[position_];
+            if (c == ',' || c == '}' || c == ']' || Character.isWhitespace(c))
+                break;
+            text_.append(c);
+            position_++;
+        }
+
+        if (text_.length() == 0)
+            throw error();
+    }
+
+    private void skipValue() throws IOException
+    {
+        char c = peekToken();
+        if (c == '"')
+        {
+            next();
+            readString();
+        } else if (c == '{' || c == '[')
+        {
+            next();
+            int depth = 1;
+            while (depth > 0)
+            {
+                c = next();
+                if (c == '"')
+                    readString();
+                else if (c == '{' || c == '[')
+                    depth++;
+                else if (c == '}' || c == ']')
+                    depth--;
+            }
+        } else
+            readLiteral();
+    }
+
+    private void expect(char expected) throws IOException
+    {
+        if (nextToken() != expected)
+            throw error();
+    }
+
+    /**
+     * Gets the next character which is not white space without reading it
+     */
+    private char peekToken() throws IOException
+    {
+        while (true)
+        {
+            if (position_ == length_ && !fill())
+                throw error();
+            char c = buffer_[position_];
+            if (!Character.isWhitespace(c))
+                return c;
+            position_++;
+        }
+    }
+
+    private char nextToken() throws IOException
+    {
+        char c = peekToken();
+        position_++;
+        return c;
+    }
+
+    private char next() throws IOException
+    {
+        if (position_ == length_ && !fill())
+            throw error();
+        return buffer_[position_++];
+    }
+
+    private boolean fill() throws IOException
+    {
+        length_ = reader_.read(buffer_);
+        position_ = 0;
+        if (length_ <= 0)
+        {
+            length_ = 0;
+            return false;
+        }
+
+        return true;
+    }
+
+    private IOException error()
+    {
+        return new IOException("Invalid response for commands");
+    }
+}
@@ -0,0 +1,171 @@
+package We3Graph;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the coordinates of the vertices or the bends of a graph in parallel arrays
+ * instead of a Point3D and a Point4D per item.
+ * Each item gets a slot when it's added, which is reused after it is released.
+ * The arrays of rotations and scales, which only vertices have, are created when the
+ * first item is rotated or scaled.
+ */
+class CoordinateStore
+{
+    private static final int INITIAL_CAPACITY = 64;
+
+    private double[] x_;
+    private double[] y_;
+    private double[] z_;
+    private double[] rotationX_;
+    private double[] rotationY_;
+    private double[] rotationZ_;
+    private double[] rotationW_;
+    private double[] scales_;
+    private int[] freeSlots_;
+    private int freeSlotsCount_;
+    private int slotsCount_;
+
+    CoordinateStore()
+    {
+        x_ = new double[INITIAL_CAPACITY];
+        y_ = new double[INITIAL_CAPACITY];
+        z_ = new double[INITIAL_CAPACITY];
+        freeSlots_ = new int[16];
+        freeSlotsCount_ = 0;
+        slotsCount_ = 0;
+    }
+
+    /**
+     * Gets a slot for a new item at a position, with the default rotation and scale
+     */
+    int __allocate(double x, double y, double z)
+    {
+        int slot;
+        if (freeSlotsCount_ > 0)
+            slot = freeSlots_[--freeSlotsCount_];
+        else
+        {
+            if (slotsCount_ == x_.length)
+                grow(slotsCount_ * 2);
+            slot = slotsCount_++;
+        }
+
+        __setPosition(slot, x, y, z);
+        if (scales_ != null)
+            setDefaultOrientation(slot);
+
+        return slot;
+    }
+
+    /**
+     * Makes the slot of a removed item available to new items
+     */
+    void __release(int slot)
+    {
+        if (freeSlotsCount_ == freeSlots_.length)
+            freeSlots_ = Arrays.copyOf(freeSlots_, freeSlotsCount_ * 2);
+        freeSlots_[freeSlotsCount_++] = slot;
+    }
+
+    void __setPosition(int slot, double x, double y, double z)
+    {
+        x_[slot] = x;
+        y_[slot] = y;
+        z_[slot] = z;
+    }
+
+    void __setRotation(int slot, double x, double y, double z, double w)
+    {
+        if (rotationX_ == null)
+            createOrientation();
+
+        rotationX_[slot] = x;
+        rotationY_[slot] = y;
+        rotationZ_[slot] = z;
+        rotationW_[slot] = w;
+    }
+
+    void __setScale(int slot, double scale)
+    {
+        if (scales_ == null)
+            createOrientation();
+
+        scales_[slot] = scale;
+    }
+
+    double __getX(int slot)
+    {
+        return x_[slot];
+    }
+
+    double __getY(int slot)
+    {
+        return y_[slot];
+    }
+
+    double __getZ(int slot)
+    {
+        return z_[slot];
+    }
+
+    Point3D __getPosition(int slot)
+    {
+        return new Point3D(x_[slot], y_[slot], z_[slot]);
+    }
+
+    Point4D __getRotation(int slot)
+    {
+        if (rotationX_ == null)
+            return new Point4D(0, 0, 1, 1);
+
+        return new Point4D(rotationX_[slot], rotationY_[slot], rotationZ_[slot],
+                rotationW_[slot]);
+    }
+
+    double __getScale(int slot)
+    {
+        if (scales_ == null)
+            return 1;
+
+        return scales_[slot];
+    }
+
+    /**
+     * Creates the arrays of rotations and scales with the default ones for all slots
+     */
+    private void createOrientation()
+    {
+        int capacity = x_.length;
+        rotationX_ = new double[capacity];
+        rotationY_ = new double[capacity];
+        rotationZ_ = new double[capacity];
+        rotationW_ = new double[capacity];
+        scales_ = new double[capacity];
+        for (int i = 0; i < slotsCount_; i++)
+            setDefaultOrientation(i);
+    }
+
+    private void setDefaultOrientation(int slot)
+    {
+        rotationX_[slot] = 0;
+        rotationY_[slot] = 0;
+        rotationZ_[slot] = 1;
+        rotationW_[slot] = 1;
+        scales_[slot] = 1;
+    }
+
+    private void grow(int capacity)
+    {
+        x_ = Arrays.copyOf(x_, capacity);
+        y_ = Arrays.copyOf(y_, capacity);
+        z_ = Arrays.copyOf(z_, capacity);
+        if (scales_ != null)
+        {
+            rotationX_ = Arrays.copyOf(rotationX_, capacity);
+            rotationY_ = Arrays.copyOf(rotationY_, capacity);
+            rotationZ_ = Arrays.copyOf(rotationZ_, capacity);
+            rotationW_ = Arrays.copyOf(rotationW_, capacity);
+            scales_ = Arrays.copyOf(scales_, capacity);
+        }
+    }
+}
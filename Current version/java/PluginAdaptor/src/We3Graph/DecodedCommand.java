@@ -0,0 +1,382 @@
+package We3Graph;
+
+import We3Graph.IDSystem.FullID;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+
+/**
+ * The parameters of a command decoded from their strings into numbers, so that
+ * CommandProcessor applies it without parsing the strings again.
+ * One object is reused for all the commands applied to a graph.
+ * Which fields are set depends on the type of the command:
+ * <ul>
+ * <li>InsertVertex: number is the ID in creator, x, y and z the position</li>
+ * <li>InsertEdge: fullID and secondFullID are the vertices, number the ID in creator</li>
+ * <li>BreakEdgeLine: fullID is the edge, number the index, x, y and z the position</li>
+ * <li>RemoveVertex and RemoveEdge: fullID</li>
+ * <li>RemoveBend: fullID is the edge, number the index</li>
+ * <li>MoveVertex: fullID, x, y and z</li>
+ * <li>ChangeVertexScale: fullID, x is the scale</li>
+ * <li>ChangeVertexRotation: fullID, x, y, z and w</li>
+ * <li>MoveBend: fullID is the edge, number the index, x, y and z the position</li>
+ * <li>ChangeCameraPosition: x, y and z</li>
+ * <li>ChangeCameraRotation: x, y, z and w</li>
+ * <li>SetVertexProperty and SetEdgeProperty: fullID, list name, key and value</li>
+ * </ul>
+ */
+class DecodedCommand
+{
+    // The powers of ten which are exact doubles
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    private static final int MAX_MANTISSA_DIGITS = 19;
+    // The range of the powers of ten kept with 128 bits, other exponents are parsed by
+    // Double.parseDouble
+    private static final int MIN_EXPONENT = -100;
+    private static final int MAX_EXPONENT = 100;
+    private static final long[] POWERS_OF_TEN_HIGH;
+    private static final long[] POWERS_OF_TEN_LOW;
+
+    static
+    {
+        long[][] powers = computePowersOfTen();
+        POWERS_OF_TEN_HIGH = powers[0];
+        POWERS_OF_TEN_LOW = powers[1];
+    }
+
+    private CommandType type_;
+    private int clientID_;
+    private long fullID_;
+    private long secondFullID_;
+    private int number_;
+    private double x_;
+    private double y_;
+    private double z_;
+    private double w_;
+    private String listName_;
+    private String key_;
+    private String value_;
+
+    /**
+     * Decodes a command into this object
+     *
+     * @return false if the command is not applied to graphs
+     * @throws NumberFormatException if a parameter is not a number as expected
+     */
+    boolean __decode(Command command)
+    {
+        type_ = command.__getType();
+        if (type_ == null)
+            return false;
+
+        ArrayList<String> parameters = command.GetParameters();
+        clientID_ = command.__getClientID();
+        listName_ = null;
+        key_ = null;
+        value_ = null;
+
+        switch (type_)
+        {
+            case INSERT_VERTEX:
+                number_ = Integer.parseInt(parameters.get(0));
+                decodePosition(parameters, 1);
+                break;
+            case INSERT_EDGE:
+                fullID_ = FullID.Parse(parameters.get(0));
+                secondFullID_ = FullID.Parse(parameters.get(1));
+                number_ = Integer.parseInt(parameters.get(2));
+                break;
+            case BREAK_EDGE_LINE:
+            case MOVE_BEND:
+                fullID_ = FullID.Parse(parameters.get(0));
+                number_ = Integer.parseInt(parameters.get(1));
+                decodePosition(parameters, 2);
+                break;
+            case REMOVE_VERTEX:
+            case REMOVE_EDGE:
+                fullID_ = FullID.Parse(parameters.get(0));
+                break;
+            case REMOVE_BEND:
+                fullID_ = FullID.Parse(parameters.get(0));
+                number_ = Integer.parseInt(parameters.get(1));
+                break;
+            case MOVE_VERTEX:
+                fullID_ = FullID.Parse(parameters.get(0));
+                decodePosition(parameters, 1);
+                break;
+            case CHANGE_VERTEX_SCALE:
+                fullID_ = FullID.Parse(parameters.get(0));
+                x_ = parseDouble(parameters.get(1));
+                break;
+            case CHANGE_VERTEX_ROTATION:
+                fullID_ = FullID.Parse(parameters.get(0));
+                decodeQuaternion(parameters, 1);
+                break;
+            case CHANGE_CAMERA_POSITION:
+                decodePosition(parameters, 0);
+                break;
+            case CHANGE_CAMERA_ROTATION:
+                decodeQuaternion(parameters, 0);
+                break;
+            case SET_VERTEX_PROPERTY:
+            case SET_EDGE_PROPERTY:
+                fullID_ = FullID.Parse(parameters.get(0));
+                listName_ = parameters.get(1);
+                key_ = parameters.get(2);
+                value_ = parameters.get(3);
+                break;
+        }
+
+        return true;
+    }
+
+    CommandType __getType()
+    {
+        return type_;
+    }
+
+    int __getClientID()
+    {
+        return clientID_;
+    }
+
+    long __getFullID()
+    {
+        return fullID_;
+    }
+
+    long __getSecondFullID()
+    {
+        return secondFullID_;
+    }
+
+    int __getNumber()
+    {
+        return number_;
+    }
+
+    double __getX()
+    {
+        return x_;
+    }
+
+    double __getY()
+    {
+        return y_;
+    }
+
+    double __getZ()
+    {
+        return z_;
+    }
+
+    double __getW()
+    {
+        return w_;
+    }
+
+    String __getListName()
+    {
+        return listName_;
+    }
+
+    String __getKey()
+    {
+        return key_;
+    }
+
+    String __getValue()
+    {
+        return value_;
+    }
+
+    private void decodePosition(ArrayList<String> parameters, int first)
+    {
+        x_ = parseDouble(parameters.get(first));
+        y_ = parseDouble(parameters.get(first + 1));
+        z_ = parseDouble(parameters.get(first + 2));
+    }
+
+    private void decodeQuaternion(ArrayList<String> parameters, int first)
+    {
+        decodePosition(parameters, first);
+        w_ = parseDouble(parameters.get(first + 3));
+    }
+
+    /**
+     * Parses a double like Double.parseDouble, without creating any object for
+     * decimals of up to 19 digits such as the ones sent by clients
+     */
+    static double parseDouble(String text)
+    {
+        int length = text.length();
+        int i = 0;
+        boolean isNegative = length > 0 && text.charAt(0) == '-';
+        if (isNegative || (length > 0 && text.charAt(0) == '+'))
+            i++;
+
+        // The digits as an unsigned long, without the leading zeros
+        long mantissa = 0;
+        int digitsCount = 0;
+        int significantDigitsCount = 0;
+        int fractionDigitsCount = 0;
+        boolean isFraction = false;
+        for (; i < length; i++)
+        {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9')
+            {
+                if (mantissa != 0 || c != '0')
+                    significantDigitsCount++;
+                if (significantDigitsCount > MAX_MANTISSA_DIGITS)
+                    return Double.parseDouble(text);
+                mantissa = mantissa * 10 + (c - '0');
+                digitsCount++;
+                if (isFraction)
+                    fractionDigitsCount++;
+            } else if (c == '.' && !isFraction)
+                isFraction = true;
+            else
+                break;
+        }
+        if (digitsCount == 0)
+            return Double.parseDouble(text);
+
+        int exponent = 0;
+        if (i < length && (text.charAt(i) == 'e' || text.charAt(i) == 'E'))
+        {
+            i++;
+            boolean isExponentNegative = i < length && text.charAt(i) == '-';
+            if (isExponentNegative || (i < length && text.charAt(i) == '+'))
+                i++;
+            int exponentStart = i;
+            for (; i < length && exponent < 1000; i++)
+            {
+                char c = text.charAt(i);
+                if (c < '0' || c > '9')
+                    break;
+                exponent = exponent * 10 + (c - '0');
+            }
+            if (i == exponentStart)
+                return Double.parseDouble(text);
+            if (isExponentNegative)
+                exponent = -exponent;
+        }
+        if (i != length)
+            return Double.parseDouble(text);
+
+        exponent -= fractionDigitsCount;
+        double value;
+        if (mantissa == 0)
+            value = 0;
+        else if (mantissa > 0 && mantissa < MAX_EXACT_MANTISSA &&
+                exponent > -POWERS_OF_TEN.length && exponent < POWERS_OF_TEN.length)
+        {
+            // A mantissa and a power of ten which are both exact give the correctly
+            // rounded result with a single multiplication or division
+            if (exponent >= 0)
+                value = mantissa * POWERS_OF_TEN[exponent];
+            else
+                value = mantissa / POWERS_OF_TEN[-exponent];
+        } else
+        {
+            value = multiplyByPowerOfTen(mantissa, exponent);
+            if (Double.isNaN(value))
+                return Double.parseDouble(text);
+        }
+
+        return isNegative ? -value : value;
+    }
+
+    /**
+     * Computes an unsigned mantissa times a power of ten with the algorithm of
+     * Eisel and Lemire, using the 128 bits approximations of the powers of ten
+     *
+     * @return NaN if the approximation is not enough to round correctly
+     */
+    private static double multiplyByPowerOfTen(long mantissa, int exponent)
+    {
+        if (exponent < MIN_EXPONENT || exponent > MAX_EXPONENT)
+            return Double.NaN;
+
+        int leadingZeros = Long.numberOfLeadingZeros(mantissa);
+        mantissa <<= leadingZeros;
+        long binaryExponent = (217706L * exponent >> 16) + 64 + 1023 - leadingZeros;
+
+        int index = exponent - MIN_EXPONENT;
+        long high = multiplyHigh(mantissa, POWERS_OF_TEN_HIGH[index]);
+        long low = mantissa * POWERS_OF_TEN_HIGH[index];
+
+        // The low bits of the power of ten only matter if they could carry
+        if ((high & 0x1FF) == 0x1FF && Long.compareUnsigned(low + mantissa, mantissa) < 0)
+        {
+            long secondHigh = multiplyHigh(mantissa, POWERS_OF_TEN_LOW[index]);
+            long secondLow = mantissa * POWERS_OF_TEN_LOW[index];
+            long mergedLow = low + secondHigh;
+            if (Long.compareUnsigned(mergedLow, low) < 0)
+                high++;
+            if ((high & 0x1FF) == 0x1FF && mergedLow == -1 &&
+                    Long.compareUnsigned(secondLow + mantissa, mantissa) < 0)
+                return Double.NaN;
+            low = mergedLow;
+        }
+
+        long upperBit = high >>> 63;
+        long result = high >>> (upperBit + 9);
+        binaryExponent -= 1 ^ upperBit;
+
+        // A value half way between two doubles can't be told from the approximation
+        if (low == 0 && (high & 0x1FF) == 0 && (result & 3) == 1)
+            return Double.NaN;
+
+        result += result & 1;
+        result >>>= 1;
+        if (result >>> 53 > 0)
+        {
+            result >>>= 1;
+            binaryExponent++;
+        }
+        // Subnormal and infinite results are left to Double.parseDouble
+        if (binaryExponent < 1 || binaryExponent > 0x7FE)
+            return Double.NaN;
+
+        return Double.longBitsToDouble(binaryExponent << 52 | (result & 0xFFFFFFFFFFFFFL));
+    }
+
+    private static long multiplyHigh(long x, long y)
+    {
+        // Math.multiplyHigh is signed
+        return Math.multiplyHigh(x, y) + ((x >> 63) & y) + ((y >> 63) & x);
+    }
+
+    /**
+     * Computes the 128 bits of the powers of ten from MIN_EXPONENT to MAX_EXPONENT,
+     * rounded down, with the highest bit set
+     */
+    private static long[][] computePowersOfTen()
+    {
+        long[][] powers = new long[2][MAX_EXPONENT - MIN_EXPONENT + 1];
+        for (int exponent = MIN_EXPONENT; exponent <= MAX_EXPONENT; exponent++)
+        {
+            BigInteger power;
+            if (exponent >= 0)
+            {
+                power = BigInteger.TEN.pow(exponent);
+                int shift = power.bitLength() - 128;
+                power = shift > 0 ? power.shiftRight(shift) : power.shiftLeft(-shift);
+            } else
+            {
+                BigInteger divisor = BigInteger.TEN.pow(-exponent);
+                power = BigInteger.ONE.shiftLeft(127 + divisor.bitLength()).divide(divisor);
+            }
+
+            powers[0][exponent - MIN_EXPONENT] = power.shiftRight(64).longValue();
+            powers[1][exponent - MIN_EXPONENT] = power.longValue();
+        }
+
+        return powers;
+    }
+}
@@ -0,0 +1,122 @@
+package We3Graph;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ * Recognizes the commands received from the web service which are echoes of commands
+ * this client sent after loading, and were already applied when they were sent.
+ * An echo of a command which sets a state is applied again if another command was
+ * applied after the command was sent, because the web service may have ordered that
+ * command before it. An echo of a command which inserts or removes something is never
+ * applied again, because it would insert or remove twice.
+ */
+class EchoFilter
+{
+    private int clientID_;
+    private boolean isEnabled_;
+    // The commands sent and not echoed yet, in the order of their sequences
+    private ArrayDeque<Command> sentCommands_;
+    // Echoes of the commands up to this sequence are applied again
+    private long lastAppliedSequence_;
+
+    EchoFilter(int clientID)
+    {
+        clientID_ = clientID;
+        isEnabled_ = false;
+        sentCommands_ = new ArrayDeque<Command>();
+        lastAppliedSequence_ = 0;
+    }
+
+    /**
+     * Starts recognizing echoes of the commands sent after loading
+     */
+    synchronized void __enable()
+    {
+        isEnabled_ = true;
+    }
+
+    /**
+     * Keeps a command which is sent, after it's given its sequence
+     */
+    synchronized void __addSentCommand(Command command)
+    {
+        if (isEnabled_)
+            sentCommands_.add(command);
+    }
+
+    /**
+     * Tells whether a received command is an echo which doesn't need to be applied.
+     * Otherwise the command is applied after this call.
+     */
+    synchronized boolean __isAppliedEcho(Command command)
+    {
+        Command sentCommand = null;
+        if (command.__getClientID() == clientID_ && command.__getType() != null)
+            sentCommand = removeSentCommand(command);
+
+        if (sentCommand != null && (isInsertOrRemove(command.__getType()) ||
+                sentCommand.__getSequence() > lastAppliedSequence_))
+            return true;
+
+        // The commands sent until now may be ordered after this one by the web service
+        Command lastSentCommand = sentCommands_.peekLast();
+        if (lastSentCommand != null)
+            lastAppliedSequence_ = lastSentCommand.__getSequence();
+
+        return false;
+    }
+
+    /**
+     * Removes the first sent command which is the same as an echo, with the commands
+     * before it which were superseded or rejected and have no echo
+     *
+     * @return null if no sent command is the same
+     */
+    private Command removeSentCommand(Command echo)
+    {
+        int count = 0;
+        for (Command sentCommand : sentCommands_)
+        {
+            count++;
+            if (isSame(sentCommand, echo))
+            {
+                for (int i = 1; i < count; i++)
+                    sentCommands_.poll();
+                return sentCommands_.poll();
+            }
+        }
+
+        return null;
+    }
+
+    private static boolean isSame(Command sentCommand, Command echo)
+    {
+        if (sentCommand.__getType() != echo.__getType())
+            return false;
+
+        ArrayList<String> sentParameters = sentCommand.GetParameters();
+        ArrayList<String> echoParameters = echo.GetParameters();
+        for (int i = 0; i < sentParameters.size(); i++)
+            if (!sentParameters.get(i).equals(echoParameters.get(i)))
+                return false;
+
+        return true;
+    }
+
+    private static boolean isInsertOrRemove(CommandType type)
+    {
+        switch (type)
+        {
+            case INSERT_VERTEX:
+            case INSERT_EDGE:
+            case BREAK_EDGE_LINE:
+            case REMOVE_VERTEX:
+            case REMOVE_EDGE:
+            case REMOVE_BEND:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
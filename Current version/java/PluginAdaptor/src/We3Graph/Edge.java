@@ -11,33 +11,109 @@ import java.util.Hashtable;
  */
 public class Edge implements IHasFullID
 {
-    private Hashtable<String, Hashtable<String, String>> properties_;
+    private PropertySet properties_;
 
     private Vertex startVertex_;
     private Vertex endVertex_;
     private ArrayList<EdgeLine> edgeLines_;
     private FullID fullID_;
     private Graph graph_;
+    private int startVertexPosition_;
+    private int endVertexPosition_;
 
     void __setProperty(String listName, String key, String value)
     {
-        if (!properties_.containsKey(listName))
-            properties_.put(listName, new Hashtable<String, String>());
+        PropertyNames names = graph_.__getPropertyNames();
+        int id = value.equals("") ? names.__find(listName, key) : names.__add(listName, key);
+        if (id < 0)
+            return;
+
+        // A removed edge can still be changed, but it's not in the indexes any more
+        PropertyIndex<Edge> index = graph_.__getEdgePropertyIndex(id);
+        if (index != null && graph_.__getEdgesDictionary().Find(fullID_) == this)
+            index.__update(this, __getPropertyValue(id), value);
 
         if (value.equals(""))
-            properties_.get(listName).remove(key);
+        {
+            if (properties_ == null)
+                return;
+
+            properties_.__set(id, value);
+            if (properties_.__isEmpty())
+                properties_ = null;
+        } else
+        {
+            if (properties_ == null)
+                properties_ = new PropertySet();
+            properties_.__set(id, value);
+        }
+
+        __updateSnapshot();
+    }
+
+    /**
+     * @return null if not found
+     */
+    String __getPropertyValue(int id)
+    {
+        if (properties_ == null)
+            return null;
+
+        return properties_.__get(id);
+    }
+
+    /**
+     * @return null if the edge has no properties
+     */
+    PropertySet __getProperties()
+    {
+        return properties_;
+    }
+
+    /**
+     * Removes a removed edge from the property indexes of the graph
+     */
+    void __removeFromPropertyIndexes()
+    {
+        if (properties_ == null)
+            return;
+
+        for (int i = 0; i < properties_.__getCount(); i++)
+        {
+            PropertyIndex<Edge> index = graph_.__getEdgePropertyIndex(properties_.__getID(i));
+            if (index != null)
+                index.__remove(this, properties_.__getValue(i));
+        }
+    }
+
+    /**
+     * Gets the position of the edge in the list of edges of its start or end vertex
+     */
+    int __getPosition(boolean atStartVertex)
+    {
+        return atStartVertex ? startVertexPosition_ : endVertexPosition_;
+    }
+
+    void __setPosition(boolean atStartVertex, int position)
+    {
+        if (atStartVertex)
+            startVertexPosition_ = position;
         else
-            properties_.get(listName).put(key, value);
+            endVertexPosition_ = position;
     }
 
     Bend __breakEdgeLine(Point3D position, int index)
     {
         Bend newBend = new Bend(position, this, graph_);
+        SpatialIndex spatialIndex = graph_.__getSpatialIndex();
+        if (spatialIndex != null)
+            spatialIndex.__addBend(newBend);
         EdgeLine edgeLine = edgeLines_.get(index);
         EdgeLine edgeLine1 = new EdgeLine(this, newBend, edgeLine.GetEndBend());
         edgeLine.SetEndBend(newBend);
 
         edgeLines_.add(index + 1, edgeLine1);
+        __updateSnapshot();
 
         return newBend;
     }
@@ -50,10 +126,32 @@ public class Edge implements IHasFullID
 
         beforeEdgeLine.SetEndBend(afterEdgeLine.GetEndBend());
         edgeLines_.remove(index + 1);
+        removedBend.__release();
+        __updateSnapshot();
 
         return removedBend;
     }
 
+    /**
+     * Keeps the state of the edge in the snapshots after its properties or bends changed
+     */
+    void __updateSnapshot()
+    {
+        SnapshotWriter snapshotWriter = graph_.__getSnapshotWriter();
+        if (snapshotWriter != null)
+            snapshotWriter.__updateEdge(this);
+    }
+
+    /**
+     * Releases the bends of a removed edge
+     */
+    void __releaseBends()
+    {
+        for (EdgeLine edgeLine : edgeLines_)
+            if (edgeLine.GetEndBend() != null)
+                edgeLine.GetEndBend().__release();
+    }
+
     Edge(Vertex startVertex, Vertex endVertex, FullID fullID, Graph graph)
     {
         startVertex_ = startVertex;
@@ -62,14 +160,21 @@ public class Edge implements IHasFullID
         edgeLines_.add(new EdgeLine(this, null, null));
         fullID_ = fullID;
         graph_ = graph;
-        properties_ = new Hashtable<String, Hashtable<String, String>>();
     }
 
 
     public void Remove()
     {
-        graph_.__removeEdge(this);
-        graph_.__getCommandSender().__sendRemoveEdgeCommand(this);
+        GraphLock lock = graph_.__getLock();
+        lock.__lockWrite();
+        try
+        {
+            graph_.__removeEdge(this);
+            graph_.__getCommandSender().__sendRemoveEdgeCommand(this);
+        } finally
+        {
+            lock.__unlockWrite();
+        }
     }
 
     public Vertex GetStartVertex()
@@ -82,18 +187,53 @@ public class Edge implements IHasFullID
         return endVertex_;
     }
 
-    public ArrayList<EdgeLine> GetEdgeLines()
+    /**
+     * Gets the list of the edge lines of the edge, which changes with the graph.
+     * The graph should be locked.
+     */
+    ArrayList<EdgeLine> __getEdgeLines()
     {
         return edgeLines_;
     }
 
+    /**
+     * Gets the edge lines of the edge.
+     * It's a copy which doesn't change when the graph changes.
+     */
+    public ArrayList<EdgeLine> GetEdgeLines()
+    {
+        // Copying doesn't fail while the list changes, and it's copied again if it did
+        GraphLock lock = graph_.__getLock();
+        long stamp = lock.__tryOptimisticRead();
+        ArrayList<EdgeLine> edgeLines = new ArrayList<EdgeLine>(edgeLines_);
+        if (lock.__validate(stamp))
+            return edgeLines;
+
+        lock.__lockRead();
+        try
+        {
+            return new ArrayList<EdgeLine>(edgeLines_);
+        } finally
+        {
+            lock.__unlockRead();
+        }
+    }
+
     public ArrayList<Bend> GetBends()
     {
-        ArrayList<Bend> result = new ArrayList<Bend>();
-        for (EdgeLine edgeLine : edgeLines_)
-            if (edgeLine.GetStartBend() != null)
-                result.add(edgeLine.GetStartBend());
-        return result;
+        GraphLock lock = graph_.__getLock();
+        lock.__lockRead();
+        try
+        {
+            ArrayList<Bend> result = new ArrayList<Bend>();
+            for (EdgeLine edgeLine : edgeLines_)
+                if (edgeLine.GetStartBend() != null)
+                    result.add(edgeLine.GetStartBend());
+            return result;
+        } finally
+        {
+            lock.__unlockRead();
+        }
     }
 
     /**
@@ -105,26 +245,57 @@ public class Edge implements IHasFullID
      */
     public String GetPropertyValue(String listName, String key)
     {
-        if (!properties_.containsKey(listName))
+        GraphLock lock = graph_.__getLock();
+        long stamp = lock.__tryOptimisticRead();
+        String value = getPropertyValue(listName, key);
+        if (lock.__validate(stamp))
+            return value;
+
+        lock.__lockRead();
+        try
+        {
+            return getPropertyValue(listName, key);
+        } finally
+        {
+            lock.__unlockRead();
+        }
+    }
+
+    private String getPropertyValue(String listName, String key)
+    {
+        // The properties are read once, since this may run while they change
+        PropertySet properties = properties_;
+        if (properties == null)
             return null;
-        if (!properties_.get(listName).containsKey(key))
+
+        int id = graph_.__getPropertyNames().__find(listName, key);
+        if (id < 0)
             return null;
 
-        return properties_.get(listName).get(key);
+        return properties.__get(id);
     }
 
     /**
-     * Gets the list for a custom property of an list specified by a list name
+     * Gets the list for a custom property of an list specified by a list name.
+     * It's a copy which doesn't change the edge when changed.
      *
      * @param listName The list name.
      * @return null if not found
      */
     public Hashtable<String, String> GetPropertyList(String listName)
     {
-        if (properties_.containsKey(listName))
-            return properties_.get(listName);
-        else
-            return null;
+        GraphLock lock = graph_.__getLock();
+        lock.__lockRead();
+        try
+        {
+            if (properties_ == null)
+                return null;
+
+            return properties_.__getList(graph_.__getPropertyNames(), listName);
+        } finally
+        {
+            lock.__unlockRead();
+        }
     }
 
     /**
@@ -138,9 +309,17 @@ public class Edge implements IHasFullID
     public void SetProperty(String listName, String key, String value,
                             boolean isRenderUpdateNeeded)
     {
-        __setProperty(listName, key, value);
-        graph_.__getCommandSender().__sendSetEdgePropertyCommand(this,
-                listName, key, value, isRenderUpdateNeeded);
+        GraphLock lock = graph_.__getLock();
+        lock.__lockWrite();
+        try
+        {
+            __setProperty(listName, key, value);
+            graph_.__getCommandSender().__sendSetEdgePropertyCommand(this,
+                    listName, key, value, isRenderUpdateNeeded);
+        } finally
+        {
+            lock.__unlockWrite();
+        }
     }
 
     public FullID GetFullID()
@@ -150,19 +329,35 @@ public class Edge implements IHasFullID
 
     public Bend BreakEdgeLine(Point3D position, int index)
     {
-        Bend bend = __breakEdgeLine(position, index);
+        GraphLock lock = graph_.__getLock();
+        lock.__lockWrite();
+        try
+        {
+            Bend bend = __breakEdgeLine(position, index);
 
-        graph_.__getCommandSender().__sendBreakEdgeLineCommand(this, index, position);
+            graph_.__getCommandSender().__sendBreakEdgeLineCommand(this, index, position);
 
-        return bend;
+            return bend;
+        } finally
+        {
+            lock.__unlockWrite();
+        }
     }
 
     public Bend RemoveBend(int index)
     {
-        Bend bend = __removeBend(index);
+        GraphLock lock = graph_.__getLock();
+        lock.__lockWrite();
+        try
+        {
+            Bend bend = __removeBend(index);
 
-        graph_.__getCommandSender().__sendRemoveBendCommand(this, index);
+            graph_.__getCommandSender().__sendRemoveBendCommand(this, index);
 
-        return bend;
+            return bend;
+        } finally
+        {
+            lock.__unlockWrite();
+        }
     }
 }
\ No newline at end of file
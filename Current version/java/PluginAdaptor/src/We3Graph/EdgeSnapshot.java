@@ -0,0 +1,92 @@
+package We3Graph;
+
+import We3Graph.IDSystem.FullID;
+
+import java.util.ArrayList;
+import java.util.Hashtable;
+
+/**
+ * The state of an edge in a GraphSnapshot, which doesn't change when the edge does
+ */
+public class EdgeSnapshot
+{
+    private FullID fullID_;
+    private FullID startVertexID_;
+    private FullID endVertexID_;
+    // The x, y and z of each bend one after another, in the order along the edge
+    private double[] bendPositions_;
+    private PropertySet properties_;
+    private PropertyNames names_;
+
+    EdgeSnapshot(FullID fullID, FullID startVertexID, FullID endVertexID,
+                 double[] bendPositions, PropertySet properties, PropertyNames names)
+    {
+        fullID_ = fullID;
+        startVertexID_ = startVertexID;
+        endVertexID_ = endVertexID;
+        bendPositions_ = bendPositions;
+        properties_ = properties;
+        names_ = names;
+    }
+
+    public FullID GetFullID()
+    {
+        return fullID_;
+    }
+
+    public FullID GetStartVertexID()
+    {
+        return startVertexID_;
+    }
+
+    public FullID GetEndVertexID()
+    {
+        return endVertexID_;
+    }
+
+    /**
+     * Gets the positions of the bends in the order along the edge from its start vertex
+     */
+    public ArrayList<Point3D> GetBendPositions()
+    {
+        ArrayList<Point3D> result = new ArrayList<Point3D>(bendPositions_.length / 3);
+        for (int i = 0; i < bendPositions_.length; i += 3)
+            result.add(new Point3D(bendPositions_[i], bendPositions_[i + 1],
+                    bendPositions_[i + 2]));
+
+        return result;
+    }
+
+    /**
+     * Gets the value for a custom property of the edge specified by a list name and a key
+     *
+     * @param listName The list name. Use 'None' if there is no list.
+     * @param key      The key for the property.
+     * @return null if not found
+     */
+    public String GetPropertyValue(String listName, String key)
+    {
+        if (properties_ == null)
+            return null;
+
+        int id = names_.__find(listName, key);
+        if (id < 0)
+            return null;
+
+        return properties_.__get(id);
+    }
+
+    /**
+     * Gets the list for a custom property of the edge specified by a list name
+     *
+     * @param listName The list name.
+     * @return null if not found
+     */
+    public Hashtable<String, String> GetPropertyList(String listName)
+    {
+        if (properties_ == null)
+            return null;
+
+        return properties_.__getList(names_, listName);
+    }
+}
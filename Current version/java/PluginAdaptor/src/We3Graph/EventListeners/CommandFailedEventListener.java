@@ -0,0 +1,7 @@
+package We3Graph.EventListeners;
+
+public interface CommandFailedEventListener
+{
+    public void OnCommandFailedEvent(We3Graph.Command command, String errorCode,
+                                     String errorMessage);
+}
@@ -5,4 +5,28 @@ package We3Graph.Exceptions;
  */
 public class WebServiceException extends RuntimeException
 {
+    private int statusCode_;
+
+    public WebServiceException()
+    {
+        statusCode_ = 0;
+    }
+
+    /**
+     * @param statusCode The HTTP status code returned by the web service
+     */
+    public WebServiceException(int statusCode)
+    {
+        statusCode_ = statusCode;
+    }
+
+    /**
+     * Gets the HTTP status code returned by the web service
+     *
+     * @return 0 if the web service couldn't be reached or didn't respond
+     */
+    public int GetStatusCode()
+    {
+        return statusCode_;
+    }
 }
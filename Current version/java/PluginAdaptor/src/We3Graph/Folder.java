@@ -51,8 +51,8 @@ public class Folder
 
         JSONObject bodyParameters = null;
 
-        JSONObject response = RESTHelper.SendTypicalRequest(url, urlParameters,
-                "Get", bodyParameters);
+        JSONObject response = RESTHelper.SendTypicalRequest(
+                systemManager_.GetTransport(), url, urlParameters, "Get", bodyParameters);
         JSONArray graphsArray = response.getJSONArray("Graphs");
 
         for (int i = 0; i < graphsArray.length(); i++)
@@ -85,8 +85,8 @@ public class Folder
 
         JSONObject bodyParameters = null;
 
-        JSONObject response = RESTHelper.SendTypicalRequest(url, urlParameters,
-                "Get", bodyParameters);
+        JSONObject response = RESTHelper.SendTypicalRequest(
+                systemManager_.GetTransport(), url, urlParameters, "Get", bodyParameters);
         return response.getInt("PermissionType");
     }
 
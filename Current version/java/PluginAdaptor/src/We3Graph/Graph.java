@@ -8,8 +8,15 @@ import java.util.ArrayList;
 
 /**
  * This class represents a graph.
+ * It can be read and changed from several threads while the commands received from the
+ * web service are applied. Each method locks the graph while it runs, and LockRead or
+ * LockWrite lock it across several calls, for example to iterate the edges of many
+ * vertices consistently. The events are raised while the graph is locked for writing
+ * by the thread applying the received commands, so listeners must not wait for other
+ * threads which use the graph.
  */
-public class Graph implements NewCommandsEventListener, GraphLoadedEventListener
+public class Graph implements NewCommandsEventListener, GraphLoadedEventListener,
+        CommandFailedEventListener
 {
     private int clientID_;
     private FullIDHashDictionary<Vertex> verticesDictionary_;
@@ -17,15 +24,33 @@ public class Graph implements NewCommandsEventListener, GraphLoadedEventListener
     private Camera camera_;
     private int lastCreatedVertexID_;
     private int lastCreatedEdgeID_;
-    private boolean isLoading_;
+    // Written after the vertices are renumbered, so readers which see it see them
+    private volatile int firstInvalidVertexIndex_;
+    private CoordinateStore vertexCoordinates_;
+    private CoordinateStore bendCoordinates_;
+    private PropertyNames propertyNames_;
+    private volatile SpatialIndex spatialIndex_;
+    private volatile SnapshotWriter snapshotWriter_;
+    // The ID of the last command received which was applied
+    private int lastCommandID_;
+    private ArrayList<PropertyIndex<Vertex>> vertexPropertyIndexes_;
+    private ArrayList<PropertyIndex<Edge>> edgePropertyIndexes_;
+    private volatile boolean isLoading_;
+    private GraphLock lock_;
     private ServiceManager serviceManager_;
     private CommandSender commandSender_;
+    private CommandProcessor commandProcessor_;
 
     CommandSender __getCommandSender()
     {
         return commandSender_;
     }
 
+    GraphLock __getLock()
+    {
+        return lock_;
+    }
+
     int __getClientID()
     {
         return clientID_;
@@ -56,11 +81,103 @@ public class Graph implements NewCommandsEventListener, GraphLoadedEventListener
         return verticesDictionary_;
     }
 
+    /**
+     * Gets the list of the vertices of the dictionary, which changes with the graph.
+     * The graph should be locked. Readers may compact the list at the same time,
+     * so it's done by one of them.
+     */
+    ArrayList<Vertex> __getVertices()
+    {
+        synchronized (verticesDictionary_)
+        {
+            return verticesDictionary_.GetAllItems();
+        }
+    }
+
+    /**
+     * Gets the list of the edges of the dictionary, like __getVertices
+     */
+    ArrayList<Edge> __getEdges()
+    {
+        synchronized (edgesDictionary_)
+        {
+            return edgesDictionary_.GetAllItems();
+        }
+    }
+
+    /**
+     * @return null if the spatial index is not created
+     */
+    SpatialIndex __getSpatialIndex()
+    {
+        return spatialIndex_;
+    }
+
+    /**
+     * @return null if no snapshot was taken
+     */
+    SnapshotWriter __getSnapshotWriter()
+    {
+        return snapshotWriter_;
+    }
+
+    /**
+     * Gets the index of a vertex property by the ID of its list name and key
+     *
+     * @return null if the property has no index
+     */
+    PropertyIndex<Vertex> __getVertexPropertyIndex(int id)
+    {
+        if (id < 0 || id >= vertexPropertyIndexes_.size())
+            return null;
+
+        return vertexPropertyIndexes_.get(id);
+    }
+
+    /**
+     * Gets the index of an edge property by the ID of its list name and key
+     *
+     * @return null if the property has no index
+     */
+    PropertyIndex<Edge> __getEdgePropertyIndex(int id)
+    {
+        if (id < 0 || id >= edgePropertyIndexes_.size())
+            return null;
+
+        return edgePropertyIndexes_.get(id);
+    }
+
+    PropertyNames __getPropertyNames()
+    {
+        return propertyNames_;
+    }
+
+    /**
+     * @return null if the vertices keep their coordinates
+     */
+    CoordinateStore __getVertexCoordinates()
+    {
+        return vertexCoordinates_;
+    }
+
+    /**
+     * @return null if the bends keep their positions
+     */
+    CoordinateStore __getBendCoordinates()
+    {
+        return bendCoordinates_;
+    }
+
     Vertex __insertVertex(Point3D position, FullID fullID)
     {
-        Vertex vertex = new Vertex(this, position, fullID, verticesDictionary_.GetAllItems().size());
+        Vertex vertex = new Vertex(this, position, fullID, verticesDictionary_.Count());
         verticesDictionary_.Add(vertex);
 
+        if (spatialIndex_ != null)
+            spatialIndex_.__addVertex(vertex, position.GetX(), position.GetY(), position.GetZ());
+        if (snapshotWriter_ != null)
+            snapshotWriter_.__addVertex(vertex);
+
         return vertex;
     }
 
@@ -69,25 +186,18 @@ public class Graph implements NewCommandsEventListener, GraphLoadedEventListener
         if (edge == null)
             return;
 
-        edgesDictionary_.Remove(edge.GetFullID());
+        if (edgesDictionary_.Find(edge.GetFullID()) != edge)
+            return;
 
-        ArrayList<Edge> startVertexEdges = edge.GetStartVertex().GetEdges();
-        ArrayList<Edge> endVertexEdges = edge.GetEndVertex().GetEdges();
+        edgesDictionary_.Remove(edge.GetFullID());
+        edge.__releaseBends();
+        edge.__removeFromPropertyIndexes();
 
-        int i;
-        int index = -1;
-        for (i = 0; i < startVertexEdges.size(); i++)
-            if (startVertexEdges.get(i).GetFullID().equals(edge.GetFullID()))
-                index = i;
-        if (index != -1)
-            startVertexEdges.remove(index);
+        edge.GetStartVertex().__removeEdge(edge, true);
+        edge.GetEndVertex().__removeEdge(edge, false);
 
-        index = -1;
-        for (i = 0; i < endVertexEdges.size(); i++)
-            if (endVertexEdges.get(i).GetFullID().equals(edge.GetFullID()))
-                index = i;
-        if (index != -1)
-            endVertexEdges.remove(index);
+        if (snapshotWriter_ != null)
+            snapshotWriter_.__removeEdge(edge);
     }
 
     void __removeVertex(Vertex vertex)
@@ -95,14 +205,12 @@ public class Graph implements NewCommandsEventListener, GraphLoadedEventListener
         if (vertex == null)
             return;
 
-        int index = vertex.GetIndex();
-        ArrayList<Vertex> vertices = GetVertices();
-        for (int i = index + 1; i < vertices.size(); i++)
-            vertices.get(i).__setIndex(vertices.get(i).GetIndex() - 1);
+        // The vertices after it are renumbered when an index is needed
+        firstInvalidVertexIndex_ = Math.min(firstInvalidVertexIndex_, vertex.__getIndex());
 
         verticesDictionary_.Remove(vertex.GetFullID());
 
-        ArrayList<Edge> edges = vertex.GetEdges();
+        ArrayList<Edge> edges = vertex.__getEdges();
         ArrayList<Edge> edgesCopy = new ArrayList<Edge>();
         for (Edge edge : edges)
             edgesCopy.add(edge);
@@ -110,7 +218,37 @@ public class Graph implements NewCommandsEventListener, GraphLoadedEventListener
         for (Edge edge : edgesCopy)
             __removeEdge(edge);
 
+        vertex.__release();
+        vertex.__removeFromPropertyIndexes();
+
+        if (snapshotWriter_ != null)
+            snapshotWriter_.__removeVertex(vertex);
+    }
+
+    /**
+     * Renumbers the vertices after the ones removed since the last call
+     * if an index may have changed. The graph should be locked.
+     *
+     * @param index The index to be used
+     */
+    void __updateVertexIndices(int index)
+    {
+        if (index < firstInvalidVertexIndex_)
+            return;
+
+        // Readers may renumber at the same time, so it's checked again by the one
+        // which renumbers
+        synchronized (verticesDictionary_)
+        {
+            if (index < firstInvalidVertexIndex_)
+                return;
 
+            ArrayList<Vertex> vertices = verticesDictionary_.GetAllItems();
+            for (int i = firstInvalidVertexIndex_; i < vertices.size(); i++)
+                vertices.get(i).__setIndex(i);
+
+            firstInvalidVertexIndex_ = Integer.MAX_VALUE;
+        }
     }
 
     void __raiseVertexAddedEvent(Vertex vertex)
@@ -216,6 +354,11 @@ public class Graph implements NewCommandsEventListener, GraphLoadedEventListener
 
     public GraphEventListener GraphChanged;
 
+    /**
+     * Raised when the web service rejects a command sent by this graph
+     */
+    public CommandFailedEventListener CommandFailed;
+
     Graph(SystemManager systemManager, int graphID)
     {
         this(systemManager, graphID, true, true);
@@ -224,22 +367,43 @@ public class Graph implements NewCommandsEventListener, GraphLoadedEventListener
 
     Graph(SystemManager systemManager, int graphID,
           boolean waitForLoadingToFinish, boolean receiveCommands)
+    {
+        this(systemManager, graphID, waitForLoadingToFinish, receiveCommands, false);
+    }
+
+    Graph(SystemManager systemManager, int graphID, boolean waitForLoadingToFinish,
+          boolean receiveCommands, boolean loadFromSnapshot)
     {
         verticesDictionary_ = new FullIDHashDictionary<Vertex>();
         edgesDictionary_ = new FullIDHashDictionary<Edge>();
         lastCreatedVertexID_ = 0;
         lastCreatedEdgeID_ = 0;
+        firstInvalidVertexIndex_ = Integer.MAX_VALUE;
+        propertyNames_ = new PropertyNames();
+        vertexPropertyIndexes_ = new ArrayList<PropertyIndex<Vertex>>();
+        edgePropertyIndexes_ = new ArrayList<PropertyIndex<Edge>>();
         isLoading_ = true;
+        lock_ = new GraphLock();
         camera_ = new Camera(this);
 
+        if (systemManager.GetSyncSettings().IsCoordinateStoreEnabled())
+        {
+            vertexCoordinates_ = new CoordinateStore();
+            bendCoordinates_ = new CoordinateStore();
+        }
+
         serviceManager_ = new ServiceManager(systemManager, graphID);
         clientID_ = serviceManager_.__getClientID();
         serviceManager_.__newCommandsReceived = (NewCommandsEventListener) this;
         serviceManager_.__graphLoaded = (GraphLoadedEventListener) this;
+        serviceManager_.__commandFailed = (CommandFailedEventListener) this;
+
+        commandProcessor_ = new CommandProcessor(this, serviceManager_.__getEchoFilter());
 
         commandSender_ = new CommandSender(serviceManager_);
+        lock_.__setCommandSender(commandSender_);
 
-        serviceManager_.__start(receiveCommands);
+        serviceManager_.__start(receiveCommands, loadFromSnapshot);
 
         if (waitForLoadingToFinish)
         {
@@ -254,9 +418,307 @@ public class Graph implements NewCommandsEventListener, GraphLoadedEventListener
 
     }
 
+    /**
+     * Gets the vertices in the order they were added.
+     * It's a copy which doesn't change when the graph changes.
+     */
     public ArrayList<Vertex> GetVertices()
     {
-        return verticesDictionary_.GetAllItems();
+        lock_.__lockRead();
+        try
+        {
+            return new ArrayList<Vertex>(__getVertices());
+        } finally
+        {
+            lock_.__unlockRead();
+        }
+    }
+
+    /**
+     * Locks the graph for reading, so that it doesn't change until UnlockRead is called.
+     * The received commands are not applied meanwhile, so it should be held shortly.
+     * The thread holding it may lock it again for reading, but must not change the graph.
+     */
+    public void LockRead()
+    {
+        lock_.__lockRead();
+    }
+
+    public void UnlockRead()
+    {
+        lock_.__unlockRead();
+    }
+
+    /**
+     * Locks the graph for writing, so that several changes are seen and sent together.
+     * The thread holding it may lock it again and read the graph.
+     */
+    public void LockWrite()
+    {
+        lock_.__lockWrite();
+    }
+
+    public void UnlockWrite()
+    {
+        lock_.__unlockWrite();
+    }
+
+    /**
+     * Builds a read-only compressed sparse row view of the graph using all processors
+     *
+     * @param isDirected   Whether only the edges starting from a vertex are its neighbors
+     * @param includeEdges Whether the view maps neighbors to their edges
+     */
+    public CSRGraphView FreezeToCSR(boolean isDirected, boolean includeEdges)
+    {
+        lock_.__lockRead();
+        try
+        {
+            return new CSRGraphView(this, isDirected, includeEdges,
+                    Runtime.getRuntime().availableProcessors());
+        } finally
+        {
+            lock_.__unlockRead();
+        }
+    }
+
+    public CSRGraphView FreezeToCSR(boolean isDirected)
+    {
+        return FreezeToCSR(isDirected, false);
+    }
+
+    /**
+     * Gets the spatial index of the vertices and bends. It's created on the first call
+     * and kept up to date after that.
+     */
+    public SpatialIndex GetSpatialIndex()
+    {
+        SpatialIndex spatialIndex = spatialIndex_;
+        if (spatialIndex != null)
+            return spatialIndex;
+
+        // The read lock excludes the writers, which update the index, so it can be
+        // called while holding LockRead. Readers agree on which one creates it.
+        lock_.__lockRead();
+        try
+        {
+            synchronized (lock_)
+            {
+                if (spatialIndex_ == null)
+                    spatialIndex_ = new SpatialIndex(this);
+
+                return spatialIndex_;
+            }
+        } finally
+        {
+            lock_.__unlockRead();
+        }
+    }
+
+    /**
+     * Takes an immutable snapshot of the graph, which can be read without locking while
+     * the received commands keep being applied. The first call copies the graph, and
+     * after that the snapshots share everything that didn't change between them, so
+     * taking one is cheap. A snapshot is taken after each page of received commands,
+     * and it's returned while the graph doesn't change.
+     */
+    public GraphSnapshot Snapshot()
+    {
+        SnapshotWriter writer = snapshotWriter_;
+        if (writer == null)
+        {
+            // The read lock excludes the writers, which update the maps, so it can be
+            // called while holding LockRead. Readers agree on which one creates them.
+            lock_.__lockRead();
+            try
+            {
+                synchronized (lock_)
+                {
+                    if (snapshotWriter_ == null)
+                        snapshotWriter_ = new SnapshotWriter(this);
+                    writer = snapshotWriter_;
+                }
+            } finally
+            {
+                lock_.__unlockRead();
+            }
+        }
+
+        GraphSnapshot snapshot = writer.__getSnapshot();
+        if (snapshot != null && lock_.__validate(snapshot.__getStamp()))
+            return snapshot;
+
+        return takeSnapshot(writer);
+    }
+
+    private GraphSnapshot takeSnapshot(SnapshotWriter writer)
+    {
+        lock_.__lockRead();
+        try
+        {
+            return writer.__takeSnapshot(lastCommandID_, lock_.__tryOptimisticRead());
+        } finally
+        {
+            lock_.__unlockRead();
+        }
+    }
+
+    /**
+     * Creates an index of the vertices by the value of a custom property, which is kept
+     * up to date after that
+     *
+     * @param listName The list name. Use 'None' if there is no list.
+     * @param key      The key for the property.
+     * @return The existing index if the property already has one
+     */
+    public PropertyIndex<Vertex> CreateVertexPropertyIndex(String listName, String key)
+    {
+        lock_.__lockWrite();
+        try
+        {
+            int id = propertyNames_.__add(listName, key);
+            PropertyIndex<Vertex> index = __getVertexPropertyIndex(id);
+            if (index != null)
+                return index;
+
+            index = new PropertyIndex<Vertex>(lock_, listName, key);
+            for (Vertex vertex : __getVertices())
+            {
+                String value = vertex.__getPropertyValue(id);
+                if (value != null)
+                    index.__update(vertex, null, value);
+            }
+
+            while (vertexPropertyIndexes_.size() <= id)
+                vertexPropertyIndexes_.add(null);
+            vertexPropertyIndexes_.set(id, index);
+
+            return index;
+        } finally
+        {
+            lock_.__unlockWrite();
+        }
+    }
+
+    /**
+     * Creates an index of the edges by the value of a custom property, which is kept
+     * up to date after that
+     *
+     * @param listName The list name. Use 'None' if there is no list.
+     * @param key      The key for the property.
+     * @return The existing index if the property already has one
+     */
+    public PropertyIndex<Edge> CreateEdgePropertyIndex(String listName, String key)
+    {
+        lock_.__lockWrite();
+        try
+        {
+            int id = propertyNames_.__add(listName, key);
+            PropertyIndex<Edge> index = __getEdgePropertyIndex(id);
+            if (index != null)
+                return index;
+
+            index = new PropertyIndex<Edge>(lock_, listName, key);
+            for (Edge edge : __getEdges())
+            {
+                String value = edge.__getPropertyValue(id);
+                if (value != null)
+                    index.__update(edge, null, value);
+            }
+
+            while (edgePropertyIndexes_.size() <= id)
+                edgePropertyIndexes_.add(null);
+            edgePropertyIndexes_.set(id, index);
+
+            return index;
+        } finally
+        {
+            lock_.__unlockWrite();
+        }
+    }
+
+    /**
+     * Stops updating the index of a vertex property, if it has one
+     */
+    public void RemoveVertexPropertyIndex(String listName, String key)
+    {
+        lock_.__lockWrite();
+        try
+        {
+            int id = propertyNames_.__find(listName, key);
+            if (__getVertexPropertyIndex(id) != null)
+                vertexPropertyIndexes_.set(id, null);
+        } finally
+        {
+            lock_.__unlockWrite();
+        }
+    }
+
+    /**
+     * Stops updating the index of an edge property, if it has one
+     */
+    public void RemoveEdgePropertyIndex(String listName, String key)
+    {
+        lock_.__lockWrite();
+        try
+        {
+            int id = propertyNames_.__find(listName, key);
+            if (__getEdgePropertyIndex(id) != null)
+                edgePropertyIndexes_.set(id, null);
+        } finally
+        {
+            lock_.__unlockWrite();
+        }
+    }
+
+    /**
+     * Gets the positions of all vertices in the order of GetVertices,
+     * as x, y and z of each vertex one after another
+     *
+     * @param positions An array to fill, or null. A new array is created if it's too small.
+     * @return The array of the positions
+     */
+    public double[] GetVertexPositions(double[] positions)
+    {
+        lock_.__lockRead();
+        try
+        {
+            ArrayList<Vertex> vertices = __getVertices();
+            if (positions == null || positions.length < vertices.size() * 3)
+                positions = new double[vertices.size() * 3];
+
+            for (int i = 0; i < vertices.size(); i++)
+                vertices.get(i).__getPosition(positions, i * 3);
+
+            return positions;
+        } finally
+        {
+            lock_.__unlockRead();
+        }
+    }
+
+    /**
+     * Moves all vertices, for example after a layout is computed
+     *
+     * @param positions The positions of the vertices in the order of GetVertices,
+     *                  as returned by GetVertexPositions
+     */
+    public void MoveVertices(double[] positions)
+    {
+        lock_.__lockWrite();
+        try
+        {
+            ArrayList<Vertex> vertices = __getVertices();
+            for (int i = 0; i < vertices.size(); i++)
+            {
+                Vertex vertex = vertices.get(i);
+                vertex.__move(positions[i * 3], positions[i * 3 + 1], positions[i * 3 + 2]);
+                commandSender_.__sendMoveVertexCommand(vertex);
+            }
+        } finally
+        {
+            lock_.__unlockWrite();
+        }
     }
 
     public Camera GetCamera()
@@ -266,14 +728,21 @@ public class Graph implements NewCommandsEventListener, GraphLoadedEventListener
 
     public Vertex AddVertex(Point3D position)
     {
-        int IDinCreator = ++lastCreatedVertexID_;
-        FullID fullID = new FullID(clientID_, IDinCreator);
+        lock_.__lockWrite();
+        try
+        {
+            int IDinCreator = ++lastCreatedVertexID_;
+            FullID fullID = new FullID(clientID_, IDinCreator);
 
-        Vertex vertex = __insertVertex(position, fullID);
+            Vertex vertex = __insertVertex(position, fullID);
 
-        commandSender_.__sendInsertVertexCommand(vertex);
+            commandSender_.__sendInsertVertexCommand(vertex);
 
-        return vertex;
+            return vertex;
+        } finally
+        {
+            lock_.__unlockWrite();
+        }
     }
 
     public boolean IsAllCommandsSent()
@@ -281,6 +750,15 @@ public class Graph implements NewCommandsEventListener, GraphLoadedEventListener
         return serviceManager_.__isAllCommandsSent();
     }
 
+    /**
+     * Gets the number of outgoing commands which were not sent because a later command
+     * set the same state
+     */
+    public long GetElidedCommandsCount()
+    {
+        return serviceManager_.__getElidedCommandsCount();
+    }
+
     public boolean IsLoading()
     {
         return isLoading_;
@@ -312,11 +790,31 @@ public class Graph implements NewCommandsEventListener, GraphLoadedEventListener
         isLoading_ = false;
     }
 
+    public void OnCommandFailedEvent(Command command, String errorCode, String errorMessage)
+    {
+        if (CommandFailed != null)
+            CommandFailed.OnCommandFailedEvent(command, errorCode, errorMessage);
+    }
+
     public void OnNewCommandEvent(ArrayList<Command> commands)
     {
-        CommandProcessor commandProcesor = new CommandProcessor(this);
-        for (Command command : commands)
-            commandProcesor.__processCommand(command);
+        // A page is applied at once, so readers see it whole
+        lock_.__lockWrite();
+        try
+        {
+            for (Command command : commands)
+                commandProcessor_.__processCommand(command);
+            if (commands.size() > 0)
+                lastCommandID_ = commands.get(commands.size() - 1).__getID();
+        } finally
+        {
+            lock_.__unlockWrite();
+        }
+
+        // Readers get the snapshot of the page without locking
+        SnapshotWriter writer = snapshotWriter_;
+        if (writer != null && commands.size() > 0)
+            takeSnapshot(writer);
 
         if (commands.size() > 0)
             __raiseGraphChangedEvent();
@@ -0,0 +1,88 @@
+package We3Graph;
+
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * The lock of a graph. The thread applying the commands received from the web service
+ * and the threads of the application change the graph under the write lock, and
+ * readers use the read lock, or read optimistically and check that nothing changed.
+ * Both locks are reentrant, and the thread holding the write lock can also read, so
+ * that event listeners and nested calls don't deadlock. A thread holding the read lock
+ * must not lock for writing.
+ */
+class GraphLock
+{
+    private ReentrantReadWriteLock lock_;
+    // Write locked while the graph is being changed, only for optimistic reads
+    private StampedLock versions_;
+    private long versionStamp_;
+    private CommandSender commandSender_;
+
+    GraphLock()
+    {
+        lock_ = new ReentrantReadWriteLock();
+        versions_ = new StampedLock();
+    }
+
+    /**
+     * Sets the sender whose commands queued under the write lock are committed after
+     * the lock is released
+     */
+    void __setCommandSender(CommandSender commandSender)
+    {
+        commandSender_ = commandSender;
+    }
+
+    void __lockWrite()
+    {
+        lock_.writeLock().lock();
+        if (lock_.getWriteHoldCount() == 1)
+            versionStamp_ = versions_.writeLock();
+    }
+
+    void __unlockWrite()
+    {
+        long outboxNumber = -1;
+        if (lock_.getWriteHoldCount() == 1)
+        {
+            if (commandSender_ != null)
+                outboxNumber = commandSender_.__takeQueuedCommands();
+            versions_.unlockWrite(versionStamp_);
+        }
+        lock_.writeLock().unlock();
+
+        if (outboxNumber >= 0)
+            commandSender_.__commitCommands(outboxNumber);
+    }
+
+    void __lockRead()
+    {
+        lock_.readLock().lock();
+    }
+
+    void __unlockRead()
+    {
+        lock_.readLock().unlock();
+    }
+
+    /**
+     * Starts a read without locking, which is checked by __validate after reading.
+     * The values read may be inconsistent until then, so reading must not fail on them.
+     *
+     * @return 0 if the graph is being changed
+     */
+    long __tryOptimisticRead()
+    {
+        return versions_.tryOptimisticRead();
+    }
+
+    /**
+     * Tells whether the graph didn't change since an optimistic read started,
+     * so the values read are consistent
+     */
+    boolean __validate(long stamp)
+    {
+        return versions_.validate(stamp);
+    }
+}
@@ -0,0 +1,127 @@
+package We3Graph;
+
+import We3Graph.IDSystem.FullID;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * An immutable view of a graph at one moment, returned by Graph.Snapshot.
+ * It can be read by any thread without locking while the graph keeps changing, and
+ * shares the unchanged vertices and edges with the snapshots taken before and after it.
+ */
+public class GraphSnapshot
+{
+    private PersistentIDMap<VertexSnapshot> vertices_;
+    private PersistentIDMap<EdgeSnapshot> edges_;
+    private int commandID_;
+    private Point3D cameraPosition_;
+    private Point4D cameraRotation_;
+    // The optimistic read stamp of the graph lock when the snapshot was taken
+    private long stamp_;
+
+    GraphSnapshot(PersistentIDMap<VertexSnapshot> vertices, PersistentIDMap<EdgeSnapshot> edges,
+                  int commandID, Camera camera, long stamp)
+    {
+        vertices_ = vertices;
+        edges_ = edges;
+        commandID_ = commandID;
+        cameraPosition_ = camera.GetPosition().Clone();
+        cameraRotation_ = camera.GetRotation().Clone();
+        stamp_ = stamp;
+    }
+
+    long __getStamp()
+    {
+        return stamp_;
+    }
+
+    /**
+     * Gets the ID of the last command received from the web service which was applied
+     * before the snapshot was taken. The changes made by this client after it are also
+     * in the snapshot.
+     *
+     * @return 0 if no command was received
+     */
+    public int GetCommandID()
+    {
+        return commandID_;
+    }
+
+    public int GetVertexCount()
+    {
+        return vertices_.__getCount();
+    }
+
+    public int GetEdgeCount()
+    {
+        return edges_.__getCount();
+    }
+
+    /**
+     * @return null if the graph had no vertex with the full ID
+     */
+    public VertexSnapshot GetVertex(FullID fullID)
+    {
+        return vertices_.__get(fullID.ToLong());
+    }
+
+    /**
+     * @return null if the graph had no edge with the full ID
+     */
+    public EdgeSnapshot GetEdge(FullID fullID)
+    {
+        return edges_.__get(fullID.ToLong());
+    }
+
+    /**
+     * Gets the vertices in no particular order
+     */
+    public Iterable<VertexSnapshot> GetVertices()
+    {
+        return new Iterable<VertexSnapshot>()
+        {
+            public Iterator<VertexSnapshot> iterator()
+            {
+                return vertices_.__iterator();
+            }
+        };
+    }
+
+    /**
+     * Gets the edges in no particular order
+     */
+    public Iterable<EdgeSnapshot> GetEdges()
+    {
+        return new Iterable<EdgeSnapshot>()
+        {
+            public Iterator<EdgeSnapshot> iterator()
+            {
+                return edges_.__iterator();
+            }
+        };
+    }
+
+    /**
+     * Gets the edges of a vertex of the snapshot in no particular order
+     */
+    public ArrayList<EdgeSnapshot> GetEdges(VertexSnapshot vertex)
+    {
+        long[] edgeIDs = vertex.__getEdgeIDs().__getKeys();
+        ArrayList<EdgeSnapshot> result = new ArrayList<EdgeSnapshot>(edgeIDs.length);
+        for (long edgeID : edgeIDs)
+            result.add(edges_.__get(edgeID));
+
+        return result;
+    }
+
+    public Point3D GetCameraPosition()
+    {
+        return cameraPosition_.Clone();
+    }
+
+    public Point4D GetCameraRotation()
+    {
+        return cameraRotation_.Clone();
+    }
+}
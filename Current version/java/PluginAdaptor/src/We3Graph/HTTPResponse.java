@@ -0,0 +1,57 @@
+package We3Graph;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Hashtable;
+
+/**
+ * This class represents a response returned by an IHTTPTransport
+ */
+public class HTTPResponse implements Closeable
+{
+    private int statusCode_;
+    private Hashtable<String, String> headers_;
+    private InputStream body_;
+
+    /**
+     * Constructor for the HTTP response class
+     *
+     * @param statusCode The HTTP status code
+     * @param headers    The response headers with lower case names
+     * @param body       The stream of response body.
+     *                   Closing it gives the connection back to the transport.
+     */
+    public HTTPResponse(int statusCode, Hashtable<String, String> headers, InputStream body)
+    {
+        statusCode_ = statusCode;
+        headers_ = headers;
+        body_ = body;
+    }
+
+    public int GetStatusCode()
+    {
+        return statusCode_;
+    }
+
+    /**
+     * Gets the value of a response header
+     *
+     * @param name The header name
+     * @return null if not found
+     */
+    public String GetHeader(String name)
+    {
+        return headers_.get(name.toLowerCase());
+    }
+
+    public InputStream GetBody()
+    {
+        return body_;
+    }
+
+    public void close() throws IOException
+    {
+        body_.close();
+    }
+}
@@ -3,39 +3,86 @@ package We3Graph.IDSystem;
 /**
  * A full ID represent an ID in form of clientID-IDinCreator
  * It can be used as a unique ID for vertices or edges
+ * The client ID and the ID in creator are packed in a long, which can also be used
+ * without a FullID object, with the client ID in the high 32 bits.
  */
 public class FullID
 {
-    private int clientID;
-    private int IDinCreator;
+    private long packedID;
 
     public FullID(int clientID, int IDinCreator)
     {
-        this.clientID = clientID;
-        this.IDinCreator = IDinCreator;
+        this.packedID = Pack(clientID, IDinCreator);
     }
 
     public static FullID FromString(String IDString)
     {
-        String[] parts = IDString.split("-");
-        int clientID = Integer.parseInt(parts[0]);
-        int IDinCreator = Integer.parseInt(parts[1]);
-        return new FullID(clientID, IDinCreator);
+        return FromLong(Parse(IDString));
+    }
+
+    public static FullID FromLong(long packedID)
+    {
+        return new FullID(GetClientID(packedID), GetIDinCreator(packedID));
+    }
+
+    public static long Pack(int clientID, int IDinCreator)
+    {
+        return ((long) clientID << 32) | (IDinCreator & 0xFFFFFFFFL);
+    }
+
+    public static int GetClientID(long packedID)
+    {
+        return (int) (packedID >> 32);
+    }
+
+    public static int GetIDinCreator(long packedID)
+    {
+        return (int) packedID;
+    }
+
+    /**
+     * Parses a full ID in form of clientID-IDinCreator to a packed long
+     * without creating any object
+     *
+     * @throws NumberFormatException if the string is not a full ID
+     */
+    public static long Parse(String IDString)
+    {
+        int separator = IDString.indexOf('-');
+        if (separator < 0)
+            throw new NumberFormatException("Invalid full ID: " + IDString);
+
+        return Pack(parseInt(IDString, 0, separator),
+                parseInt(IDString, separator + 1, IDString.length()));
+    }
+
+    /**
+     * Formats a packed full ID in form of clientID-IDinCreator
+     */
+    public static String ToString(long packedID)
+    {
+        // Since Java 9 the concatenation creates the string with a single allocation
+        return GetClientID(packedID) + "-" + GetIDinCreator(packedID);
     }
 
     public String ToString()
     {
-        return clientID + "-" + IDinCreator;
+        return ToString(packedID);
+    }
+
+    public long ToLong()
+    {
+        return packedID;
     }
 
     public int GetClientID()
     {
-        return clientID;
+        return GetClientID(packedID);
     }
 
     public int GetIDinCreator()
     {
-        return IDinCreator;
+        return GetIDinCreator(packedID);
     }
 
     public boolean equals(Object o)
@@ -51,11 +98,36 @@ public class FullID
 
         FullID ID = (FullID) o;
 
-        if (this.GetClientID() == ID.GetClientID() &&
-                this.GetIDinCreator() == ID.GetIDinCreator())
-            return true;
+        return this.packedID == ID.packedID;
+    }
 
-        return false;
+    public int hashCode()
+    {
+        return (int) (packedID ^ (packedID >>> 32));
     }
-}
 
+    private static int parseInt(String IDString, int start, int end)
+    {
+        boolean isNegative = start < end && IDString.charAt(start) == '-';
+        if (isNegative)
+            start++;
+        if (start >= end || end - start > 10)
+            throw new NumberFormatException("Invalid full ID: " + IDString);
+
+        long value = 0;
+        for (int i = start; i < end; i++)
+        {
+            int digit = IDString.charAt(i) - '0';
+            if (digit < 0 || digit > 9)
+                throw new NumberFormatException("Invalid full ID: " + IDString);
+            value = value * 10 + digit;
+        }
+
+        if (isNegative)
+            value = -value;
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+            throw new NumberFormatException("Invalid full ID: " + IDString);
+
+        return (int) value;
+    }
+}
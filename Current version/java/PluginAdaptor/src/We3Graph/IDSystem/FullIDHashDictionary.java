@@ -1,122 +1,314 @@
 package We3Graph.IDSystem;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * A hash dictionary which use FullID as key.
  * A vertex or an edge can be used as value.
+ * It's an open addressing table with linear probing. The keys are the full IDs
+ * packed in longs, so no object is created per item, and the table grows when it gets
+ * too full.
+ * Each item gets a sequence number when it's added, which is kept in its slot and in
+ * a sorted array parallel to the list of all items, so its position in the list is
+ * found by binary search. A removed item leaves an empty place in the list, which is
+ * compacted when the list is needed or half of it is empty, so the order of the items
+ * doesn't change and removal doesn't shift the list each time.
  */
 public class FullIDHashDictionary<T extends IHasFullID>
 {
-    private int firstHashSize;
-    private int secondHashSize;
-    private ArrayList<ArrayList<T>> buckets;
+    private static final int INITIAL_CAPACITY = 16;
+    private static final float MAX_LOAD_FACTOR = 0.75f;
+
+    private long[] keys;
+    private Object[] values;
+    private int[] sequences;
+    private int count;
+    private int mask;
+    private int shift;
+    private int resizeThreshold;
     private ArrayList<T> allItems;
+    private int[] itemSequences;
+    private int nextSequence;
+    private int removedCount;
+    private int firstRemovedPosition;
 
     public FullIDHashDictionary()
     {
-        firstHashSize = 37;
-        secondHashSize = 1543;
-        buckets = new ArrayList<ArrayList<T>>();
-
-        int bucketsCount = firstHashSize * secondHashSize;
-        for (int i = 0; i < bucketsCount; i++)
-            buckets.add(new ArrayList<T>());
-
+        allocate(INITIAL_CAPACITY);
         allItems = new ArrayList<T>();
+        itemSequences = new int[INITIAL_CAPACITY];
+        nextSequence = 0;
+        removedCount = 0;
+        firstRemovedPosition = 0;
     }
 
+    /**
+     * Adds an item. An item with the same FullID is replaced.
+     */
     public void Add(T item)
     {
-        FullID fullID = item.GetFullID();
-        int index = hashFunction(fullID.GetClientID(), fullID.GetIDinCreator());
+        long key = item.GetFullID().ToLong();
+
+        if (count >= resizeThreshold)
+            resize(keys.length * 2);
+
+        int index = hashFunction(key);
+        while (values[index] != null)
+        {
+            if (keys[index] == key)
+            {
+                values[index] = item;
+                allItems.set(findPosition(sequences[index]), item);
+                return;
+            }
+            index = (index + 1) & mask;
+        }
+
+        if (nextSequence == Integer.MAX_VALUE)
+            renumber();
+
+        int position = allItems.size();
+        if (position == itemSequences.length)
+            itemSequences = Arrays.copyOf(itemSequences, position * 2);
 
-        buckets.get(index).add(item);
+        keys[index] = key;
+        values[index] = item;
+        sequences[index] = nextSequence;
+        itemSequences[position] = nextSequence;
+        nextSequence++;
+        count++;
         allItems.add(item);
     }
 
     public T Find(FullID fullID)
     {
-        return Find(fullID.GetClientID(), fullID.GetIDinCreator());
+        return Find(fullID.ToLong());
     }
 
     public T Find(int clientID, int IDinCreator)
     {
-        int index = this.hashFunction(clientID, IDinCreator);
+        return Find(FullID.Pack(clientID, IDinCreator));
+    }
 
-        if (buckets.get(index) == null)
+    /**
+     * Finds an item by its full ID packed in a long
+     */
+    @SuppressWarnings("unchecked")
+    public T Find(long packedID)
+    {
+        int index = findIndex(packedID);
+        if (index < 0)
             return null;
 
-        ArrayList<T> items = buckets.get(index);
-        for (T item : items)
-        {
-            FullID fullID = item.GetFullID();
-            if (fullID.GetClientID() == clientID &&
-                    fullID.GetIDinCreator() == IDinCreator)
-                return item;
-        }
-
-        return null;
+        return (T) values[index];
     }
 
     public void Remove(FullID fullID)
     {
-        Remove(fullID.GetClientID(), fullID.GetIDinCreator());
+        Remove(fullID.ToLong());
     }
 
     public void Remove(int clientID, int IDinCreator)
     {
-        int index = hashFunction(clientID, IDinCreator);
+        Remove(FullID.Pack(clientID, IDinCreator));
+    }
 
-        if (buckets.get(index) == null)
+    /**
+     * Removes an item by its full ID packed in a long
+     */
+    public void Remove(long packedID)
+    {
+        int index = findIndex(packedID);
+        if (index < 0)
             return;
 
-        ArrayList<T> items = buckets.get(index);
-        int itemIndex = -1;
+        int position = findPosition(sequences[index]);
+        if (removedCount == 0 || position < firstRemovedPosition)
+            firstRemovedPosition = position;
+        allItems.set(position, null);
+        removedCount++;
+        removeAt(index);
+        count--;
+
+        if (removedCount > allItems.size() / 2)
+            compact();
+    }
+
+    /**
+     * Gets all items in the order they were added.
+     * The list shouldn't be kept while items are removed.
+     */
+    public ArrayList<T> GetAllItems()
+    {
+        if (removedCount > 0)
+            compact();
+
+        return allItems;
+    }
+
+    /**
+     * Gets the number of items
+     */
+    public int Count()
+    {
+        return count;
+    }
+
+    public void RemoveAll()
+    {
+        allocate(INITIAL_CAPACITY);
+        allItems = new ArrayList<T>();
+        itemSequences = new int[INITIAL_CAPACITY];
+        nextSequence = 0;
+        removedCount = 0;
+        firstRemovedPosition = 0;
+    }
+
+    private void allocate(int capacity)
+    {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        sequences = new int[capacity];
+        count = 0;
+        mask = capacity - 1;
+        shift = 64 - Integer.numberOfTrailingZeros(capacity);
+        resizeThreshold = (int) (capacity * MAX_LOAD_FACTOR);
+    }
 
-        int i;
-        for (i = 0; i < items.size(); i++)
+    private void resize(int capacity)
+    {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        int[] oldSequences = sequences;
+        int oldCount = count;
+
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++)
+            if (oldValues[i] != null)
+                insert(oldKeys[i], oldValues[i], oldSequences[i]);
+        count = oldCount;
+    }
+
+    /**
+     * Puts a key which is not in the table in its first free slot
+     */
+    private void insert(long key, Object value, int sequence)
+    {
+        int index = hashFunction(key);
+        while (values[index] != null)
+            index = (index + 1) & mask;
+
+        keys[index] = key;
+        values[index] = value;
+        sequences[index] = sequence;
+    }
+
+    /**
+     * Gets the position of an item in the list of all items
+     */
+    private int findPosition(int sequence)
+    {
+        return Arrays.binarySearch(itemSequences, 0, allItems.size(), sequence);
+    }
+
+    /**
+     * Removes the empty places left in the list of all items by removed items
+     */
+    private void compact()
+    {
+        int size = allItems.size();
+        int first = firstRemovedPosition;
+
+        if (removedCount == 1)
         {
-            FullID fullID = items.get(i).GetFullID();
-            if (fullID.GetClientID() == clientID &&
-                    fullID.GetIDinCreator() == IDinCreator)
-                itemIndex = i;
+            allItems.remove(first);
+            System.arraycopy(itemSequences, first + 1, itemSequences, first,
+                    size - first - 1);
+        } else
+        {
+            int position = first;
+            for (int i = first; i < size; i++)
+            {
+                T item = allItems.get(i);
+                if (item == null)
+                    continue;
+
+                allItems.set(position, item);
+                itemSequences[position] = itemSequences[i];
+                position++;
+            }
+            allItems.subList(position, size).clear();
         }
 
-        if (itemIndex != -1)
-            buckets.get(index).remove(itemIndex);
+        removedCount = 0;
+    }
+
+    /**
+     * Gives the items new sequence numbers starting from zero
+     * when the sequence numbers run out
+     */
+    private void renumber()
+    {
+        if (removedCount > 0)
+            compact();
 
-        itemIndex = -1;
-        for (i = 0; i < allItems.size(); i++)
+        for (int i = 0; i < allItems.size(); i++)
         {
-            FullID fullID = allItems.get(i).GetFullID();
-            if (fullID.GetClientID() == clientID &&
-                    fullID.GetIDinCreator() == IDinCreator)
-                itemIndex = i;
+            itemSequences[i] = i;
+            sequences[findIndex(allItems.get(i).GetFullID().ToLong())] = i;
         }
-
-        if (itemIndex != -1)
-            allItems.remove(itemIndex);
+        nextSequence = allItems.size();
     }
 
-    public ArrayList<T> GetAllItems()
+    /**
+     * Gets the slot of a key
+     *
+     * @return -1 if not found
+     */
+    private int findIndex(long key)
     {
-        return allItems;
+        int index = hashFunction(key);
+        while (values[index] != null)
+        {
+            if (keys[index] == key)
+                return index;
+            index = (index + 1) & mask;
+        }
+
+        return -1;
     }
 
-    public void RemoveAll()
+    /**
+     * Empties a slot and moves back the items after it which would no longer be
+     * found, so that no deleted markers are needed
+     */
+    private void removeAt(int index)
     {
-        int bucketsCount = firstHashSize * secondHashSize;
-        for (int i = 0; i < bucketsCount; i++)
-            buckets.add(new ArrayList<T>());
-        allItems = new ArrayList<T>();
+        int next = (index + 1) & mask;
+        while (values[next] != null)
+        {
+            int home = hashFunction(keys[next]);
+
+            // Move the item if its home slot is not between the empty slot and it
+            if (((next - home) & mask) >= ((next - index) & mask))
+            {
+                keys[index] = keys[next];
+                values[index] = values[next];
+                sequences[index] = sequences[next];
+                index = next;
+            }
+            next = (next + 1) & mask;
+        }
+
+        keys[index] = 0;
+        values[index] = null;
     }
 
-    private int hashFunction(int firstKey, int secondKey)
+    private int hashFunction(long key)
     {
-        return (firstKey % firstHashSize) * secondHashSize +
-                (secondKey % secondHashSize);
+        // Fibonacci hashing spreads consecutive IDs of a client evenly over the table
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
     }
 
 }
-
@@ -0,0 +1,29 @@
+package We3Graph;
+
+import java.io.IOException;
+import java.util.Hashtable;
+
+/**
+ * The interface for any thing that can send HTTP requests to the web service.
+ * A single transport is shared by a SystemManager and every object created from it.
+ */
+public interface IHTTPTransport
+{
+    /**
+     * Sends an HTTP request
+     *
+     * @param method  The HTTP method in upper case such as GET or POST
+     * @param url     The full URL including the query string
+     * @param headers The request headers. Can be null.
+     * @param body    The request body. null if there is no body.
+     * @return The response. It should be closed after its body is read.
+     * @throws IOException if the request can not be sent or the response can not be read
+     */
+    HTTPResponse Send(String method, String url, Hashtable<String, String> headers,
+                      byte[] body) throws IOException;
+
+    /**
+     * Releases any resource such as open connections held by the transport
+     */
+    void Close();
+}
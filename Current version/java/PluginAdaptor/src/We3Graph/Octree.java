@@ -0,0 +1,492 @@
+package We3Graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.PriorityQueue;
+
+/**
+ * An octree of items at points, which is updated when items are added, moved or removed.
+ * A leaf is split into eight children when it has too many items and the children of a
+ * node are merged into it when it has few items left. The root grows to contain the
+ * items added outside of it.
+ * The leaf of each item is kept in a map, so an item which moves within its leaf is only
+ * updated in place. Items at a point which is not finite are kept out of the tree.
+ */
+class Octree<T>
+{
+    private static final int MAX_LEAF_ITEMS = 16;
+    private static final int MIN_NODE_ITEMS = MAX_LEAF_ITEMS / 2;
+    private static final int MAX_DEPTH = 32;
+
+    private Node root_;
+    private IdentityHashMap<T, Node> leaves_;
+
+    Octree()
+    {
+        root_ = new Node(null, -1, -1, -1, 2);
+        leaves_ = new IdentityHashMap<T, Node>();
+    }
+
+    int __getCount()
+    {
+        return leaves_.size();
+    }
+
+    void __add(T item, double x, double y, double z)
+    {
+        if (!isFinite(x, y, z))
+        {
+            leaves_.put(item, null);
+            return;
+        }
+
+        while (!root_.contains(x, y, z))
+            growRoot(x, y, z);
+
+        Node node = root_;
+        int depth = 0;
+        while (true)
+        {
+            node.count_++;
+            if (node.children_ == null)
+            {
+                if (node.itemsCount_ < MAX_LEAF_ITEMS || depth >= MAX_DEPTH)
+                {
+                    node.addItem(item, x, y, z);
+                    leaves_.put(item, node);
+                    return;
+                }
+                split(node);
+            }
+            node = node.children_[node.childIndex(x, y, z)];
+            depth++;
+        }
+    }
+
+    /**
+     * Moves an item. Items which are not in the tree are ignored.
+     */
+    void __move(T item, double x, double y, double z)
+    {
+        if (!leaves_.containsKey(item))
+            return;
+
+        Node leaf = leaves_.get(item);
+        if (leaf != null && leaf.contains(x, y, z))
+        {
+            leaf.setItemPosition(leaf.indexOf(item), x, y, z);
+            return;
+        }
+
+        __remove(item);
+        __add(item, x, y, z);
+    }
+
+    void __remove(T item)
+    {
+        if (!leaves_.containsKey(item))
+            return;
+
+        Node leaf = leaves_.remove(item);
+        if (leaf == null)
+            return;
+
+        leaf.removeItem(leaf.indexOf(item));
+        for (Node node = leaf; node != null; node = node.parent_)
+            node.count_--;
+
+        // Merge the highest node which has few items left
+        Node mergedNode = null;
+        for (Node node = leaf.parent_; node != null && node.count_ <= MIN_NODE_ITEMS;
+             node = node.parent_)
+            mergedNode = node;
+        if (mergedNode != null)
+            merge(mergedNode);
+    }
+
+    /**
+     * Gets the items inside a box, including its faces
+     */
+    ArrayList<T> __getInBox(double minX, double minY, double minZ,
+                            double maxX, double maxY, double maxZ)
+    {
+        ArrayList<T> result = new ArrayList<T>();
+        ArrayList<Node> nodes = new ArrayList<Node>();
+        nodes.add(root_);
+        while (!nodes.isEmpty())
+        {
+            Node node = nodes.remove(nodes.size() - 1);
+            if (node.count_ == 0 || !node.intersects(minX, minY, minZ, maxX, maxY, maxZ))
+                continue;
+
+            if (node.children_ != null)
+            {
+                for (Node child : node.children_)
+                    nodes.add(child);
+                continue;
+            }
+
+            for (int i = 0; i < node.itemsCount_; i++)
+            {
+                double x = node.positions_[i * 3];
+                double y = node.positions_[i * 3 + 1];
+                double z = node.positions_[i * 3 + 2];
+                if (x >= minX && x <= maxX && y >= minY && y <= maxY &&
+                        z >= minZ && z <= maxZ)
+                    result.add(toItem(node.items_[i]));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Gets the items nearest to a point, from the nearest one
+     *
+     * @param count The maximum number of items
+     */
+    ArrayList<T> __getNearest(double x, double y, double z, int count)
+    {
+        ArrayList<T> result = new ArrayList<T>();
+        PriorityQueue<Candidate> candidates = new PriorityQueue<Candidate>();
+        candidates.add(new Candidate(root_.distanceSquared(x, y, z), root_, null));
+
+        // Nodes are visited in the order of their distance, so an item is taken when no
+        // node or item is nearer
+        while (result.size() < count && !candidates.isEmpty())
+        {
+            Candidate candidate = candidates.poll();
+            if (candidate.node_ == null)
+            {
+                result.add(toItem(candidate.item_));
+                continue;
+            }
+
+            Node node = candidate.node_;
+            if (node.children_ != null)
+            {
+                for (Node child : node.children_)
+                    if (child.count_ > 0)
+                        candidates.add(
+                                new Candidate(child.distanceSquared(x, y, z), child, null));
+                continue;
+            }
+
+            for (int i = 0; i < node.itemsCount_; i++)
+            {
+                double dx = node.positions_[i * 3] - x;
+                double dy = node.positions_[i * 3 + 1] - y;
+                double dz = node.positions_[i * 3 + 2] - z;
+                candidates.add(
+                        new Candidate(dx * dx + dy * dy + dz * dz, null, node.items_[i]));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Gets the item nearest to the origin of a ray among the items at most a distance
+     * away from the ray
+     *
+     * @return null if there is no such item
+     */
+    T __pick(double originX, double originY, double originZ,
+             double directionX, double directionY, double directionZ, double radius)
+    {
+        double lengthSquared = directionX * directionX + directionY * directionY +
+                directionZ * directionZ;
+        if (lengthSquared == 0)
+            return null;
+
+        Object bestItem = null;
+        double bestT = Double.POSITIVE_INFINITY;
+        ArrayList<Node> nodes = new ArrayList<Node>();
+        nodes.add(root_);
+        while (!nodes.isEmpty())
+        {
+            Node node = nodes.remove(nodes.size() - 1);
+            if (node.count_ == 0)
+                continue;
+
+            double entry = node.enterRay(originX, originY, originZ,
+                    directionX, directionY, directionZ, radius);
+            if (entry == Double.POSITIVE_INFINITY || entry > bestT)
+                continue;
+
+            if (node.children_ != null)
+            {
+                for (Node child : node.children_)
+                    nodes.add(child);
+                continue;
+            }
+
+            for (int i = 0; i < node.itemsCount_; i++)
+            {
+                double dx = node.positions_[i * 3] - originX;
+                double dy = node.positions_[i * 3 + 1] - originY;
+                double dz = node.positions_[i * 3 + 2] - originZ;
+                double t = Math.max(0,
+                        (dx * directionX + dy * directionY + dz * directionZ) / lengthSquared);
+                double ex = dx - t * directionX;
+                double ey = dy - t * directionY;
+                double ez = dz - t * directionZ;
+                if (ex * ex + ey * ey + ez * ez <= radius * radius && t < bestT)
+                {
+                    bestT = t;
+                    bestItem = node.items_[i];
+                }
+            }
+        }
+
+        return toItem(bestItem);
+    }
+
+    /**
+     * Makes a root twice as large towards a point outside of the root
+     */
+    private void growRoot(double x, double y, double z)
+    {
+        Node oldRoot = root_;
+        double size = oldRoot.size_;
+        double minX = x < oldRoot.minX_ ? oldRoot.minX_ - size : oldRoot.minX_;
+        double minY = y < oldRoot.minY_ ? oldRoot.minY_ - size : oldRoot.minY_;
+        double minZ = z < oldRoot.minZ_ ? oldRoot.minZ_ - size : oldRoot.minZ_;
+
+        root_ = new Node(null, minX, minY, minZ, size * 2);
+        root_.createChildren();
+        int index = root_.childIndex(oldRoot.minX_, oldRoot.minY_, oldRoot.minZ_);
+        root_.children_[index] = oldRoot;
+        oldRoot.parent_ = root_;
+        root_.count_ = oldRoot.count_;
+    }
+
+    private void split(Node node)
+    {
+        node.createChildren();
+        for (int i = 0; i < node.itemsCount_; i++)
+        {
+            double x = node.positions_[i * 3];
+            double y = node.positions_[i * 3 + 1];
+            double z = node.positions_[i * 3 + 2];
+            Node child = node.children_[node.childIndex(x, y, z)];
+            child.addItem(node.items_[i], x, y, z);
+            child.count_++;
+            leaves_.put(toItem(node.items_[i]), child);
+        }
+        node.items_ = null;
+        node.positions_ = null;
+        node.itemsCount_ = 0;
+    }
+
+    /**
+     * Moves the items of the descendants of a node to it
+     */
+    private void merge(Node node)
+    {
+        Node[] children = node.children_;
+        node.children_ = null;
+        node.itemsCount_ = 0;
+
+        ArrayList<Node> nodes = new ArrayList<Node>();
+        for (Node child : children)
+            nodes.add(child);
+        while (!nodes.isEmpty())
+        {
+            Node descendant = nodes.remove(nodes.size() - 1);
+            if (descendant.children_ != null)
+            {
+                for (Node child : descendant.children_)
+                    nodes.add(child);
+                continue;
+            }
+
+            for (int i = 0; i < descendant.itemsCount_; i++)
+            {
+                node.addItem(descendant.items_[i], descendant.positions_[i * 3],
+                        descendant.positions_[i * 3 + 1], descendant.positions_[i * 3 + 2]);
+                leaves_.put(toItem(descendant.items_[i]), node);
+            }
+        }
+    }
+
+    /**
+     * Casts an item kept by a node. The nodes are not generic, but they only keep the
+     * items added to the tree.
+     */
+    @SuppressWarnings("unchecked")
+    private T toItem(Object item)
+    {
+        return (T) item;
+    }
+
+    private static boolean isFinite(double x, double y, double z)
+    {
+        return Double.isFinite(x) && Double.isFinite(y) && Double.isFinite(z);
+    }
+
+    /**
+     * A cube of the tree, which either has eight children or is a leaf with items
+     */
+    private static class Node
+    {
+        private Node parent_;
+        private double minX_;
+        private double minY_;
+        private double minZ_;
+        private double size_;
+        private Node[] children_;
+        private Object[] items_;
+        private double[] positions_;
+        private int itemsCount_;
+        private int count_;
+
+        Node(Node parent, double minX, double minY, double minZ, double size)
+        {
+            parent_ = parent;
+            minX_ = minX;
+            minY_ = minY;
+            minZ_ = minZ;
+            size_ = size;
+            itemsCount_ = 0;
+            count_ = 0;
+        }
+
+        boolean contains(double x, double y, double z)
+        {
+            return x >= minX_ && x < minX_ + size_ && y >= minY_ && y < minY_ + size_ &&
+                    z >= minZ_ && z < minZ_ + size_;
+        }
+
+        boolean intersects(double minX, double minY, double minZ,
+                           double maxX, double maxY, double maxZ)
+        {
+            return minX < minX_ + size_ && maxX >= minX_ && minY < minY_ + size_ &&
+                    maxY >= minY_ && minZ < minZ_ + size_ && maxZ >= minZ_;
+        }
+
+        double distanceSquared(double x, double y, double z)
+        {
+            double dx = Math.max(0, Math.max(minX_ - x, x - minX_ - size_));
+            double dy = Math.max(0, Math.max(minY_ - y, y - minY_ - size_));
+            double dz = Math.max(0, Math.max(minZ_ - z, z - minZ_ - size_));
+            return dx * dx + dy * dy + dz * dz;
+        }
+
+        /**
+         * Gets where a ray enters the cube grown by a margin
+         *
+         * @return The parameter of the ray at the entry, or infinity if it misses
+         */
+        double enterRay(double originX, double originY, double originZ,
+                        double directionX, double directionY, double directionZ,
+                        double margin)
+        {
+            double[] entry = {0, Double.POSITIVE_INFINITY};
+            if (!clipRay(originX, directionX, minX_ - margin, minX_ + size_ + margin, entry) ||
+                    !clipRay(originY, directionY, minY_ - margin, minY_ + size_ + margin,
+                            entry) ||
+                    !clipRay(originZ, directionZ, minZ_ - margin, minZ_ + size_ + margin,
+                            entry))
+                return Double.POSITIVE_INFINITY;
+
+            return entry[0];
+        }
+
+        /**
+         * Limits the range of a ray to the part between two planes of an axis
+         */
+        private static boolean clipRay(double origin, double direction, double min,
+                                       double max, double[] range)
+        {
+            if (direction == 0)
+                return origin >= min && origin <= max;
+
+            double t1 = (min - origin) / direction;
+            double t2 = (max - origin) / direction;
+            range[0] = Math.max(range[0], Math.min(t1, t2));
+            range[1] = Math.min(range[1], Math.max(t1, t2));
+
+            return range[0] <= range[1];
+        }
+
+        int childIndex(double x, double y, double z)
+        {
+            double half = size_ / 2;
+            return (x >= minX_ + half ? 1 : 0) | (y >= minY_ + half ? 2 : 0) |
+                    (z >= minZ_ + half ? 4 : 0);
+        }
+
+        void createChildren()
+        {
+            double half = size_ / 2;
+            children_ = new Node[8];
+            for (int i = 0; i < 8; i++)
+                children_[i] = new Node(this, minX_ + ((i & 1) != 0 ? half : 0),
+                        minY_ + ((i & 2) != 0 ? half : 0), minZ_ + ((i & 4) != 0 ? half : 0),
+                        half);
+        }
+
+        void addItem(Object item, double x, double y, double z)
+        {
+            if (items_ == null)
+            {
+                items_ = new Object[4];
+                positions_ = new double[12];
+            } else if (itemsCount_ == items_.length)
+            {
+                items_ = Arrays.copyOf(items_, itemsCount_ * 2);
+                positions_ = Arrays.copyOf(positions_, itemsCount_ * 6);
+            }
+            items_[itemsCount_] = item;
+            setItemPosition(itemsCount_, x, y, z);
+            itemsCount_++;
+        }
+
+        void setItemPosition(int index, double x, double y, double z)
+        {
+            positions_[index * 3] = x;
+            positions_[index * 3 + 1] = y;
+            positions_[index * 3 + 2] = z;
+        }
+
+        int indexOf(Object item)
+        {
+            for (int i = 0; i < itemsCount_; i++)
+                if (items_[i] == item)
+                    return i;
+
+            return -1;
+        }
+
+        void removeItem(int index)
+        {
+            itemsCount_--;
+            items_[index] = items_[itemsCount_];
+            positions_[index * 3] = positions_[itemsCount_ * 3];
+            positions_[index * 3 + 1] = positions_[itemsCount_ * 3 + 1];
+            positions_[index * 3 + 2] = positions_[itemsCount_ * 3 + 2];
+            items_[itemsCount_] = null;
+        }
+    }
+
+    private static class Candidate implements Comparable<Candidate>
+    {
+        private double distanceSquared_;
+        private Node node_;
+        private Object item_;
+
+        Candidate(double distanceSquared, Node node, Object item)
+        {
+            distanceSquared_ = distanceSquared;
+            node_ = node;
+            item_ = item;
+        }
+
+        public int compareTo(Candidate candidate)
+        {
+            return Double.compare(distanceSquared_, candidate.distanceSquared_);
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package We3Graph;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable map from full IDs packed in longs to values, which are not null.
+ * It's a hash array mapped trie: changing it gives a new map which shares all its
+ * nodes with the old one, except the nodes on the path to the changed key.
+ * The changes made with the same edit token change the nodes they created in place,
+ * so that a batch of changes copies each node once. Once a map is shared with other
+ * threads, its token must not be used for changes any more.
+ */
+class PersistentIDMap<T>
+{
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    private static final PersistentIDMap<?> EMPTY = new PersistentIDMap<Object>(null, 0);
+
+    private Node root_;
+    private int count_;
+
+    private PersistentIDMap(Node root, int count)
+    {
+        root_ = root;
+        count_ = count;
+    }
+
+    // The empty map has no values, so it's a map of any type
+    @SuppressWarnings("unchecked")
+    static <T> PersistentIDMap<T> __empty()
+    {
+        return (PersistentIDMap<T>) EMPTY;
+    }
+
+    int __getCount()
+    {
+        return count_;
+    }
+
+    /**
+     * @return null if the key is not in the map
+     */
+    @SuppressWarnings("unchecked")
+    T __get(long key)
+    {
+        long hash = hash(key);
+        Node node = root_;
+        for (int shift = 0; node != null; shift += BITS)
+        {
+            int bit = 1 << ((int) (hash >>> shift) & MASK);
+            if ((node.bitmap & bit) == 0)
+                return null;
+
+            Object child = node.array[Integer.bitCount(node.bitmap & (bit - 1))];
+            if (child instanceof Entry)
+            {
+                // The entries are not generic, but they only keep values put as T
+                Entry entry = (Entry) child;
+                return entry.key == key ? (T) entry.value : null;
+            }
+            node = (Node) child;
+        }
+
+        return null;
+    }
+
+    /**
+     * Gets the map with a key mapped to a value
+     *
+     * @param edit The token of the batch of changes
+     */
+    PersistentIDMap<T> __put(long key, T value, Object edit)
+    {
+        int count = __get(key) == null ? count_ + 1 : count_;
+        Node root = put(root_, 0, hash(key), key, value, edit);
+        if (root == root_ && count == count_)
+            return this;
+
+        return new PersistentIDMap<T>(root, count);
+    }
+
+    /**
+     * Gets the map without a key
+     *
+     * @param edit The token of the batch of changes
+     */
+    PersistentIDMap<T> __remove(long key, Object edit)
+    {
+        if (__get(key) == null)
+            return this;
+
+        return new PersistentIDMap<T>(remove(root_, 0, hash(key), key, edit), count_ - 1);
+    }
+
+    /**
+     * Gets the keys in no particular order
+     */
+    long[] __getKeys()
+    {
+        long[] keys = new long[count_];
+        int count = 0;
+        for (Iterator<Entry> iterator = new EntryIterator(root_); iterator.hasNext(); )
+            keys[count++] = iterator.next().key;
+
+        return keys;
+    }
+
+    /**
+     * Iterates the values in no particular order
+     */
+    Iterator<T> __iterator()
+    {
+        final Iterator<Entry> entries = new EntryIterator(root_);
+        return new Iterator<T>()
+        {
+            public boolean hasNext()
+            {
+                return entries.hasNext();
+            }
+
+            @SuppressWarnings("unchecked")
+            public T next()
+            {
+                return (T) entries.next().value;
+            }
+        };
+    }
+
+    private static long hash(long key)
+    {
+        // A bijection, so different keys differ in some bits of their hashes
+        return key * 0x9E3779B97F4A7C15L;
+    }
+
+    private static Node put(Node node, int shift, long hash, long key, Object value, Object edit)
+    {
+        int bit = 1 << ((int) (hash >>> shift) & MASK);
+        if (node == null)
+            return new Node(edit, bit, new Object[]{new Entry(key, value)});
+
+        int index = Integer.bitCount(node.bitmap & (bit - 1));
+        if ((node.bitmap & bit) == 0)
+        {
+            Object[] array = new Object[node.array.length + 1];
+            System.arraycopy(node.array, 0, array, 0, index);
+            array[index] = new Entry(key, value);
+            System.arraycopy(node.array, index, array, index + 1, node.array.length - index);
+            return edited(node, edit, node.bitmap | bit, array);
+        }
+
+        Object child = node.array[index];
+        Object newChild;
+        if (child instanceof Node)
+            newChild = put((Node) child, shift + BITS, hash, key, value, edit);
+        else
+        {
+            Entry entry = (Entry) child;
+            if (entry.key == key)
+            {
+                if (entry.value == value)
+                    return node;
+                newChild = new Entry(key, value);
+            } else
+            {
+                // Both entries move down to where their hashes differ
+                Node newNode = new Node(edit,
+                        1 << ((int) (hash(entry.key) >>> (shift + BITS)) & MASK),
+                        new Object[]{entry});
+                newChild = put(newNode, shift + BITS, hash, key, value, edit);
+            }
+        }
+
+        return newChild == child ? node : edited(node, edit, index, newChild);
+    }
+
+    private static Node remove(Node node, int shift, long hash, long key, Object edit)
+    {
+        int bit = 1 << ((int) (hash >>> shift) & MASK);
+        int index = Integer.bitCount(node.bitmap & (bit - 1));
+        Object child = node.array[index];
+        Object newChild = null;
+        if (child instanceof Node)
+        {
+            Node newNode = remove((Node) child, shift + BITS, hash, key, edit);
+            // A single entry moves up, so the trie doesn't get deeper than needed
+            if (newNode != null && newNode.array.length == 1 &&
+                    newNode.array[0] instanceof Entry)
+                newChild = newNode.array[0];
+            else
+                newChild = newNode;
+        }
+
+        if (newChild != null)
+            return edited(node, edit, index, newChild);
+
+        if (node.bitmap == bit)
+            return null;
+
+        Object[] array = new Object[node.array.length - 1];
+        System.arraycopy(node.array, 0, array, 0, index);
+        System.arraycopy(node.array, index + 1, array, index, array.length - index);
+        return edited(node, edit, node.bitmap & ~bit, array);
+    }
+
+    /**
+     * Gets a node with a changed child, which is the node itself if it was created
+     * with the same token
+     */
+    private static Node edited(Node node, Object edit, int index, Object child)
+    {
+        if (node.edit == edit)
+        {
+            node.array[index] = child;
+            return node;
+        }
+
+        Object[] array = node.array.clone();
+        array[index] = child;
+        return new Node(edit, node.bitmap, array);
+    }
+
+    private static Node edited(Node node, Object edit, int bitmap, Object[] array)
+    {
+        if (node.edit == edit)
+        {
+            node.bitmap = bitmap;
+            node.array = array;
+            return node;
+        }
+
+        return new Node(edit, bitmap, array);
+    }
+
+    private static class Node
+    {
+        Object edit;
+        int bitmap;
+        // The entries and child nodes in the order of their bits in the bitmap
+        Object[] array;
+
+        Node(Object edit, int bitmap, Object[] array)
+        {
+            this.edit = edit;
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+    }
+
+    private static class Entry
+    {
+        long key;
+        Object value;
+
+        Entry(long key, Object value)
+        {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    private static class EntryIterator implements Iterator<Entry>
+    {
+        // The nodes from the root to the current one, and the next index in each
+        private Node[] nodes_;
+        private int[] indexes_;
+        private int depth_;
+        private Entry next_;
+
+        EntryIterator(Node root)
+        {
+            nodes_ = new Node[64 / BITS + 1];
+            indexes_ = new int[nodes_.length];
+            depth_ = root == null ? -1 : 0;
+            nodes_[0] = root;
+            advance();
+        }
+
+        public boolean hasNext()
+        {
+            return next_ != null;
+        }
+
+        public Entry next()
+        {
+            if (next_ == null)
+                throw new NoSuchElementException();
+
+            Entry entry = next_;
+            advance();
+            return entry;
+        }
+
+        private void advance()
+        {
+            next_ = null;
+            while (depth_ >= 0)
+            {
+                Node node = nodes_[depth_];
+                if (indexes_[depth_] == node.array.length)
+                {
+                    depth_--;
+                    continue;
+                }
+
+                Object child = node.array[indexes_[depth_]++];
+                if (child instanceof Entry)
+                {
+                    next_ = (Entry) child;
+                    return;
+                }
+
+                depth_++;
+                nodes_[depth_] = (Node) child;
+                indexes_[depth_] = 0;
+            }
+        }
+    }
+}
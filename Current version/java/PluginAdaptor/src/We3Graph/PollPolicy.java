@@ -0,0 +1,20 @@
+package We3Graph;
+
+/**
+ * The policies for choosing the delay between two requests for incoming commands
+ * when long polling is not used
+ */
+public enum PollPolicy
+{
+    /**
+     * Always waits the poll interval between two requests
+     */
+    FIXED,
+
+    /**
+     * Requests again immediately while full pages are received, backs off
+     * exponentially up to the maximum poll interval while nothing is received
+     * and goes back to the poll interval on any local command
+     */
+    ADAPTIVE
+}
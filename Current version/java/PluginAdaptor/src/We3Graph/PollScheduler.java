@@ -0,0 +1,77 @@
+package We3Graph;
+
+/**
+ * This class decides how long the incoming commands thread waits before
+ * the next request for commands.
+ */
+class PollScheduler
+{
+    private PollPolicy policy_;
+    private int pollInterval_;
+    private int maxPollInterval_;
+    private int currentInterval_;
+    private AutoResetEvent wakeEvent_;
+
+    PollScheduler(PollPolicy policy, int pollInterval, int maxPollInterval)
+    {
+        policy_ = policy;
+        pollInterval_ = pollInterval;
+        maxPollInterval_ = Math.max(pollInterval, maxPollInterval);
+        currentInterval_ = pollInterval;
+        wakeEvent_ = new AutoResetEvent(false);
+    }
+
+    /**
+     * Waits before the next request for commands
+     *
+     * @param receivedCount The number of commands received by the last request
+     * @param pageSize      The maximum number of commands a request can receive
+     */
+    void __waitForNextPoll(int receivedCount, int pageSize) throws InterruptedException
+    {
+        if (policy_ == PollPolicy.FIXED)
+        {
+            Thread.sleep(pollInterval_);
+            return;
+        }
+
+        int interval;
+        synchronized (this)
+        {
+            // After a full page more commands are probably waiting,
+            // so catch up immediately
+            if (receivedCount >= pageSize)
+            {
+                currentInterval_ = pollInterval_;
+                return;
+            }
+
+            if (receivedCount > 0)
+                currentInterval_ = pollInterval_;
+
+            interval = currentInterval_;
+            currentInterval_ = Math.min(currentInterval_ * 2, maxPollInterval_);
+        }
+
+        wakeEvent_.waitOne(interval);
+    }
+
+    /**
+     * Called when this client runs a command, since others are likely to
+     * respond and the command will be received back soon
+     */
+    void __onLocalActivity()
+    {
+        if (policy_ == PollPolicy.FIXED)
+            return;
+
+        synchronized (this)
+        {
+            if (currentInterval_ == pollInterval_)
+                return;
+            currentInterval_ = pollInterval_;
+        }
+
+        wakeEvent_.set();
+    }
+}
@@ -0,0 +1,577 @@
+package We3Graph;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.Iterator;
+
+/**
+ * An HTTP/1.1 transport which keeps connections alive and reuses them.
+ * Connections are pooled per host. The number of connections to each host is
+ * bounded and connections that stay idle longer than the idle timeout are closed.
+ */
+public class PooledHTTPTransport implements IHTTPTransport
+{
+    private int maxConnectionsPerHost_;
+    private int connectTimeout_;
+    private int readTimeout_;
+    private long idleTimeout_;
+    private final Hashtable<String, HostPool> pools_;
+
+    public PooledHTTPTransport()
+    {
+        this(16, 10000, 60000, 30000);
+    }
+
+    /**
+     * Constructor for the pooled HTTP transport class
+     *
+     * @param maxConnectionsPerHost The maximum number of open connections to each host
+     * @param connectTimeout        The connect timeout in milliseconds
+     * @param readTimeout           The read timeout in milliseconds
+     * @param idleTimeout           The time in milliseconds after which an idle connection is closed
+     */
+    public PooledHTTPTransport(int maxConnectionsPerHost, int connectTimeout,
+                               int readTimeout, long idleTimeout)
+    {
+        maxConnectionsPerHost_ = maxConnectionsPerHost;
+        connectTimeout_ = connectTimeout;
+        readTimeout_ = readTimeout;
+        idleTimeout_ = idleTimeout;
+        pools_ = new Hashtable<String, HostPool>();
+    }
+
+    public int GetMaxConnectionsPerHost()
+    {
+        return maxConnectionsPerHost_;
+    }
+
+    public int GetConnectTimeout()
+    {
+        return connectTimeout_;
+    }
+
+    public int GetReadTimeout()
+    {
+        return readTimeout_;
+    }
+
+    public long GetIdleTimeout()
+    {
+        return idleTimeout_;
+    }
+
+    public HTTPResponse Send(String method, String url, Hashtable<String, String> headers,
+                             byte[] body) throws IOException
+    {
+        URL parsedURL = new URL(url);
+        String protocol = parsedURL.getProtocol().toLowerCase();
+        boolean isSecure = protocol.equals("https");
+        String host = parsedURL.getHost();
+        int port = parsedURL.getPort();
+        if (port == -1)
+            port = isSecure ? 443 : 80;
+
+        String path = parsedURL.getFile();
+        if (path.equals(""))
+            path = "/";
+
+        byte[] head = createRequestHead(method, path, host, port, headers, body);
+
+        HostPool pool = getPool(protocol + "://" + host + ":" + port);
+        evictIdleConnections();
+
+        // A reused connection may have been closed by the server while it was idle.
+        // Then writing the request fails or the connection ends before any byte of
+        // the response, and the request is retried on a new connection. A request
+        // which failed after that may have been processed, so it's never sent again.
+        while (true)
+        {
+            PooledConnection connection = pool.Acquire(isSecure, host, port);
+            try
+            {
+                try
+                {
+                    connection.output_.write(head);
+                    if (body != null)
+                        connection.output_.write(body);
+                    connection.output_.flush();
+                } catch (IOException e)
+                {
+                    throw new StaleConnectionException();
+                }
+
+                String statusLine = readLine(connection.input_);
+                if (statusLine == null)
+                    throw new StaleConnectionException();
+
+                return readResponse(method, statusLine, connection, pool);
+            } catch (StaleConnectionException e)
+            {
+                pool.Discard(connection);
+                if (!connection.isReused_)
+                    throw new IOException("Connection closed by server");
+            } catch (IOException | RuntimeException | Error e)
+            {
+                pool.Discard(connection);
+                throw e;
+            }
+        }
+    }
+
+    public void Close()
+    {
+        synchronized (pools_)
+        {
+            for (HostPool pool : pools_.values())
+                pool.CloseIdle(0);
+            pools_.clear();
+        }
+    }
+
+    private HostPool getPool(String key)
+    {
+        synchronized (pools_)
+        {
+            HostPool pool = pools_.get(key);
+            if (pool == null)
+            {
+                pool = new HostPool();
+                pools_.put(key, pool);
+            }
+            return pool;
+        }
+    }
+
+    private void evictIdleConnections()
+    {
+        ArrayList<HostPool> pools;
+        synchronized (pools_)
+        {
+            pools = new ArrayList<HostPool>(pools_.values());
+        }
+
+        for (HostPool pool : pools)
+            pool.CloseIdle(idleTimeout_);
+    }
+
+    private byte[] createRequestHead(String method, String path, String host, int port,
+                                     Hashtable<String, String> headers, byte[] body)
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append(method).append(' ').append(path).append(" HTTP/1.1\r\n");
+        sb.append("Host: ").append(host);
+        if (port != 80 && port != 443)
+            sb.append(':').append(port);
+        sb.append("\r\n");
+        sb.append("Connection: keep-alive\r\n");
+
+        if (headers != null)
+            for (String name : headers.keySet())
+                sb.append(name).append(": ").append(headers.get(name)).append("\r\n");
+
+        if (body != null)
+            sb.append("Content-Length: ").append(body.length).append("\r\n");
+        sb.append("\r\n");
+
+        return sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private HTTPResponse readResponse(String method, String statusLine,
+                                      PooledConnection connection, HostPool pool)
+            throws IOException
+    {
+        String[] statusParts = statusLine.split(" ");
+        if (statusParts.length < 2 || !statusParts[0].startsWith("HTTP/"))
+            throw new IOException("Invalid HTTP status line");
+
+        int statusCode = Integer.parseInt(statusParts[1]);
+        boolean isKeepAlive = !statusParts[0].equals("HTTP/1.0");
+
+        Hashtable<String, String> responseHeaders = new Hashtable<String, String>();
+        String line;
+        while ((line = readLine(connection.input_)) != null && line.length() > 0)
+        {
+            int colonIndex = line.indexOf(':');
+            if (colonIndex <= 0)
+                continue;
+            String name = line.substring(0, colonIndex).trim().toLowerCase();
+            String value = line.substring(colonIndex + 1).trim();
+            responseHeaders.put(name, value);
+        }
+
+        String connectionHeader = responseHeaders.get("connection");
+        if (connectionHeader != null)
+        {
+            if (connectionHeader.equalsIgnoreCase("close"))
+                isKeepAlive = false;
+            else if (connectionHeader.equalsIgnoreCase("keep-alive"))
+                isKeepAlive = true;
+        }
+
+        String transferEncoding = responseHeaders.get("transfer-encoding");
+        String contentLength = responseHeaders.get("content-length");
+
+        InputStream body;
+        if (method.equals("HEAD") || statusCode == 204 || statusCode == 304 ||
+                (statusCode >= 100 && statusCode < 200))
+            body = new FixedLengthInputStream(connection, pool, 0, isKeepAlive);
+        else if (transferEncoding != null &&
+                transferEncoding.toLowerCase().contains("chunked"))
+            body = new ChunkedInputStream(connection, pool, isKeepAlive);
+        else if (contentLength != null)
+            body = new FixedLengthInputStream(connection, pool,
+                    Long.parseLong(contentLength), isKeepAlive);
+        else
+            body = new FixedLengthInputStream(connection, pool, -1, false);
+
+        return new HTTPResponse(statusCode, responseHeaders, body);
+    }
+
+    private static String readLine(InputStream input) throws IOException
+    {
+        StringBuilder sb = new StringBuilder();
+        int b;
+        while ((b = input.read()) != -1)
+        {
+            if (b == '\n')
+            {
+                int length = sb.length();
+                if (length > 0 && sb.charAt(length - 1) == '\r')
+                    sb.setLength(length - 1);
+                return sb.toString();
+            }
+            sb.append((char) b);
+        }
+
+        if (sb.length() == 0)
+            return null;
+        return sb.toString();
+    }
+
+    /**
+     * The pool of connections to a single host
+     */
+    private class HostPool
+    {
+        private final ArrayDeque<PooledConnection> idleConnections_;
+        private int openConnectionsCount_;
+
+        HostPool()
+        {
+            idleConnections_ = new ArrayDeque<PooledConnection>();
+            openConnectionsCount_ = 0;
+        }
+
+        PooledConnection Acquire(boolean isSecure, String host, int port) throws IOException
+        {
+            synchronized (this)
+            {
+                long waitUntil = System.currentTimeMillis() + connectTimeout_;
+                while (idleConnections_.isEmpty() &&
+                        openConnectionsCount_ >= maxConnectionsPerHost_)
+                {
+                    long remaining = waitUntil - System.currentTimeMillis();
+                    if (remaining <= 0)
+                        throw new IOException("Timed out waiting for a pooled connection");
+                    try
+                    {
+                        wait(remaining);
+                    } catch (InterruptedException e)
+                    {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while waiting for a pooled connection");
+                    }
+                }
+
+                PooledConnection connection = idleConnections_.pollLast();
+                if (connection != null)
+                {
+                    connection.isReused_ = true;
+                    return connection;
+                }
+
+                openConnectionsCount_++;
+            }
+
+            try
+            {
+                return new PooledConnection(open(isSecure, host, port));
+            } catch (IOException e)
+            {
+                synchronized (this)
+                {
+                    openConnectionsCount_--;
+                    notifyAll();
+                }
+                throw e;
+            }
+        }
+
+        synchronized void Release(PooledConnection connection)
+        {
+            connection.lastUsedTime_ = System.currentTimeMillis();
+            idleConnections_.addLast(connection);
+            notifyAll();
+        }
+
+        synchronized void Discard(PooledConnection connection)
+        {
+            connection.Close();
+            openConnectionsCount_--;
+            notifyAll();
+        }
+
+        synchronized void CloseIdle(long idleTimeout)
+        {
+            long now = System.currentTimeMillis();
+            Iterator<PooledConnection> iterator = idleConnections_.iterator();
+            while (iterator.hasNext())
+            {
+                PooledConnection connection = iterator.next();
+                if (now - connection.lastUsedTime_ >= idleTimeout ||
+                        connection.socket_.isClosed())
+                {
+                    iterator.remove();
+                    connection.Close();
+                    openConnectionsCount_--;
+                }
+            }
+            notifyAll();
+        }
+
+        private Socket open(boolean isSecure, String host, int port) throws IOException
+        {
+            Socket socket = new Socket();
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            socket.connect(new InetSocketAddress(host, port), connectTimeout_);
+            socket.setSoTimeout(readTimeout_);
+
+            if (!isSecure)
+                return socket;
+
+            SSLSocketFactory factory = (SSLSocketFactory) SSLSocketFactory.getDefault();
+            SSLSocket sslSocket = (SSLSocket) factory.createSocket(socket, host, port, true);
+            SSLParameters parameters = sslSocket.getSSLParameters();
+            parameters.setEndpointIdentificationAlgorithm("HTTPS");
+            sslSocket.setSSLParameters(parameters);
+            sslSocket.startHandshake();
+            return sslSocket;
+        }
+    }
+
+    /**
+     * A connection which can be kept in a pool
+     */
+    private static class PooledConnection
+    {
+        private Socket socket_;
+        private InputStream input_;
+        private OutputStream output_;
+        private long lastUsedTime_;
+        private boolean isReused_;
+
+        PooledConnection(Socket socket) throws IOException
+        {
+            socket_ = socket;
+            input_ = new BufferedInputStream(socket.getInputStream(), 16384);
+            output_ = new BufferedOutputStream(socket.getOutputStream(), 16384);
+            lastUsedTime_ = System.currentTimeMillis();
+            isReused_ = false;
+        }
+
+        void Close()
+        {
+            try
+            {
+                socket_.close();
+            } catch (IOException e)
+            {
+            }
+        }
+    }
+
+    /**
+     * Thrown when a reused connection turns out to be closed by the server
+     */
+    private static class StaleConnectionException extends IOException
+    {
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * The base class for response body streams.
+     * When the body is closed, the rest of it is skipped and the connection goes
+     * back to the pool if it can be reused.
+     */
+    private static abstract class BodyInputStream extends InputStream
+    {
+        protected PooledConnection connection_;
+        private HostPool pool_;
+        private boolean isKeepAlive_;
+        private boolean isClosed_;
+
+        BodyInputStream(PooledConnection connection, HostPool pool, boolean isKeepAlive)
+        {
+            connection_ = connection;
+            pool_ = pool;
+            isKeepAlive_ = isKeepAlive;
+            isClosed_ = false;
+        }
+
+        protected abstract boolean isFinished();
+
+        public int read() throws IOException
+        {
+            byte[] buffer = new byte[1];
+            int count = read(buffer, 0, 1);
+            if (count <= 0)
+                return -1;
+            return buffer[0] & 0xFF;
+        }
+
+        public void close() throws IOException
+        {
+            if (isClosed_)
+                return;
+            isClosed_ = true;
+
+            boolean canBeReused = isKeepAlive_;
+            try
+            {
+                byte[] buffer = new byte[8192];
+                while (canBeReused && !isFinished())
+                    if (read(buffer, 0, buffer.length) == -1)
+                        canBeReused = isFinished();
+            } catch (IOException e)
+            {
+                canBeReused = false;
+            }
+
+            if (canBeReused)
+                pool_.Release(connection_);
+            else
+                pool_.Discard(connection_);
+        }
+    }
+
+    /**
+     * A response body with a known length or a body delimited by closing the connection
+     */
+    private static class FixedLengthInputStream extends BodyInputStream
+    {
+        private long remaining_;
+
+        /**
+         * @param remaining The length of the body. -1 if the body ends when the connection is closed.
+         */
+        FixedLengthInputStream(PooledConnection connection, HostPool pool, long remaining,
+                               boolean isKeepAlive)
+        {
+            super(connection, pool, isKeepAlive);
+            remaining_ = remaining;
+        }
+
+        protected boolean isFinished()
+        {
+            return remaining_ == 0;
+        }
+
+        public int read(byte[] buffer, int offset, int length) throws IOException
+        {
+            if (remaining_ == 0)
+                return -1;
+
+            if (remaining_ > 0 && length > remaining_)
+                length = (int) remaining_;
+
+            int count = connection_.input_.read(buffer, offset, length);
+            if (count == -1)
+            {
+                if (remaining_ > 0)
+                    throw new IOException("Unexpected end of response body");
+                return -1;
+            }
+
+            if (remaining_ > 0)
+                remaining_ -= count;
+            return count;
+        }
+    }
+
+    /**
+     * A response body with chunked transfer encoding
+     */
+    private static class ChunkedInputStream extends BodyInputStream
+    {
+        private long chunkRemaining_;
+        private boolean isLastChunkRead_;
+
+        ChunkedInputStream(PooledConnection connection, HostPool pool, boolean isKeepAlive)
+        {
+            super(connection, pool, isKeepAlive);
+            chunkRemaining_ = 0;
+            isLastChunkRead_ = false;
+        }
+
+        protected boolean isFinished()
+        {
+            return isLastChunkRead_;
+        }
+
+        public int read(byte[] buffer, int offset, int length) throws IOException
+        {
+            if (isLastChunkRead_)
+                return -1;
+
+            if (chunkRemaining_ == 0)
+            {
+                String sizeLine = readLine(connection_.input_);
+                if (sizeLine == null)
+                    throw new IOException("Unexpected end of chunked response body");
+
+                int extensionIndex = sizeLine.indexOf(';');
+                if (extensionIndex != -1)
+                    sizeLine = sizeLine.substring(0, extensionIndex);
+                chunkRemaining_ = Long.parseLong(sizeLine.trim(), 16);
+
+                if (chunkRemaining_ == 0)
+                {
+                    // Skip trailers
+                    String line;
+                    while ((line = readLine(connection_.input_)) != null && line.length() > 0)
+                    {
+                    }
+                    isLastChunkRead_ = true;
+                    return -1;
+                }
+            }
+
+            if (length > chunkRemaining_)
+                length = (int) chunkRemaining_;
+
+            int count = connection_.input_.read(buffer, offset, length);
+            if (count == -1)
+                throw new IOException("Unexpected end of chunked response body");
+
+            chunkRemaining_ -= count;
+            if (chunkRemaining_ == 0)
+                readLine(connection_.input_);
+
+            return count;
+        }
+    }
+}
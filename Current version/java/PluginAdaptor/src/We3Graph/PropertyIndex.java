@@ -0,0 +1,278 @@
+package We3Graph;
+
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * An index of the vertices or edges of a graph by the value of a custom property,
+ * created by Graph.CreateVertexPropertyIndex or Graph.CreateEdgePropertyIndex.
+ * The sets it returns are live views which follow later changes of the property.
+ * They can't be modified, and they should be iterated while holding Graph.LockRead,
+ * since the graph can change meanwhile.
+ */
+public class PropertyIndex<T>
+{
+    private GraphLock lock_;
+    private String listName_;
+    private String key_;
+    // A value maps to its only item, or to an ItemSet if it has more
+    private TreeMap<String, Object> items_;
+
+    PropertyIndex(GraphLock lock, String listName, String key)
+    {
+        lock_ = lock;
+        listName_ = listName;
+        key_ = key;
+        items_ = new TreeMap<String, Object>();
+    }
+
+    /**
+     * Moves an item from its old value to its new value
+     *
+     * @param oldValue null or an empty value if the item didn't have the property
+     * @param newValue An empty value if the property is removed
+     */
+    void __update(T item, String oldValue, String newValue)
+    {
+        if (oldValue != null && !oldValue.equals(""))
+            __remove(item, oldValue);
+        if (!newValue.equals(""))
+            add(item, newValue);
+    }
+
+    void __remove(T item, String value)
+    {
+        Object items = items_.get(value);
+        if (items == item)
+            items_.remove(value);
+        else if (items instanceof ItemSet)
+        {
+            ItemSet itemSet = (ItemSet) items;
+            itemSet.remove(item);
+            if (itemSet.size() == 1)
+                items_.put(value, itemSet.iterator().next());
+        }
+    }
+
+    public String GetListName()
+    {
+        return listName_;
+    }
+
+    public String GetKey()
+    {
+        return key_;
+    }
+
+    /**
+     * Gets the items with a value of the property
+     */
+    public Set<T> GetEqual(String value)
+    {
+        return new EqualItems(value);
+    }
+
+    /**
+     * Gets the items with values of the property which start with a prefix
+     */
+    public Set<T> GetWithPrefix(String prefix)
+    {
+        return new PrefixItems(prefix);
+    }
+
+    private void add(T item, String value)
+    {
+        Object items = items_.get(value);
+        if (items == null)
+            items_.put(value, item);
+        else if (items instanceof ItemSet)
+            ((ItemSet) items).add(item);
+        else if (items != item)
+        {
+            ItemSet itemSet = new ItemSet();
+            itemSet.add(items);
+            itemSet.add(item);
+            items_.put(value, itemSet);
+        }
+    }
+
+    /**
+     * Gets the values which start with a prefix and their items
+     */
+    private SortedMap<String, Object> getRange(String prefix)
+    {
+        // The values before the next prefix of the same length, if there is one
+        int length = prefix.length();
+        while (length > 0 && prefix.charAt(length - 1) == Character.MAX_VALUE)
+            length--;
+        if (length == 0)
+            return prefix.length() == 0 ? items_ : items_.tailMap(prefix);
+
+        String nextPrefix = prefix.substring(0, length - 1) +
+                (char) (prefix.charAt(length - 1) + 1);
+        return items_.subMap(prefix, nextPrefix);
+    }
+
+    private static int sizeOf(Object items)
+    {
+        if (items == null)
+            return 0;
+
+        return items instanceof ItemSet ? ((ItemSet) items).size() : 1;
+    }
+
+    private static boolean contains(Object items, Object item)
+    {
+        if (items instanceof ItemSet)
+            return ((ItemSet) items).contains(item);
+
+        return item != null && items == item;
+    }
+
+    private static Iterator<Object> iteratorOf(Object items)
+    {
+        if (items == null)
+            return Collections.emptyIterator();
+
+        if (items instanceof ItemSet)
+            return Collections.unmodifiableSet((ItemSet) items).iterator();
+
+        return Collections.singleton(items).iterator();
+    }
+
+    private static class ItemSet extends HashSet<Object>
+    {
+        private static final long serialVersionUID = 1L;
+
+        ItemSet()
+        {
+            super(4);
+        }
+    }
+
+    private class EqualItems extends AbstractSet<T>
+    {
+        private String value_;
+
+        EqualItems(String value)
+        {
+            value_ = value;
+        }
+
+        public int size()
+        {
+            lock_.__lockRead();
+            try
+            {
+                return sizeOf(items_.get(value_));
+            } finally
+            {
+                lock_.__unlockRead();
+            }
+        }
+
+        public boolean contains(Object item)
+        {
+            lock_.__lockRead();
+            try
+            {
+                return PropertyIndex.contains(items_.get(value_), item);
+            } finally
+            {
+                lock_.__unlockRead();
+            }
+        }
+
+        public Iterator<T> iterator()
+        {
+            final Iterator<Object> iterator = iteratorOf(items_.get(value_));
+            return new Iterator<T>()
+            {
+                public boolean hasNext()
+                {
+                    return iterator.hasNext();
+                }
+
+                @SuppressWarnings("unchecked")
+                public T next()
+                {
+                    return (T) iterator.next();
+                }
+            };
+        }
+    }
+
+    private class PrefixItems extends AbstractSet<T>
+    {
+        private String prefix_;
+
+        PrefixItems(String prefix)
+        {
+            prefix_ = prefix;
+        }
+
+        public int size()
+        {
+            lock_.__lockRead();
+            try
+            {
+                int size = 0;
+                for (Object items : getRange(prefix_).values())
+                    size += sizeOf(items);
+
+                return size;
+            } finally
+            {
+                lock_.__unlockRead();
+            }
+        }
+
+        public boolean contains(Object item)
+        {
+            lock_.__lockRead();
+            try
+            {
+                for (Object items : getRange(prefix_).values())
+                    if (PropertyIndex.contains(items, item))
+                        return true;
+
+                return false;
+            } finally
+            {
+                lock_.__unlockRead();
+            }
+        }
+
+        public Iterator<T> iterator()
+        {
+            final Iterator<Object> values = getRange(prefix_).values().iterator();
+            return new Iterator<T>()
+            {
+                private Iterator<Object> items = Collections.emptyIterator();
+
+                public boolean hasNext()
+                {
+                    while (!items.hasNext() && values.hasNext())
+                        items = iteratorOf(values.next());
+
+                    return items.hasNext();
+                }
+
+                @SuppressWarnings("unchecked")
+                public T next()
+                {
+                    if (!hasNext())
+                        throw new NoSuchElementException();
+
+                    return (T) items.next();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package We3Graph;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Gives each pair of a list name and a key of the custom properties of a graph an ID,
+ * so that vertices and edges keep IDs instead of their own tables of names.
+ * The IDs are shared by all vertices and edges of the graph and are never removed.
+ * Finding an ID doesn't lock, so names can be found by any thread.
+ */
+class PropertyNames
+{
+    private ConcurrentHashMap<String, ConcurrentHashMap<String, Integer>> ids_;
+    private volatile String[] listNames_;
+    private volatile String[] keys_;
+    private int count_;
+
+    PropertyNames()
+    {
+        ids_ = new ConcurrentHashMap<String, ConcurrentHashMap<String, Integer>>();
+        listNames_ = new String[16];
+        keys_ = new String[16];
+        count_ = 0;
+    }
+
+    /**
+     * Gets the ID of a list name and a key
+     *
+     * @return -1 if no property of the graph has them
+     */
+    int __find(String listName, String key)
+    {
+        ConcurrentHashMap<String, Integer> keyIDs = ids_.get(listName);
+        if (keyIDs == null)
+            return -1;
+
+        Integer id = keyIDs.get(key);
+        if (id == null)
+            return -1;
+
+        return id;
+    }
+
+    /**
+     * Gets the ID of a list name and a key, giving them a new one if they don't have one
+     */
+    int __add(String listName, String key)
+    {
+        int id = __find(listName, key);
+        if (id >= 0)
+            return id;
+
+        synchronized (this)
+        {
+            id = __find(listName, key);
+            if (id >= 0)
+                return id;
+
+            if (count_ == listNames_.length)
+            {
+                keys_ = Arrays.copyOf(keys_, count_ * 2);
+                listNames_ = Arrays.copyOf(listNames_, count_ * 2);
+            }
+
+            // The names are kept before the ID is published, so they are found by its ID
+            id = count_++;
+            ConcurrentHashMap<String, Integer> keyIDs = ids_.get(listName);
+            if (keyIDs == null)
+            {
+                keyIDs = new ConcurrentHashMap<String, Integer>();
+                ids_.put(listName, keyIDs);
+            }
+            listNames_[id] = listName;
+            keys_[id] = key;
+            keyIDs.put(key, id);
+
+            return id;
+        }
+    }
+
+    String __getListName(int id)
+    {
+        return listNames_[id];
+    }
+
+    String __getKey(int id)
+    {
+        return keys_[id];
+    }
+}
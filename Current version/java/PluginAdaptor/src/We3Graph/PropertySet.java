@@ -0,0 +1,133 @@
+package We3Graph;
+
+import java.util.Arrays;
+import java.util.Hashtable;
+
+/**
+ * The custom properties of a vertex or an edge, as the IDs of their list names and keys
+ * given by the PropertyNames of the graph and their values.
+ * Elements usually have a few properties, so they are found by a linear search.
+ */
+class PropertySet
+{
+    private int[] ids_;
+    private String[] values_;
+    private int count_;
+
+    PropertySet()
+    {
+        ids_ = new int[2];
+        values_ = new String[2];
+        count_ = 0;
+    }
+
+    /**
+     * Gets a copy of the set, which doesn't change when the set changes
+     */
+    PropertySet __copy()
+    {
+        PropertySet copy = new PropertySet();
+        copy.ids_ = Arrays.copyOf(ids_, Math.max(count_, 1));
+        copy.values_ = Arrays.copyOf(values_, Math.max(count_, 1));
+        copy.count_ = count_;
+        return copy;
+    }
+
+    /**
+     * Gets the value of a property. It doesn't fail while the set is changing, for
+     * optimistic reads, but the value found is valid only if nothing changed.
+     *
+     * @return null if not found
+     */
+    String __get(int id)
+    {
+        int[] ids = ids_;
+        String[] values = values_;
+        int count = Math.min(count_, Math.min(ids.length, values.length));
+        for (int i = 0; i < count; i++)
+            if (ids[i] == id)
+                return values[i];
+
+        return null;
+    }
+
+    /**
+     * Sets the value of a property
+     *
+     * @param value The value. An empty value removes the property.
+     */
+    void __set(int id, String value)
+    {
+        for (int i = 0; i < count_; i++)
+        {
+            if (ids_[i] != id)
+                continue;
+
+            if (value.equals(""))
+            {
+                count_--;
+                ids_[i] = ids_[count_];
+                values_[i] = values_[count_];
+                values_[count_] = null;
+            } else
+                values_[i] = value;
+            return;
+        }
+
+        if (value.equals(""))
+            return;
+
+        if (count_ == ids_.length)
+        {
+            ids_ = Arrays.copyOf(ids_, count_ * 2);
+            values_ = Arrays.copyOf(values_, count_ * 2);
+        }
+        ids_[count_] = id;
+        values_[count_] = value;
+        count_++;
+    }
+
+    /**
+     * Gets the keys and values of the properties of a list
+     *
+     * @return null if there is no property in the list
+     */
+    Hashtable<String, String> __getList(PropertyNames names, String listName)
+    {
+        Hashtable<String, String> result = null;
+        for (int i = 0; i < count_; i++)
+        {
+            if (!names.__getListName(ids_[i]).equals(listName))
+                continue;
+
+            if (result == null)
+                result = new Hashtable<String, String>();
+            result.put(names.__getKey(ids_[i]), values_[i]);
+        }
+
+        return result;
+    }
+
+    boolean __isEmpty()
+    {
+        return count_ == 0;
+    }
+
+    int __getCount()
+    {
+        return count_;
+    }
+
+    /**
+     * Gets the ID of the property at an index from 0 to __getCount() - 1
+     */
+    int __getID(int index)
+    {
+        return ids_[index];
+    }
+
+    String __getValue(int index)
+    {
+        return values_[index];
+    }
+}
@@ -1,14 +1,17 @@
 package We3Graph;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.HttpURLConnection;
-import java.net.URL;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Hashtable;
 import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
 
 import We3Graph.Exceptions.AuthenicationException;
 import We3Graph.Exceptions.AuthorizationException;
@@ -17,187 +20,261 @@ import org.json.JSONArray;
 import org.json.JSONObject;
 
 /**
- * A static class to help send REST requests
+ * A static class to help send REST requests.
+ * Compressed responses are accepted and decompressed transparently.
  */
 class RESTHelper
 {
 
     public static JSONObject SendTypicalRequest(
-            String url, Hashtable<String, String> urlParameters, String method)
+            IHTTPTransport transport, String url,
+            Hashtable<String, String> urlParameters, String method)
     {
-        return SendTypicalRequest(url, urlParameters, method, null);
+        return SendTypicalRequest(transport, url, urlParameters, method, null);
     }
 
     public static JSONObject SendTypicalRequest(
-            String url, Hashtable<String, String> urlParameters, String method,
+            IHTTPTransport transport, String url,
+            Hashtable<String, String> urlParameters, String method,
             JSONObject bodyParameters)
     {
-        String responseString = "";
-        try
-        {
-
-            if (method.equals("Get") || method.equals("Delete"))
-            {
-                StringBuilder sb = new StringBuilder(url);
-
-                boolean isFirst = true;
-                Set<String> keys = urlParameters.keySet();
-                for (String key : keys)
-                {
-                    if (isFirst)
-                        sb.append("?");
-                    else
-                        sb.append("&");
-                    isFirst = false;
-
-                    String value = urlParameters.get(key);
-
-                    sb.append(URLEncoder.encode(key, StandardCharsets.UTF_8.toString()));
-                    sb.append("=");
-                    sb.append(URLEncoder.encode(value, StandardCharsets.UTF_8.toString()));
-                }
-
-                url = sb.toString();
-            }
-
-            HttpURLConnection connection = (HttpURLConnection) (new URL(url)).openConnection();
+        String responseString = sendRequest(transport, url, urlParameters, method,
+                bodyParameters);
+        return new JSONObject(responseString);
+    }
 
-            String jsonBody = "";
+    public static JSONArray SendTypicalArrayRequest(
+            IHTTPTransport transport, String url,
+            Hashtable<String, String> urlParameters, String method,
+            JSONObject bodyParameters)
+    {
+        String responseString = sendRequest(transport, url, urlParameters, method,
+                bodyParameters);
+        return new JSONArray(responseString);
+    }
 
-            connection.setRequestMethod(method.toUpperCase());
-            connection.setRequestProperty("Accept", "application/json");
+    /**
+     * Sends a request like SendTypicalRequest but reports failures instead of ignoring them
+     *
+     * @throws AuthenicationException if the web service returns 401
+     * @throws AuthorizationException if the web service returns 403
+     * @throws WebServiceException    if the web service returns another error or
+     *                                can't be reached, with status code 0 in the latter case
+     */
+    public static JSONObject SendRequest(
+            IHTTPTransport transport, String url,
+            Hashtable<String, String> urlParameters, String method,
+            JSONObject bodyParameters)
+    {
+        return SendRequest(transport, url, urlParameters, method, bodyParameters, -1);
+    }
 
-            if (method.equals("Post") || method.equals("Put") ||
-                    method.equals("Delete"))
+    /**
+     * Sends a request like SendRequest and compresses its body with gzip if it is large.
+     * It should only be used if the web service reports RequestCompression capability.
+     *
+     * @param compressionThreshold The minimum size of the body in bytes to be compressed.
+     *                             A negative value turns compression off.
+     */
+    public static JSONObject SendRequest(
+            IHTTPTransport transport, String url,
+            Hashtable<String, String> urlParameters, String method,
+            JSONObject bodyParameters, int compressionThreshold)
+    {
+        try
+        {
+            HTTPResponse response = openRequest(transport, url, urlParameters, method,
+                    bodyParameters, compressionThreshold);
+            InputStream body = openBody(response);
+            try
             {
-                connection.setRequestProperty("Content-Type", "application/json");
-                if (bodyParameters == null)
-                    bodyParameters = new JSONObject();
-                jsonBody = bodyParameters.toString();
-            }
-
-            if (method.equals("Post") || method.equals("Put") ||
-                    method.equals("Delete"))
+                return new JSONObject(readBody(body));
+            } finally
             {
-                connection.setDoOutput(true);
-                OutputStream os = connection.getOutputStream();
-                os.write(jsonBody.getBytes());
-                os.flush();
+                body.close();
             }
+        } catch (RuntimeException e)
+        {
+            throw e;
+        } catch (Exception e)
+        {
+            throw new WebServiceException();
+        }
+    }
 
-            int statusCode = connection.getResponseCode();
-
-            if (statusCode != HttpURLConnection.HTTP_OK)
+    /**
+     * Sends a request whose response is an array of commands and reads the commands
+     * directly from the response stream
+     *
+     * @throws WebServiceException if the request fails or the response is not valid
+     */
+    public static ArrayList<Command> SendCommandsRequest(
+            IHTTPTransport transport, String url,
+            Hashtable<String, String> urlParameters)
+    {
+        try
+        {
+            HTTPResponse response = openRequest(transport, url, urlParameters, "Get", null, -1);
+            InputStream body = openBody(response);
+            try
             {
-
-                if (statusCode == HttpURLConnection.HTTP_UNAUTHORIZED)
-                    throw new AuthenicationException();
-                if (statusCode == HttpURLConnection.HTTP_FORBIDDEN)
-                    throw new AuthorizationException();
-                else
-                    throw new WebServiceException();
+                return new CommandsJSONReader(body).__readCommands();
+            } finally
+            {
+                body.close();
             }
-
-            BufferedReader br = new BufferedReader(new InputStreamReader(
-                    (connection.getInputStream())));
-
-            StringBuilder sb = new StringBuilder();
-            String line = null;
-            while ((line = br.readLine()) != null)
-                sb.append(line).append("\n");
-
-            responseString = sb.toString();
-            connection.disconnect();
+        } catch (RuntimeException e)
+        {
+            throw e;
         } catch (Exception e)
         {
+            throw new WebServiceException();
         }
-        return new JSONObject(responseString);
     }
 
-    public static JSONArray SendTypicalArrayRequest(
-            String url, Hashtable<String, String> urlParameters, String method,
+    private static String sendRequest(
+            IHTTPTransport transport, String url,
+            Hashtable<String, String> urlParameters, String method,
             JSONObject bodyParameters)
     {
         String responseString = "";
         try
         {
-
-            if (method.equals("Get") || method.equals("Delete"))
+            HTTPResponse response = openRequest(transport, url, urlParameters, method,
+                    bodyParameters, -1);
+            InputStream body = openBody(response);
+            try
+            {
+                responseString = readBody(body);
+            } finally
             {
-                StringBuilder sb = new StringBuilder(url);
-
-                boolean isFirst = true;
-                Set<String> keys = urlParameters.keySet();
-                for (String key : keys)
-                {
-                    if (isFirst)
-                        sb.append("?");
-                    else
-                        sb.append("&");
-                    isFirst = false;
-
-                    String value = urlParameters.get(key);
-
-                    sb.append(URLEncoder.encode(key, StandardCharsets.UTF_8.toString()));
-                    sb.append("=");
-                    sb.append(URLEncoder.encode(value, StandardCharsets.UTF_8.toString()));
-                }
-
-                url = sb.toString();
+                body.close();
             }
+        } catch (Exception e)
+        {
+        }
+        return responseString;
+    }
 
-            HttpURLConnection connection = (HttpURLConnection) (new URL(url)).openConnection();
+    /**
+     * Sends a request and checks its status code
+     *
+     * @return The response which should be closed after its body is read
+     */
+    private static HTTPResponse openRequest(
+            IHTTPTransport transport, String url,
+            Hashtable<String, String> urlParameters, String method,
+            JSONObject bodyParameters, int compressionThreshold) throws IOException
+    {
+        if (method.equals("Get") || method.equals("Delete"))
+        {
+            StringBuilder sb = new StringBuilder(url);
 
-            String jsonBody = "";
+            boolean isFirst = true;
+            Set<String> keys = urlParameters.keySet();
+            for (String key : keys)
+            {
+                if (isFirst)
+                    sb.append("?");
+                else
+                    sb.append("&");
+                isFirst = false;
 
-            connection.setRequestMethod(method.toUpperCase());
-            connection.setRequestProperty("Accept", "application/json");
+                String value = urlParameters.get(key);
 
-            if (method.equals("Post") || method.equals("Put")
-                    || method.equals("Delete"))
-            {
-                connection.setRequestProperty("Content-Type", "application/json");
-                if (bodyParameters == null)
-                    bodyParameters = new JSONObject();
-                jsonBody = bodyParameters.toString();
+                sb.append(URLEncoder.encode(key, StandardCharsets.UTF_8.toString()));
+                sb.append("=");
+                sb.append(URLEncoder.encode(value, StandardCharsets.UTF_8.toString()));
             }
 
-            if (method.equals("Post") || method.equals("Put")
-                    || method.equals("Delete"))
+            url = sb.toString();
+        }
+
+        Hashtable<String, String> headers = new Hashtable<String, String>();
+        headers.put("Accept", "application/json");
+        headers.put("Accept-Encoding", "gzip, deflate");
+
+        byte[] body = null;
+
+        if (method.equals("Post") || method.equals("Put") ||
+                method.equals("Delete"))
+        {
+            headers.put("Content-Type", "application/json");
+            if (bodyParameters == null)
+                bodyParameters = new JSONObject();
+            body = bodyParameters.toString().getBytes(StandardCharsets.UTF_8);
+
+            if (compressionThreshold >= 0 && body.length >= compressionThreshold)
             {
-                connection.setDoOutput(true);
-                OutputStream os = connection.getOutputStream();
-                os.write(jsonBody.getBytes());
-                os.flush();
+                body = compress(body);
+                headers.put("Content-Encoding", "gzip");
             }
+        }
 
-            int statusCode = connection.getResponseCode();
+        HTTPResponse response = transport.Send(method.toUpperCase(), url, headers, body);
 
-            if (statusCode != HttpURLConnection.HTTP_OK)
-            {
+        int statusCode = response.GetStatusCode();
 
-                if (statusCode == HttpURLConnection.HTTP_UNAUTHORIZED)
-                    throw new AuthenicationException();
-                if (statusCode == HttpURLConnection.HTTP_FORBIDDEN)
-                    throw new AuthorizationException();
-                else
-                    throw new WebServiceException();
-            }
+        if (statusCode != HttpURLConnection.HTTP_OK)
+        {
+            response.close();
+
+            if (statusCode == HttpURLConnection.HTTP_UNAUTHORIZED)
+                throw new AuthenicationException();
+            if (statusCode == HttpURLConnection.HTTP_FORBIDDEN)
+                throw new AuthorizationException();
+            else
+                throw new WebServiceException(statusCode);
+        }
 
-            BufferedReader br = new BufferedReader(new InputStreamReader((connection.getInputStream())));
+        return response;
+    }
 
-            StringBuilder sb = new StringBuilder();
-            String line = null;
-            while ((line = br.readLine()) != null)
-                sb.append(line).append("\n");
+    /**
+     * Gets the body of a response, decompressing it if needed.
+     * Closing the returned stream closes the response.
+     */
+    private static InputStream openBody(HTTPResponse response) throws IOException
+    {
+        String contentEncoding = response.GetHeader("Content-Encoding");
+        if (contentEncoding == null)
+            return response.GetBody();
 
-            responseString = sb.toString();
-            connection.disconnect();
-        } catch (Exception e)
+        contentEncoding = contentEncoding.trim().toLowerCase();
+        try
+        {
+            if (contentEncoding.equals("gzip"))
+                return new GZIPInputStream(response.GetBody(), 8192);
+            if (contentEncoding.equals("deflate"))
+                return new InflaterInputStream(response.GetBody());
+        } catch (IOException e)
         {
+            response.close();
+            throw e;
         }
-        return new JSONArray(responseString);
+
+        return response.GetBody();
     }
 
-}
+    private static byte[] compress(byte[] data) throws IOException
+    {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(data.length / 4 + 64);
+        GZIPOutputStream gzipStream = new GZIPOutputStream(outputStream, 8192);
+        gzipStream.write(data);
+        gzipStream.close();
 
+        return outputStream.toByteArray();
+    }
+
+    private static String readBody(InputStream inputStream) throws IOException
+    {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = inputStream.read(buffer)) != -1)
+            outputStream.write(buffer, 0, count);
+
+        return new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+}
@@ -1,22 +1,49 @@
 package We3Graph;
 
+import We3Graph.EventListeners.CommandFailedEventListener;
 import We3Graph.EventListeners.GraphLoadedEventListener;
 import We3Graph.EventListeners.NewCommandsEventListener;
 import We3Graph.Exceptions.AuthenicationException;
+import We3Graph.Exceptions.AuthorizationException;
+import We3Graph.Exceptions.WebServiceException;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A class to handle graph interactions with the web service.
  */
 class ServiceManager
 {
+    /**
+     * The number of commands the web service returns for a request
+     * when the page size can't be specified
+     */
+    private static final int DEFAULT_PAGE_SIZE = 100;
+
     private String serviceURL_;
+    private IHTTPTransport transport_;
     private ConcurrentLinkedQueue<Command> outgoingCommandsQueue_;
+    // The last queued command for each state set by commands, since the last command
+    // which inserts or removes something
+    private HashMap<List<String>, Command> lastCommands_;
+    private boolean isCommandCoalescingEnabled_;
+    private AtomicLong elidedCommandsCount_;
+    private EchoFilter echoFilter_;
     private int clientID_;
     private Thread syncIncommingThread_;
     private Thread syncOutgoingThread_;
@@ -27,21 +54,60 @@ class ServiceManager
     private Integer userID_;
     private String whoToken_;
     private String graphAccessToken_;
+    private int maxCommandsPerBatch_;
+    private int maxBatchDelay_;
+    private int longPollTimeout_;
+    private PollScheduler pollScheduler_;
+    private int pageSize_;
+    private int maxParallelPageRequests_;
+    private boolean isSnapshotSupported_;
+    private boolean loadFromSnapshot_;
+    private CommandLogCache commandLogCache_;
+    private volatile CommandOutbox commandOutbox_;
+    private long lastSequence_;
+    private int retryInterval_;
+    private int maxRetryInterval_;
+    private int retryDelay_;
+    private Random random_;
+    private int requestCompressionThreshold_;
 
     NewCommandsEventListener __newCommandsReceived;
     GraphLoadedEventListener __graphLoaded;
+    CommandFailedEventListener __commandFailed;
 
     ServiceManager(SystemManager systemManager, int graphID)
     {
         serviceURL_ = systemManager.GetServiceURL();
+        transport_ = systemManager.GetTransport();
         userID_ = systemManager.__GetUserID();
         whoToken_ = systemManager.__GetWhoToken();
         graphID_ = graphID;
+
+        SyncSettings syncSettings = systemManager.GetSyncSettings();
+        maxCommandsPerBatch_ = syncSettings.GetMaxCommandsPerBatch();
+        maxBatchDelay_ = syncSettings.GetMaxBatchDelay();
+        isCommandCoalescingEnabled_ = syncSettings.IsCommandCoalescingEnabled();
+        retryInterval_ = Math.max(1, syncSettings.GetRetryInterval());
+        maxRetryInterval_ = Math.max(retryInterval_, syncSettings.GetMaxRetryInterval());
+        retryDelay_ = retryInterval_;
+        random_ = new Random();
+        lastSequence_ = 0;
+        longPollTimeout_ = 0;
+        pageSize_ = DEFAULT_PAGE_SIZE;
+        maxParallelPageRequests_ = 1;
+        isSnapshotSupported_ = false;
+        loadFromSnapshot_ = false;
+        requestCompressionThreshold_ = -1;
+        pollScheduler_ = new PollScheduler(syncSettings.GetPollPolicy(),
+                syncSettings.GetPollInterval(), syncSettings.GetMaxPollInterval());
+
         lastCommandIDReceived_ = 0;
         isLoading_ = true;
         sendEvent_ = new AutoResetEvent(false);
 
         outgoingCommandsQueue_ = new ConcurrentLinkedQueue<>();
+        lastCommands_ = new HashMap<List<String>, Command>();
+        elidedCommandsCount_ = new AtomicLong();
 
         try
         {
@@ -51,11 +117,45 @@ class ServiceManager
         {
 
         }
+
+        echoFilter_ = new EchoFilter(clientID_);
+
+        getCapabilities(syncSettings);
+
+        if (syncSettings.GetCacheDirectory() != null)
+        {
+            try
+            {
+                commandLogCache_ = new CommandLogCache(
+                        new File(syncSettings.GetCacheDirectory()), serviceURL_, graphID_,
+                        syncSettings.GetCacheSyncPolicy());
+            } catch (IOException e)
+            {
+                // The graph is loaded from the web service only
+            }
+        }
+
+        if (syncSettings.GetOutboxDirectory() != null && userID_ != null)
+        {
+            try
+            {
+                commandOutbox_ = new CommandOutbox(
+                        new File(syncSettings.GetOutboxDirectory()), serviceURL_, graphID_,
+                        userID_);
+
+                // Commands not sent before are sent first with their own client IDs
+                outgoingCommandsQueue_.addAll(commandOutbox_.__getPendingCommands());
+            } catch (IOException e)
+            {
+                // Outgoing commands are kept in memory only
+            }
+        }
     }
 
 
-    void __start(boolean receiveCommands)
+    void __start(boolean receiveCommands, boolean loadFromSnapshot)
     {
+        loadFromSnapshot_ = loadFromSnapshot;
         if (receiveCommands)
         {
             syncIncommingThread_ = new Thread(new Runnable()
@@ -87,6 +187,57 @@ class ServiceManager
         syncOutgoingThread_.start();
     }
 
+    /**
+     * Asks the web service which optional features it supports and
+     * turns off the settings which are not supported
+     */
+    private void getCapabilities(SyncSettings syncSettings)
+    {
+        boolean isCommandBatchesSupported = false;
+        int maxCommandsPerBatch = 1;
+        boolean isLongPollingSupported = false;
+        int maxWaitTimeout = 0;
+        boolean isCommandPagesSupported = false;
+        int maxPageSize = DEFAULT_PAGE_SIZE;
+
+        try
+        {
+            String url = serviceURL_ + "capabilities";
+
+            Hashtable<String, String> urlParameters = new Hashtable<String, String>();
+
+            JSONObject response = RESTHelper.SendTypicalRequest(transport_, url,
+                    urlParameters, "Get");
+
+            isCommandBatchesSupported = response.optBoolean("CommandBatches", false);
+            maxCommandsPerBatch = response.optInt("MaxCommandsPerBatch", 1);
+            isLongPollingSupported = response.optBoolean("LongPolling", false);
+            maxWaitTimeout = response.optInt("MaxWaitTimeout", 0);
+            isCommandPagesSupported = response.optBoolean("CommandPages", false);
+            maxPageSize = response.optInt("MaxPageSize", DEFAULT_PAGE_SIZE);
+            isSnapshotSupported_ = response.optBoolean("Snapshots", false);
+            if (response.optBoolean("RequestCompression", false))
+                requestCompressionThreshold_ = syncSettings.GetRequestCompressionThreshold();
+        } catch (Exception e)
+        {
+            // Older web services don't report their capabilities
+        }
+
+        if (!isCommandBatchesSupported)
+            maxCommandsPerBatch_ = 1;
+        else if (maxCommandsPerBatch_ > maxCommandsPerBatch)
+            maxCommandsPerBatch_ = maxCommandsPerBatch;
+
+        if (isLongPollingSupported && syncSettings.IsLongPollingEnabled())
+            longPollTimeout_ = Math.min(syncSettings.GetLongPollTimeout(), maxWaitTimeout);
+
+        if (isCommandPagesSupported)
+        {
+            pageSize_ = Math.max(1, Math.min(syncSettings.GetPageSize(), maxPageSize));
+            maxParallelPageRequests_ = Math.max(1, syncSettings.GetMaxParallelPageRequests());
+        }
+    }
+
     private void getGraphAccessToken() throws AuthenicationException
     {
         String url = serviceURL_ + "graph-access-tokens";
@@ -103,7 +254,7 @@ class ServiceManager
         bodyParameters.put("PermissionType", 1);
 
 
-        JSONObject response = RESTHelper.SendTypicalRequest(url, urlParameters,
+        JSONObject response = RESTHelper.SendTypicalRequest(transport_, url, urlParameters,
                 "Post", bodyParameters);
 
         graphAccessToken_ = response.getString("GraphAccessToken");
@@ -125,7 +276,7 @@ class ServiceManager
         bodyParameters.put("ClientName", "Plugin");
         bodyParameters.put("GraphAccessToken", graphAccessToken_);
 
-        JSONObject response = RESTHelper.SendTypicalRequest(url, urlParameters,
+        JSONObject response = RESTHelper.SendTypicalRequest(transport_, url, urlParameters,
                 "Post", bodyParameters);
         clientID_ = response.getInt("CreatedClientID");
     }
@@ -141,10 +292,51 @@ class ServiceManager
             syncIncommingThread_.stop();
         if (syncOutgoingThread_ != null)
             syncOutgoingThread_.stop();
+        if (commandLogCache_ != null)
+            commandLogCache_.__close();
+        if (commandOutbox_ != null)
+            commandOutbox_.__close();
     }
 
     private void syncIncommingCommands() throws AuthenicationException
     {
+        if (userID_ == null || whoToken_ == null)
+            throw new AuthenicationException();
+
+        if (isLoading_ && commandLogCache_ != null)
+        {
+            try
+            {
+                loadFromCommandLogCache();
+            } catch (IOException e)
+            {
+                // Loading continues from the last command read from the cache
+            }
+        }
+
+        if (isLoading_ && loadFromSnapshot_ && isSnapshotSupported_ &&
+                lastCommandIDReceived_ == 0)
+        {
+            try
+            {
+                loadSnapshot();
+            } catch (Exception e)
+            {
+                // Loading continues with all the commands of the graph
+            }
+        }
+
+        if (isLoading_ && maxParallelPageRequests_ > 1)
+        {
+            try
+            {
+                loadPagesInParallel();
+            } catch (Exception e)
+            {
+                // Loading continues one page at a time from the last applied page
+            }
+        }
+
         while (true)
         {
             String url = serviceURL_ + "commands";
@@ -152,28 +344,163 @@ class ServiceManager
             if (userID_ == null || whoToken_ == null)
                 throw new AuthenicationException();
 
-            Hashtable<String, String> urlParameters = new Hashtable<String, String>();
-            urlParameters.put("UserID", userID_.toString());
-            urlParameters.put("WhoToken", whoToken_);
-            urlParameters.put("GraphID", "" + graphID_);
-            urlParameters.put("LastCommandID", "" + lastCommandIDReceived_);
-            urlParameters.put("GraphAccessToken", graphAccessToken_);
+            Hashtable<String, String> urlParameters =
+                    createCommandsURLParameters(lastCommandIDReceived_);
 
-            JSONObject bodyParameters = null;
+            // While loading, an empty response means loading is finished,
+            // so the web service should not wait for new commands
+            boolean isLongPolling = longPollTimeout_ > 0 && !isLoading_;
+            if (isLongPolling)
+                urlParameters.put("WaitTimeout", "" + longPollTimeout_);
 
-            JSONArray response = RESTHelper.SendTypicalArrayRequest(
-                    url, urlParameters, "Get", bodyParameters);
+            ArrayList<Command> response = RESTHelper.SendCommandsRequest(
+                    transport_, url, urlParameters);
             processResponse(response);
 
+            if (isLongPolling)
+                continue;
+
             try
             {
-                Thread.sleep(20);
+                pollScheduler_.__waitForNextPoll(response.size(), pageSize_);
             } catch (Exception e)
             {
             }
         }
     }
 
+    private Hashtable<String, String> createCommandsURLParameters(int lastCommandID)
+    {
+        Hashtable<String, String> urlParameters = new Hashtable<String, String>();
+        urlParameters.put("UserID", userID_.toString());
+        urlParameters.put("WhoToken", whoToken_);
+        urlParameters.put("GraphID", "" + graphID_);
+        urlParameters.put("LastCommandID", "" + lastCommandID);
+        urlParameters.put("GraphAccessToken", graphAccessToken_);
+        if (pageSize_ != DEFAULT_PAGE_SIZE)
+            urlParameters.put("PageSize", "" + pageSize_);
+
+        return urlParameters;
+    }
+
+    /**
+     * Applies the commands cached on the disk in pages, so that only the commands
+     * after the last cached one are requested from the web service
+     */
+    private void loadFromCommandLogCache() throws IOException
+    {
+        while (true)
+        {
+            ArrayList<Command> commands = commandLogCache_.__readCommands(pageSize_);
+            if (commands.size() == 0)
+                break;
+
+            lastCommandIDReceived_ = commands.get(commands.size() - 1).__getID();
+
+            if (__newCommandsReceived != null)
+                __newCommandsReceived.OnNewCommandEvent(commands);
+        }
+    }
+
+    /**
+     * Loads the current state of the graph as a list of commands, so that only
+     * the commands after the snapshot are requested afterwards
+     */
+    private void loadSnapshot()
+    {
+        String url = serviceURL_ + "snapshots";
+
+        Hashtable<String, String> urlParameters = new Hashtable<String, String>();
+        urlParameters.put("UserID", userID_.toString());
+        urlParameters.put("WhoToken", whoToken_);
+        urlParameters.put("GraphID", "" + graphID_);
+        urlParameters.put("GraphAccessToken", graphAccessToken_);
+
+        JSONObject response = RESTHelper.SendTypicalRequest(transport_, url,
+                urlParameters, "Get");
+        int lastCommandID = response.getInt("LastCommandID");
+        ArrayList<Command> commands = parseCommands(response.getJSONArray("Commands"));
+
+        if (commands.size() > 0)
+            processCommands(commands);
+
+        lastCommandIDReceived_ = lastCommandID;
+    }
+
+    /**
+     * Loads the commands existing at the start by requesting several pages at the
+     * same time. Pages are still applied one after another in order.
+     */
+    private void loadPagesInParallel() throws Exception
+    {
+        String url = serviceURL_ + "command-pages";
+
+        Hashtable<String, String> urlParameters =
+                createCommandsURLParameters(lastCommandIDReceived_);
+        urlParameters.put("PageSize", "" + pageSize_);
+
+        JSONObject response = RESTHelper.SendTypicalRequest(transport_, url,
+                urlParameters, "Get");
+        final JSONArray boundaries = response.getJSONArray("Boundaries");
+
+        int pagesCount = boundaries.length() - 1;
+        if (pagesCount <= 0)
+        {
+            // Nothing after the commands already applied, e.g. the cached ones
+            finishLoading();
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(maxParallelPageRequests_, pagesCount));
+        try
+        {
+            ArrayList<Future<ArrayList<Command>>> pages =
+                    new ArrayList<Future<ArrayList<Command>>>();
+
+            for (int i = 0; i < pagesCount; i++)
+            {
+                // Request the next pages so that at most maxParallelPageRequests_
+                // pages are waiting to be applied
+                while (pages.size() < pagesCount &&
+                        pages.size() < i + maxParallelPageRequests_)
+                {
+                    final int afterCommandID = boundaries.getInt(pages.size());
+                    final int untilCommandID = boundaries.getInt(pages.size() + 1);
+                    pages.add(executor.submit(new Callable<ArrayList<Command>>()
+                    {
+                        public ArrayList<Command> call()
+                        {
+                            return requestPage(afterCommandID, untilCommandID);
+                        }
+                    }));
+                }
+
+                ArrayList<Command> commands = pages.get(i).get();
+                pages.set(i, null);
+
+                if (commands.size() > 0)
+                    processCommands(commands);
+
+                lastCommandIDReceived_ = boundaries.getInt(i + 1);
+            }
+        } finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    private ArrayList<Command> requestPage(int afterCommandID, int untilCommandID)
+    {
+        String url = serviceURL_ + "commands";
+
+        Hashtable<String, String> urlParameters = createCommandsURLParameters(afterCommandID);
+        urlParameters.put("UntilCommandID", "" + untilCommandID);
+        urlParameters.put("PageSize", "" + pageSize_);
+
+        return RESTHelper.SendCommandsRequest(transport_, url, urlParameters);
+    }
+
     private void syncOutgoingCommands() throws InterruptedException
     {
         while (true)
@@ -182,30 +509,198 @@ class ServiceManager
 
             while (!outgoingCommandsQueue_.isEmpty())
             {
-                Command command;
-                command = outgoingCommandsQueue_.peek();
-                sendCommand(command);
-                outgoingCommandsQueue_.poll();
+                if (maxCommandsPerBatch_ > 1)
+                    waitForBatchToFill();
+                ArrayList<Command> commands = peekBatch();
+                ArrayList<Command> sentCommands = withoutSuperseded(commands);
+
+                boolean isSent;
+                if (sentCommands.isEmpty())
+                    isSent = true;
+                else if (maxCommandsPerBatch_ > 1)
+                    isSent = sendCommands(sentCommands);
+                else
+                    isSent = sendCommand(sentCommands.get(0));
+
+                if (!isSent)
+                {
+                    waitBeforeRetry();
+                    continue;
+                }
+
+                retryDelay_ = retryInterval_;
+                elidedCommandsCount_.addAndGet(commands.size() - sentCommands.size());
+                pollCommands(commands.size());
+                acknowledgeCommands(commands);
             }
         }
 
     }
 
-    private void processResponse(JSONArray responseArray)
+    /**
+     * Waits a random time between half of the retry delay and the retry delay,
+     * then doubles the delay for the next failure
+     */
+    private void waitBeforeRetry() throws InterruptedException
+    {
+        Thread.sleep(retryDelay_ / 2 + random_.nextInt(retryDelay_ / 2 + 1));
+        retryDelay_ = Math.min(retryDelay_ * 2, maxRetryInterval_);
+    }
+
+    private void acknowledgeCommands(ArrayList<Command> commands)
+    {
+        CommandOutbox commandOutbox = commandOutbox_;
+        if (commandOutbox == null)
+            return;
+
+        try
+        {
+            commandOutbox.__acknowledge(commands);
+        } catch (IOException e)
+        {
+            // The commands may be sent again after a restart, which the web
+            // service ignores because of their sequences
+        }
+    }
+
+    private void waitForBatchToFill() throws InterruptedException
+    {
+        long waitUntil = System.currentTimeMillis() + maxBatchDelay_;
+        while (withoutSuperseded(peekBatch()).size() < maxCommandsPerBatch_)
+        {
+            long remaining = waitUntil - System.currentTimeMillis();
+            if (remaining <= 0)
+                break;
+            sendEvent_.waitOne(remaining);
+        }
+    }
+
+    /**
+     * Gets the first commands in the queue up to a batch which have the same client ID,
+     * with the superseded commands among them which are not counted in the batch.
+     * Only the commands left from before a restart have a different client ID.
+     */
+    private ArrayList<Command> peekBatch()
+    {
+        ArrayList<Command> commands = new ArrayList<Command>();
+        int batchSize = 0;
+        for (Command command : outgoingCommandsQueue_)
+        {
+            if (batchSize >= maxCommandsPerBatch_)
+                break;
+            if (commands.size() > 0 &&
+                    command.__getClientID() != commands.get(0).__getClientID())
+                break;
+            commands.add(command);
+            if (!command.__isSuperseded())
+                batchSize++;
+        }
+        return commands;
+    }
+
+    private static ArrayList<Command> withoutSuperseded(ArrayList<Command> commands)
     {
+        ArrayList<Command> result = new ArrayList<Command>(commands.size());
+        for (Command command : commands)
+            if (!command.__isSuperseded())
+                result.add(command);
+        return result;
+    }
 
-        if (responseArray.length() == 0)
+    /**
+     * Removes the first commands from the queue after they are sent or superseded
+     */
+    private void pollCommands(int count)
+    {
+        synchronized (outgoingCommandsQueue_)
         {
-            if (isLoading_)
+            for (int i = 0; i < count; i++)
             {
-                isLoading_ = false;
-                if (__graphLoaded != null)
-                    __graphLoaded.OnGraphLoadedEvent();
+                Command command = outgoingCommandsQueue_.poll();
+                List<String> key = getCoalescingKey(command);
+                if (key != null)
+                    lastCommands_.remove(key, command);
             }
+        }
+    }
+
+    /**
+     * Marks the queued command which sets the same state as a new command as superseded.
+     * A command which inserts or removes something is never crossed, because commands
+     * after it may refer to what it inserts or to bends renumbered by it.
+     */
+    private void coalesce(Command command)
+    {
+        List<String> key = getCoalescingKey(command);
+        if (key == null)
+        {
+            lastCommands_.clear();
             return;
         }
 
+        Command lastCommand = lastCommands_.put(key, command);
+        if (lastCommand != null)
+            lastCommand.__supersede();
+    }
+
+    /**
+     * Gets the state a command sets, as its name and the parameters which tell
+     * what it's set for
+     *
+     * @return null if the command doesn't only set a state
+     */
+    private static List<String> getCoalescingKey(Command command)
+    {
+        CommandType type = command.__getType();
+        if (type == null)
+            return null;
+
+        ArrayList<String> parameters = command.GetParameters();
+        switch (type)
+        {
+            case MOVE_VERTEX:
+            case CHANGE_VERTEX_SCALE:
+            case CHANGE_VERTEX_ROTATION:
+                return Arrays.asList(command.GetName(), parameters.get(0));
+            case MOVE_BEND:
+                return Arrays.asList(command.GetName(), parameters.get(0), parameters.get(1));
+            case CHANGE_CAMERA_POSITION:
+            case CHANGE_CAMERA_ROTATION:
+                return Arrays.asList(command.GetName());
+            case SET_VERTEX_PROPERTY:
+            case SET_EDGE_PROPERTY:
+                return Arrays.asList(command.GetName(), parameters.get(0), parameters.get(1),
+                        parameters.get(2));
+            default:
+                return null;
+        }
+    }
+
+    private void processResponse(ArrayList<Command> commands)
+    {
 
+        if (commands.size() == 0)
+        {
+            finishLoading();
+            return;
+        }
+
+        processCommands(commands);
+    }
+
+    private void finishLoading()
+    {
+        if (isLoading_)
+        {
+            isLoading_ = false;
+            echoFilter_.__enable();
+            if (__graphLoaded != null)
+                __graphLoaded.OnGraphLoadedEvent();
+        }
+    }
+
+    private ArrayList<Command> parseCommands(JSONArray responseArray)
+    {
         ArrayList<Command> commands = new ArrayList<Command>();
 
         for (int i = 0; i < responseArray.length(); i++)
@@ -227,19 +722,101 @@ class ServiceManager
             command.__setClientID(clientID);
 
             commands.add(command);
-            lastCommandIDReceived_ = command.__getID();
+        }
+
+        return commands;
+    }
+
+    private void processCommands(ArrayList<Command> commands)
+    {
+        lastCommandIDReceived_ = commands.get(commands.size() - 1).__getID();
+
+        if (commandLogCache_ != null)
+        {
+            try
+            {
+                commandLogCache_.__appendCommands(commands);
+            } catch (IOException e)
+            {
+                // The cache would miss these commands, so it is not used anymore
+                commandLogCache_.__close();
+                commandLogCache_ = null;
+            }
         }
 
         if (__newCommandsReceived != null)
             __newCommandsReceived.OnNewCommandEvent(commands);
     }
 
-    void __runCommand(Command command)
+    /**
+     * Queues a command to be sent, after which __commitCommands should be called.
+     * The commands get their sequences in the order they are queued.
+     *
+     * @return The number to pass to __commitCommands, which is 0 without an outbox
+     */
+    long __queueCommand(Command command)
     {
-        outgoingCommandsQueue_.add(command);
+        CommandOutbox commandOutbox = commandOutbox_;
+        long outboxNumber = 0;
+
+        // Commands get their sequences in the order they are queued
+        synchronized (outgoingCommandsQueue_)
+        {
+            command.__setClientID(clientID_);
+            command.__setSequence(++lastSequence_);
+
+            if (commandOutbox != null)
+            {
+                try
+                {
+                    outboxNumber = commandOutbox.__write(command);
+                } catch (IOException e)
+                {
+                    // Without this command the outbox can't tell when nothing is
+                    // pending, so it is not used anymore
+                    commandOutbox.__close();
+                    commandOutbox = null;
+                    commandOutbox_ = null;
+                }
+            }
+
+            if (isCommandCoalescingEnabled_)
+                coalesce(command);
+            outgoingCommandsQueue_.add(command);
+            echoFilter_.__addSentCommand(command);
+        }
+
+        return outboxNumber;
+    }
+
+    /**
+     * Forces the queued commands to the outbox up to a number and starts sending them
+     *
+     * @param outboxNumber The largest number returned by __queueCommand
+     */
+    void __commitCommands(long outboxNumber)
+    {
+        CommandOutbox commandOutbox = commandOutbox_;
+        if (commandOutbox != null && outboxNumber > 0)
+        {
+            try
+            {
+                commandOutbox.__sync(outboxNumber);
+            } catch (IOException e)
+            {
+            }
+        }
+
         sendEvent_.set();
+        pollScheduler_.__onLocalActivity();
     }
 
+    /**
+     * Sends a command
+     *
+     * @return false if sending failed and should be retried.
+     * true if the command is added or rejected by the web service.
+     */
     private boolean sendCommand(Command command)
     {
         try
@@ -255,7 +832,8 @@ class ServiceManager
             bodyParameters.put("WhoToken", whoToken_);
             bodyParameters.put("GraphID", graphID_);
             bodyParameters.put("CommandName", command.GetName());
-            bodyParameters.put("ClientID", clientID_);
+            bodyParameters.put("ClientID", command.__getClientID());
+            bodyParameters.put("Sequence", command.__getSequence());
             bodyParameters.put("GraphAccessToken", graphAccessToken_);
             bodyParameters.put("Param1", parameters.get(0));
             bodyParameters.put("Param2", parameters.get(1));
@@ -263,15 +841,123 @@ class ServiceManager
             bodyParameters.put("Param4", parameters.get(3));
             bodyParameters.put("Param5", parameters.get(4));
 
-            JSONObject response = RESTHelper.SendTypicalRequest(
-                    url, urlParameters, "Post", bodyParameters);
+            JSONObject response = RESTHelper.SendRequest(transport_, url, urlParameters,
+                    "Post", bodyParameters, requestCompressionThreshold_);
 
             return true;
         } catch (Exception e)
         {
-            return false;
+            if (!isRejection(e))
+                return false;
+
+            raiseCommandFailed(command, null, "Sending the command failed");
+            return true;
+        }
+
+    }
+
+    /**
+     * Sends commands of the same client in a batch
+     *
+     * @return false if sending failed and should be retried.
+     * true if the web service responded with the result of each command.
+     */
+    private boolean sendCommands(ArrayList<Command> commands)
+    {
+        JSONArray results;
+        try
+        {
+            String url = serviceURL_ + "commands";
+
+            Hashtable<String, String> urlParameters = new Hashtable<String, String>();
+
+            JSONArray commandsArray = new JSONArray();
+            for (Command command : commands)
+            {
+                ArrayList<String> parameters = command.GetParameters();
+
+                JSONObject commandObject = new JSONObject();
+                commandObject.put("CommandName", command.GetName());
+                commandObject.put("Sequence", command.__getSequence());
+                commandObject.put("Param1", parameters.get(0));
+                commandObject.put("Param2", parameters.get(1));
+                commandObject.put("Param3", parameters.get(2));
+                commandObject.put("Param4", parameters.get(3));
+                commandObject.put("Param5", parameters.get(4));
+                commandsArray.put(commandObject);
+            }
+
+            JSONObject bodyParameters = new JSONObject();
+            bodyParameters.put("UserID", userID_);
+            bodyParameters.put("WhoToken", whoToken_);
+            bodyParameters.put("GraphID", graphID_);
+            bodyParameters.put("ClientID", commands.get(0).__getClientID());
+            bodyParameters.put("GraphAccessToken", graphAccessToken_);
+            bodyParameters.put("Commands", commandsArray);
+
+            JSONObject response = RESTHelper.SendRequest(transport_, url, urlParameters,
+                    "Post", bodyParameters, requestCompressionThreshold_);
+            results = response.getJSONArray("Results");
+
+            // The commands without a result may not be added, and the ones which were
+            // are not added again since they keep their sequences
+            if (results.length() < commands.size())
+                return false;
+        } catch (Exception e)
+        {
+            if (!isRejection(e))
+                return false;
+
+            for (Command command : commands)
+                raiseCommandFailed(command, null, "Sending the command failed");
+            return true;
+        }
+
+        for (int i = 0; i < commands.size(); i++)
+        {
+            JSONObject result = results.getJSONObject(i);
+            if (result.has("Error"))
+            {
+                JSONObject error = result.getJSONObject("Error");
+                raiseCommandFailed(commands.get(i), error.optString("Code"),
+                        error.optString("Message"));
+            }
         }
 
+        return true;
+    }
+
+    /**
+     * Checks whether a failure of sending commands means the web service rejected
+     * them, in which case sending them again fails again
+     */
+    private boolean isRejection(Exception e)
+    {
+        if (e instanceof AuthenicationException || e instanceof AuthorizationException)
+            return true;
+        if (e instanceof WebServiceException)
+        {
+            int statusCode = ((WebServiceException) e).GetStatusCode();
+            return statusCode >= 400 && statusCode < 500;
+        }
+
+        return false;
+    }
+
+    private void raiseCommandFailed(Command command, String errorCode, String errorMessage)
+    {
+        if (__commandFailed != null)
+            __commandFailed.OnCommandFailedEvent(command, errorCode, errorMessage);
+    }
+
+    EchoFilter __getEchoFilter()
+    {
+        return echoFilter_;
+    }
+
+    long __getElidedCommandsCount()
+    {
+        return elidedCommandsCount_.get();
     }
 
     boolean __isAllCommandsSent()
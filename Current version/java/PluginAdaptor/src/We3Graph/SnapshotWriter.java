@@ -0,0 +1,175 @@
+package We3Graph;
+
+import java.util.ArrayList;
+
+/**
+ * Keeps the persistent maps of the snapshots of a graph up to date, created by the first
+ * Graph.Snapshot call. It's changed with the graph under its write lock. The nodes
+ * of the maps created since the last snapshot are changed in place, and the ones
+ * shared with a snapshot are copied when they change.
+ */
+class SnapshotWriter
+{
+    private Graph graph_;
+    private PersistentIDMap<VertexSnapshot> vertices_;
+    private PersistentIDMap<EdgeSnapshot> edges_;
+    // The token of the changes since the last snapshot
+    private Object edit_;
+    private volatile GraphSnapshot snapshot_;
+    private double[] position_;
+
+    /**
+     * Creates the maps of all vertices and edges. The graph should be locked.
+     */
+    SnapshotWriter(Graph graph)
+    {
+        graph_ = graph;
+        vertices_ = PersistentIDMap.__empty();
+        edges_ = PersistentIDMap.__empty();
+        edit_ = new Object();
+        position_ = new double[3];
+
+        for (Vertex vertex : graph.__getVertices())
+            __addVertex(vertex);
+        for (Edge edge : graph.__getEdges())
+            __addEdge(edge);
+    }
+
+    void __addVertex(Vertex vertex)
+    {
+        putVertex(vertex, copyOf(vertex.__getProperties()), PersistentIDMap.<Boolean>__empty());
+    }
+
+    /**
+     * Keeps the state of a vertex which is moved, rotated or scaled.
+     * Removed vertices are ignored, since they can still be changed.
+     */
+    void __updateVertex(Vertex vertex)
+    {
+        // The properties are shared with the old state until they change
+        VertexSnapshot old = vertices_.__get(vertex.GetFullID().ToLong());
+        if (old != null)
+            putVertex(vertex, old.__getProperties(), old.__getEdgeIDs());
+    }
+
+    /**
+     * Keeps the state of a vertex whose properties changed
+     */
+    void __updateVertexProperties(Vertex vertex)
+    {
+        VertexSnapshot old = vertices_.__get(vertex.GetFullID().ToLong());
+        if (old != null)
+            putVertex(vertex, copyOf(vertex.__getProperties()), old.__getEdgeIDs());
+    }
+
+    void __removeVertex(Vertex vertex)
+    {
+        vertices_ = vertices_.__remove(vertex.GetFullID().ToLong(), edit_);
+    }
+
+    /**
+     * Keeps the state of an edge which is inserted, and adds it to its vertices
+     */
+    void __addEdge(Edge edge)
+    {
+        putEdge(edge);
+
+        long key = edge.GetFullID().ToLong();
+        addEdgeID(edge.GetStartVertex(), key, true);
+        addEdgeID(edge.GetEndVertex(), key, true);
+    }
+
+    /**
+     * Keeps the state of an edge whose properties or bends changed.
+     * Removed edges are ignored, like removed vertices.
+     */
+    void __updateEdge(Edge edge)
+    {
+        if (edges_.__get(edge.GetFullID().ToLong()) != null)
+            putEdge(edge);
+    }
+
+    void __removeEdge(Edge edge)
+    {
+        long key = edge.GetFullID().ToLong();
+        edges_ = edges_.__remove(key, edit_);
+        addEdgeID(edge.GetStartVertex(), key, false);
+        addEdgeID(edge.GetEndVertex(), key, false);
+    }
+
+    /**
+     * Gets the last snapshot taken
+     *
+     * @return null if no snapshot was taken
+     */
+    GraphSnapshot __getSnapshot()
+    {
+        return snapshot_;
+    }
+
+    /**
+     * Takes a snapshot of the maps, after which their nodes are not changed any more.
+     * The graph should be locked, and several readers may take snapshots at once.
+     *
+     * @param stamp The optimistic read stamp of the graph lock
+     */
+    synchronized GraphSnapshot __takeSnapshot(int commandID, long stamp)
+    {
+        GraphSnapshot snapshot = snapshot_;
+        if (snapshot != null && stamp != 0 && snapshot.__getStamp() == stamp)
+            return snapshot;
+
+        snapshot = new GraphSnapshot(vertices_, edges_, commandID, graph_.GetCamera(), stamp);
+        edit_ = new Object();
+        snapshot_ = snapshot;
+        return snapshot;
+    }
+
+    private void putEdge(Edge edge)
+    {
+        ArrayList<EdgeLine> edgeLines = edge.__getEdgeLines();
+        double[] bendPositions = new double[(edgeLines.size() - 1) * 3];
+        for (int i = 0; i < edgeLines.size() - 1; i++)
+        {
+            Point3D position = edgeLines.get(i).GetEndBend().__getPosition();
+            bendPositions[i * 3] = position.GetX();
+            bendPositions[i * 3 + 1] = position.GetY();
+            bendPositions[i * 3 + 2] = position.GetZ();
+        }
+
+        EdgeSnapshot state = new EdgeSnapshot(edge.GetFullID(),
+                edge.GetStartVertex().GetFullID(), edge.GetEndVertex().GetFullID(),
+                bendPositions, copyOf(edge.__getProperties()), graph_.__getPropertyNames());
+        edges_ = edges_.__put(edge.GetFullID().ToLong(), state, edit_);
+    }
+
+    /**
+     * Adds or removes the full ID of an edge in the state of one of its vertices
+     */
+    private void addEdgeID(Vertex vertex, long edgeID, boolean isAdded)
+    {
+        VertexSnapshot old = vertices_.__get(vertex.GetFullID().ToLong());
+        if (old == null)
+            return;
+
+        PersistentIDMap<Boolean> edgeIDs = isAdded ?
+                old.__getEdgeIDs().__put(edgeID, Boolean.TRUE, edit_) :
+                old.__getEdgeIDs().__remove(edgeID, edit_);
+        putVertex(vertex, old.__getProperties(), edgeIDs);
+    }
+
+    private static PropertySet copyOf(PropertySet properties)
+    {
+        return properties == null ? null : properties.__copy();
+    }
+
+    private void putVertex(Vertex vertex, PropertySet properties,
+                           PersistentIDMap<Boolean> edgeIDs)
+    {
+        vertex.__getPosition(position_, 0);
+        VertexSnapshot state = new VertexSnapshot(vertex.GetFullID(), position_,
+                vertex.__getRotation(), vertex.__getScale(), properties,
+                graph_.__getPropertyNames(), edgeIDs);
+        vertices_ = vertices_.__put(vertex.GetFullID().ToLong(), state, edit_);
+    }
+}
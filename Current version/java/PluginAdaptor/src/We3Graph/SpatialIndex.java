@@ -0,0 +1,182 @@
+package We3Graph;
+
+import java.util.ArrayList;
+
+/**
+ * An index of the positions of the vertices and bends of a graph for finding the ones
+ * in a box, near a point or along a ray without scanning all of them.
+ * It's created by Graph.GetSpatialIndex and kept up to date when vertices and bends are
+ * added, moved or removed.
+ * The queries lock the graph for reading while they run.
+ */
+public class SpatialIndex
+{
+    private Octree<Vertex> vertices_;
+    private Octree<Bend> bends_;
+    private GraphLock lock_;
+
+    /**
+     * Creates the index of a locked graph
+     */
+    SpatialIndex(Graph graph)
+    {
+        vertices_ = new Octree<Vertex>();
+        bends_ = new Octree<Bend>();
+        lock_ = graph.__getLock();
+
+        double[] positions = graph.GetVertexPositions(null);
+        ArrayList<Vertex> vertices = graph.__getVertices();
+        for (int i = 0; i < vertices.size(); i++)
+            vertices_.__add(vertices.get(i), positions[i * 3], positions[i * 3 + 1],
+                    positions[i * 3 + 2]);
+
+        for (Edge edge : graph.__getEdges())
+            for (Bend bend : edge.GetBends())
+                __addBend(bend);
+    }
+
+    void __addVertex(Vertex vertex, double x, double y, double z)
+    {
+        vertices_.__add(vertex, x, y, z);
+    }
+
+    void __moveVertex(Vertex vertex, double x, double y, double z)
+    {
+        vertices_.__move(vertex, x, y, z);
+    }
+
+    void __removeVertex(Vertex vertex)
+    {
+        vertices_.__remove(vertex);
+    }
+
+    void __addBend(Bend bend)
+    {
+        Point3D position = bend.GetPosition();
+        bends_.__add(bend, position.GetX(), position.GetY(), position.GetZ());
+    }
+
+    void __moveBend(Bend bend, double x, double y, double z)
+    {
+        bends_.__move(bend, x, y, z);
+    }
+
+    void __removeBend(Bend bend)
+    {
+        bends_.__remove(bend);
+    }
+
+    /**
+     * Gets the vertices inside a box, including its faces
+     *
+     * @param min The corner of the box with the smallest coordinates
+     * @param max The corner of the box with the largest coordinates
+     */
+    public ArrayList<Vertex> GetVerticesInBox(Point3D min, Point3D max)
+    {
+        lock_.__lockRead();
+        try
+        {
+            return vertices_.__getInBox(min.GetX(), min.GetY(), min.GetZ(),
+                    max.GetX(), max.GetY(), max.GetZ());
+        } finally
+        {
+            lock_.__unlockRead();
+        }
+    }
+
+    /**
+     * Gets the bends inside a box, including its faces
+     *
+     * @param min The corner of the box with the smallest coordinates
+     * @param max The corner of the box with the largest coordinates
+     */
+    public ArrayList<Bend> GetBendsInBox(Point3D min, Point3D max)
+    {
+        lock_.__lockRead();
+        try
+        {
+            return bends_.__getInBox(min.GetX(), min.GetY(), min.GetZ(),
+                    max.GetX(), max.GetY(), max.GetZ());
+        } finally
+        {
+            lock_.__unlockRead();
+        }
+    }
+
+    /**
+     * Gets the vertices nearest to a point, from the nearest one
+     *
+     * @param count The maximum number of vertices
+     */
+    public ArrayList<Vertex> GetNearestVertices(Point3D point, int count)
+    {
+        lock_.__lockRead();
+        try
+        {
+            return vertices_.__getNearest(point.GetX(), point.GetY(), point.GetZ(), count);
+        } finally
+        {
+            lock_.__unlockRead();
+        }
+    }
+
+    /**
+     * Gets the bends nearest to a point, from the nearest one
+     *
+     * @param count The maximum number of bends
+     */
+    public ArrayList<Bend> GetNearestBends(Point3D point, int count)
+    {
+        lock_.__lockRead();
+        try
+        {
+            return bends_.__getNearest(point.GetX(), point.GetY(), point.GetZ(), count);
+        } finally
+        {
+            lock_.__unlockRead();
+        }
+    }
+
+    /**
+     * Gets the first vertex along a ray, for example for picking with the mouse
+     *
+     * @param origin    The start of the ray
+     * @param direction The direction of the ray
+     * @param radius    How far from the ray a vertex can be
+     * @return null if no vertex is near the ray
+     */
+    public Vertex PickVertex(Point3D origin, Point3D direction, double radius)
+    {
+        lock_.__lockRead();
+        try
+        {
+            return vertices_.__pick(origin.GetX(), origin.GetY(), origin.GetZ(),
+                    direction.GetX(), direction.GetY(), direction.GetZ(), radius);
+        } finally
+        {
+            lock_.__unlockRead();
+        }
+    }
+
+    /**
+     * Gets the first bend along a ray, for example for picking with the mouse
+     *
+     * @param origin    The start of the ray
+     * @param direction The direction of the ray
+     * @param radius    How far from the ray a bend can be
+     * @return null if no bend is near the ray
+     */
+    public Bend PickBend(Point3D origin, Point3D direction, double radius)
+    {
+        lock_.__lockRead();
+        try
+        {
+            return bends_.__pick(origin.GetX(), origin.GetY(), origin.GetZ(),
+                    direction.GetX(), direction.GetY(), direction.GetZ(), radius);
+        } finally
+        {
+            lock_.__unlockRead();
+        }
+    }
+}
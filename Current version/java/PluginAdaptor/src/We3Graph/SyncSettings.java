@@ -0,0 +1,326 @@
+package We3Graph;
+
+/**
+ * Settings that control how graphs are synchronized with the web service
+ * and kept in memory.
+ * A change affects graphs started after it.
+ */
+public class SyncSettings
+{
+    private int maxCommandsPerBatch_;
+    private int maxBatchDelay_;
+    private boolean isCommandCoalescingEnabled_;
+    private boolean isLongPollingEnabled_;
+    private int longPollTimeout_;
+    private PollPolicy pollPolicy_;
+    private int pollInterval_;
+    private int maxPollInterval_;
+    private int pageSize_;
+    private int maxParallelPageRequests_;
+    private String cacheDirectory_;
+    private CacheSyncPolicy cacheSyncPolicy_;
+    private String outboxDirectory_;
+    private int retryInterval_;
+    private int maxRetryInterval_;
+    private int requestCompressionThreshold_;
+    private boolean isCoordinateStoreEnabled_;
+
+    public SyncSettings()
+    {
+        maxCommandsPerBatch_ = 1;
+        maxBatchDelay_ = 0;
+        isCommandCoalescingEnabled_ = true;
+        isLongPollingEnabled_ = true;
+        longPollTimeout_ = 20;
+        pollPolicy_ = PollPolicy.ADAPTIVE;
+        pollInterval_ = 20;
+        maxPollInterval_ = 1000;
+        pageSize_ = 1000;
+        maxParallelPageRequests_ = 4;
+        cacheDirectory_ = null;
+        cacheSyncPolicy_ = CacheSyncPolicy.NEVER;
+        outboxDirectory_ = null;
+        retryInterval_ = 100;
+        maxRetryInterval_ = 30000;
+        requestCompressionThreshold_ = 1024;
+        isCoordinateStoreEnabled_ = false;
+    }
+
+    public int GetMaxCommandsPerBatch()
+    {
+        return maxCommandsPerBatch_;
+    }
+
+    /**
+     * Sets the maximum number of outgoing commands sent in a single request.
+     * If the web service doesn't accept batches of commands, each command is sent alone.
+     *
+     * @param maxCommandsPerBatch The maximum number of commands. 1 sends each command alone.
+     */
+    public void SetMaxCommandsPerBatch(int maxCommandsPerBatch)
+    {
+        maxCommandsPerBatch_ = maxCommandsPerBatch;
+    }
+
+    public int GetMaxBatchDelay()
+    {
+        return maxBatchDelay_;
+    }
+
+    /**
+     * Sets how long a batch waits for more commands before it is sent
+     *
+     * @param maxBatchDelay The delay in milliseconds. 0 sends whatever is queued immediately.
+     */
+    public void SetMaxBatchDelay(int maxBatchDelay)
+    {
+        maxBatchDelay_ = maxBatchDelay;
+    }
+
+    public boolean IsCommandCoalescingEnabled()
+    {
+        return isCommandCoalescingEnabled_;
+    }
+
+    /**
+     * Sets whether an outgoing command which isn't sent yet is dropped when a later
+     * command sets the same state, such as the position of the same vertex while it's
+     * dragged. Commands are never dropped across a command which inserts or removes
+     * something.
+     *
+     * @param isCommandCoalescingEnabled Whether only the last of such commands is sent
+     */
+    public void SetCommandCoalescingEnabled(boolean isCommandCoalescingEnabled)
+    {
+        isCommandCoalescingEnabled_ = isCommandCoalescingEnabled;
+    }
+
+    public boolean IsLongPollingEnabled()
+    {
+        return isLongPollingEnabled_;
+    }
+
+    /**
+     * Sets whether the web service is asked to hold requests for incoming commands
+     * until there is a new command. It is only used after loading is finished and
+     * only if the web service supports it. Otherwise the web service is polled.
+     *
+     * @param isLongPollingEnabled Whether long polling can be used
+     */
+    public void SetLongPollingEnabled(boolean isLongPollingEnabled)
+    {
+        isLongPollingEnabled_ = isLongPollingEnabled;
+    }
+
+    public int GetLongPollTimeout()
+    {
+        return longPollTimeout_;
+    }
+
+    /**
+     * Sets the longest time a long polling request waits for new commands
+     *
+     * @param longPollTimeout The timeout in seconds.
+     *                        It is limited by the maximum supported by the web service.
+     */
+    public void SetLongPollTimeout(int longPollTimeout)
+    {
+        longPollTimeout_ = longPollTimeout;
+    }
+
+    public PollPolicy GetPollPolicy()
+    {
+        return pollPolicy_;
+    }
+
+    /**
+     * Sets how the delay between requests for incoming commands is chosen
+     * when long polling is not used
+     *
+     * @param pollPolicy The policy
+     */
+    public void SetPollPolicy(PollPolicy pollPolicy)
+    {
+        pollPolicy_ = pollPolicy;
+    }
+
+    public int GetPollInterval()
+    {
+        return pollInterval_;
+    }
+
+    /**
+     * Sets the delay between requests for incoming commands with the fixed policy
+     * and the shortest delay with the adaptive policy
+     *
+     * @param pollInterval The delay in milliseconds
+     */
+    public void SetPollInterval(int pollInterval)
+    {
+        pollInterval_ = pollInterval;
+    }
+
+    public int GetMaxPollInterval()
+    {
+        return maxPollInterval_;
+    }
+
+    /**
+     * Sets the longest delay between requests for incoming commands with the adaptive policy
+     *
+     * @param maxPollInterval The delay in milliseconds
+     */
+    public void SetMaxPollInterval(int maxPollInterval)
+    {
+        maxPollInterval_ = maxPollInterval;
+    }
+
+    public int GetPageSize()
+    {
+        return pageSize_;
+    }
+
+    /**
+     * Sets the number of commands requested at once from the web service.
+     * It is limited by the maximum supported by the web service and is ignored
+     * if the web service doesn't support choosing the page size.
+     *
+     * @param pageSize The number of commands
+     */
+    public void SetPageSize(int pageSize)
+    {
+        pageSize_ = pageSize;
+    }
+
+    public int GetMaxParallelPageRequests()
+    {
+        return maxParallelPageRequests_;
+    }
+
+    /**
+     * Sets how many pages of commands can be requested at the same time
+     * while a graph is loading. Pages are applied in order regardless.
+     *
+     * @param maxParallelPageRequests The number of requests. 1 requests the pages one by one.
+     */
+    public void SetMaxParallelPageRequests(int maxParallelPageRequests)
+    {
+        maxParallelPageRequests_ = maxParallelPageRequests;
+    }
+
+    public String GetCacheDirectory()
+    {
+        return cacheDirectory_;
+    }
+
+    /**
+     * Sets the directory where the commands received for each graph are kept.
+     * When a graph is started again, the cached commands are loaded from the disk
+     * and only the newer commands are requested from the web service.
+     *
+     * @param cacheDirectory The path of the directory. null disables the cache.
+     */
+    public void SetCacheDirectory(String cacheDirectory)
+    {
+        cacheDirectory_ = cacheDirectory;
+    }
+
+    public CacheSyncPolicy GetCacheSyncPolicy()
+    {
+        return cacheSyncPolicy_;
+    }
+
+    /**
+     * Sets when commands written to the cache are forced to the disk
+     *
+     * @param cacheSyncPolicy The policy
+     */
+    public void SetCacheSyncPolicy(CacheSyncPolicy cacheSyncPolicy)
+    {
+        cacheSyncPolicy_ = cacheSyncPolicy;
+    }
+
+    public String GetOutboxDirectory()
+    {
+        return outboxDirectory_;
+    }
+
+    /**
+     * Sets the directory where outgoing commands are written before they are sent.
+     * A command is removed only after the web service accepts or rejects it, and
+     * the commands not sent are sent when the graph is started again.
+     *
+     * @param outboxDirectory The path of the directory. null keeps the commands in memory only.
+     */
+    public void SetOutboxDirectory(String outboxDirectory)
+    {
+        outboxDirectory_ = outboxDirectory;
+    }
+
+    public int GetRetryInterval()
+    {
+        return retryInterval_;
+    }
+
+    /**
+     * Sets the delay before sending commands again after the web service can't be
+     * reached or fails. The delay doubles after each failure, with a random part
+     * so that clients don't retry at the same time.
+     *
+     * @param retryInterval The delay in milliseconds
+     */
+    public void SetRetryInterval(int retryInterval)
+    {
+        retryInterval_ = retryInterval;
+    }
+
+    public int GetMaxRetryInterval()
+    {
+        return maxRetryInterval_;
+    }
+
+    /**
+     * Sets the longest delay before sending commands again
+     *
+     * @param maxRetryInterval The delay in milliseconds
+     */
+    public void SetMaxRetryInterval(int maxRetryInterval)
+    {
+        maxRetryInterval_ = maxRetryInterval;
+    }
+
+    public int GetRequestCompressionThreshold()
+    {
+        return requestCompressionThreshold_;
+    }
+
+    /**
+     * Sets the minimum size of outgoing commands in a request for them to be compressed.
+     * Requests are only compressed if the web service supports it.
+     *
+     * @param requestCompressionThreshold The size in bytes. A negative value turns
+     *                                    compression off.
+     */
+    public void SetRequestCompressionThreshold(int requestCompressionThreshold)
+    {
+        requestCompressionThreshold_ = requestCompressionThreshold;
+    }
+
+    public boolean IsCoordinateStoreEnabled()
+    {
+        return isCoordinateStoreEnabled_;
+    }
+
+    /**
+     * Sets whether the positions, rotations and scales of vertices and the positions of
+     * bends are kept in arrays of the graph instead of a Point3D and a Point4D per item,
+     * which saves memory and garbage collection for large graphs.
+     * GetPosition and GetRotation then return copies which don't change the graph.
+     *
+     * @param isCoordinateStoreEnabled Whether the coordinates are kept in arrays
+     */
+    public void SetCoordinateStoreEnabled(boolean isCoordinateStoreEnabled)
+    {
+        isCoordinateStoreEnabled_ = isCoordinateStoreEnabled;
+    }
+}
@@ -38,9 +38,51 @@ public class SystemManager
         return whoToken_;
     }
 
+    private IHTTPTransport transport_;
+
+    /**
+     * Gets the transport shared by all requests made through this system manager
+     */
+    public IHTTPTransport GetTransport()
+    {
+        return transport_;
+    }
+
+    /**
+     * Replaces the transport used for requests made after this call
+     *
+     * @param transport The new transport
+     */
+    public void SetTransport(IHTTPTransport transport)
+    {
+        transport_ = transport;
+    }
+
+    private SyncSettings syncSettings_;
+
+    /**
+     * Gets the settings used to synchronize graphs started by this system manager
+     */
+    public SyncSettings GetSyncSettings()
+    {
+        return syncSettings_;
+    }
+
+    public void SetSyncSettings(SyncSettings syncSettings)
+    {
+        syncSettings_ = syncSettings;
+    }
+
     public SystemManager(String serviceURL)
+    {
+        this(serviceURL, new PooledHTTPTransport());
+    }
+
+    public SystemManager(String serviceURL, IHTTPTransport transport)
     {
         serviceURL_ = serviceURL;
+        transport_ = transport;
+        syncSettings_ = new SyncSettings();
     }
 
     public void Login(String username, String password)
@@ -53,7 +95,7 @@ public class SystemManager
         bodyParameters.put("Username", username);
         bodyParameters.put("Password", password);
 
-        JSONObject response = RESTHelper.SendTypicalRequest(url, urlParameters,
+        JSONObject response = RESTHelper.SendTypicalRequest(transport_, url, urlParameters,
                 "Post", bodyParameters);
         this.userID_ = response.getInt("UserID");
         this.whoToken_ = response.getString("WhoToken");
@@ -76,7 +118,7 @@ public class SystemManager
         bodyParameters.put("FolderID", folderID);
         bodyParameters.put("RenderEngineGUID", renderEngineGUID);
 
-        JSONObject response = RESTHelper.SendTypicalRequest(url, urlParameters,
+        JSONObject response = RESTHelper.SendTypicalRequest(transport_, url, urlParameters,
                 "Post", bodyParameters);
         return response.getInt("CreatedGraphID");
     }
@@ -95,7 +137,7 @@ public class SystemManager
 
         JSONObject bodyParameters = null;
 
-        JSONObject response = RESTHelper.SendTypicalRequest(url, urlParameters,
+        JSONObject response = RESTHelper.SendTypicalRequest(transport_, url, urlParameters,
                 "Delete", bodyParameters);
     }
 
@@ -115,7 +157,7 @@ public class SystemManager
         JSONObject bodyParameters = null;
 
         JSONArray responseArray = RESTHelper.SendTypicalArrayRequest(
-                url, urlParameters, "Get", bodyParameters);
+                transport_, url, urlParameters, "Get", bodyParameters);
         for (int i = 0; i < responseArray.length(); i++)
         {
             JSONObject folderObject = responseArray.getJSONObject(i);
@@ -134,10 +176,30 @@ public class SystemManager
 
     public Graph StartGraph(int graphID, boolean waitForLoadingToFinish,
                             boolean receiveCommands) throws AuthenicationException
+    {
+        return StartGraph(graphID, waitForLoadingToFinish, receiveCommands, false);
+    }
+
+    /**
+     * Starts a graph
+     *
+     * @param graphID                The ID of the graph
+     * @param waitForLoadingToFinish Whether to return only after the graph is loaded
+     * @param receiveCommands        Whether to receive the commands of other clients
+     * @param loadFromSnapshot       Whether to load the current state of the graph in a single
+     *                               request instead of all the commands of the graph. It is
+     *                               ignored if the web service doesn't support snapshots.
+     * @return The graph
+     * @throws AuthenicationException if the user is not logged in
+     */
+    public Graph StartGraph(int graphID, boolean waitForLoadingToFinish,
+                            boolean receiveCommands, boolean loadFromSnapshot)
+            throws AuthenicationException
     {
         if (userID_ == null || whoToken_ == null)
             throw new AuthenicationException();
 
-        return new Graph(this, graphID, waitForLoadingToFinish, receiveCommands);
+        return new Graph(this, graphID, waitForLoadingToFinish, receiveCommands,
+                loadFromSnapshot);
     }
 }
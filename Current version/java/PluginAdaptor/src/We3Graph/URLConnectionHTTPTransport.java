@@ -0,0 +1,73 @@
+package We3Graph;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Hashtable;
+
+/**
+ * A transport which opens a new HttpURLConnection for every request.
+ * It is kept for environments where PooledHTTPTransport can not be used.
+ */
+public class URLConnectionHTTPTransport implements IHTTPTransport
+{
+    public HTTPResponse Send(String method, String url, Hashtable<String, String> headers,
+                             byte[] body) throws IOException
+    {
+        final HttpURLConnection connection =
+                (HttpURLConnection) (new URL(url)).openConnection();
+
+        connection.setRequestMethod(method);
+        if (headers != null)
+            for (String name : headers.keySet())
+                connection.setRequestProperty(name, headers.get(name));
+
+        if (body != null)
+        {
+            connection.setDoOutput(true);
+            OutputStream os = connection.getOutputStream();
+            os.write(body);
+            os.flush();
+        }
+
+        int statusCode = connection.getResponseCode();
+
+        Hashtable<String, String> responseHeaders = new Hashtable<String, String>();
+        for (String name : connection.getHeaderFields().keySet())
+            if (name != null)
+                responseHeaders.put(name.toLowerCase(), connection.getHeaderField(name));
+
+        InputStream stream = statusCode < 400 ?
+                connection.getInputStream() : connection.getErrorStream();
+        if (stream == null)
+            stream = new java.io.ByteArrayInputStream(new byte[0]);
+
+        final InputStream responseStream = stream;
+        InputStream responseBody = new InputStream()
+        {
+            public int read() throws IOException
+            {
+                return responseStream.read();
+            }
+
+            public int read(byte[] buffer, int offset, int length) throws IOException
+            {
+                return responseStream.read(buffer, offset, length);
+            }
+
+            public void close() throws IOException
+            {
+                responseStream.close();
+                connection.disconnect();
+            }
+        };
+
+        return new HTTPResponse(statusCode, responseHeaders, responseBody);
+    }
+
+    public void Close()
+    {
+    }
+}
@@ -11,28 +11,73 @@ import java.util.Hashtable;
  */
 public class Vertex implements IHasFullID
 {
+    /**
+     * The number of edges from which connections are checked with an adjacency index
+     */
+    private static final int ADJACENCY_INDEX_MIN_EDGES = 32;
 
     private Graph graph_;
 
-    private Hashtable<String, Hashtable<String, String>> properties_;
+    private PropertySet properties_;
 
     private ArrayList<Edge> edges_;
+    private AdjacencyIndex adjacencyIndex_;
     private Point3D position_;
     private Point4D rotation_;
     private double scale_;
+    private int coordinatesSlot_;
     private FullID fullID_;
     private int index_;
 
     Vertex(Graph graph, Point3D position, FullID fullID, int index)
     {
         graph_ = graph;
-        properties_ = new Hashtable<String, Hashtable<String, String>>();
         edges_ = new ArrayList<Edge>();
-        position_ = position;
-        rotation_ = new Point4D(0, 0, 1, 1);
-        scale_ = 1;
         fullID_ = fullID;
         index_ = index;
+
+        CoordinateStore coordinates = graph.__getVertexCoordinates();
+        if (coordinates != null)
+            coordinatesSlot_ = coordinates.__allocate(position.GetX(), position.GetY(),
+                    position.GetZ());
+        else
+        {
+            coordinatesSlot_ = -1;
+            position_ = position;
+            rotation_ = new Point4D(0, 0, 1, 1);
+            scale_ = 1;
+        }
+    }
+
+    /**
+     * Gets the store of the coordinates of the vertex
+     *
+     * @return null if the coordinates are kept in the vertex
+     */
+    private CoordinateStore coordinates()
+    {
+        return coordinatesSlot_ >= 0 ? graph_.__getVertexCoordinates() : null;
+    }
+
+    /**
+     * Removes a removed vertex from the spatial index and moves its coordinates from
+     * the store to the vertex, so that its slot can be reused
+     */
+    void __release()
+    {
+        SpatialIndex spatialIndex = graph_.__getSpatialIndex();
+        if (spatialIndex != null)
+            spatialIndex.__removeVertex(this);
+
+        CoordinateStore coordinates = coordinates();
+        if (coordinates == null)
+            return;
+
+        position_ = coordinates.__getPosition(coordinatesSlot_);
+        rotation_ = coordinates.__getRotation(coordinatesSlot_);
+        scale_ = coordinates.__getScale(coordinatesSlot_);
+        coordinates.__release(coordinatesSlot_);
+        coordinatesSlot_ = -1;
     }
 
     void __setIndex(int index)
@@ -40,78 +85,290 @@ public class Vertex implements IHasFullID
         this.index_ = index;
     }
 
+    /**
+     * Gets the index without renumbering the vertices after removals
+     */
+    int __getIndex()
+    {
+        return index_;
+    }
+
     Edge __connectTo(Vertex endVertex, FullID edgeFullID)
     {
         Edge edge = new Edge(this, endVertex, edgeFullID, graph_);
         graph_.__getEdgesDictionary().Add(edge);
-        edges_.add(edge);
-        endVertex.edges_.add(edge);
+        addEdge(edge, true);
+        endVertex.addEdge(edge, false);
+
+        SnapshotWriter snapshotWriter = graph_.__getSnapshotWriter();
+        if (snapshotWriter != null)
+            snapshotWriter.__addEdge(edge);
 
         return edge;
     }
 
+    /**
+     * Removes an edge from the edges of the vertex by moving the last edge to its place
+     *
+     * @param atStart Whether the vertex is the start vertex of the edge
+     */
+    void __removeEdge(Edge edge, boolean atStart)
+    {
+        int position = edge.__getPosition(atStart);
+        int lastPosition = edges_.size() - 1;
+        if (position != lastPosition)
+        {
+            Edge lastEdge = edges_.get(lastPosition);
+            boolean isLastAtStart = lastEdge.GetStartVertex() == this &&
+                    lastEdge.__getPosition(true) == lastPosition;
+            edges_.set(position, lastEdge);
+            lastEdge.__setPosition(isLastAtStart, position);
+        }
+        edges_.remove(lastPosition);
+
+        if (adjacencyIndex_ != null)
+        {
+            if (edges_.size() < ADJACENCY_INDEX_MIN_EDGES / 2)
+                adjacencyIndex_ = null;
+            else
+                adjacencyIndex_.__remove(getNeighbor(edge, atStart).GetFullID());
+        }
+    }
+
+    private void addEdge(Edge edge, boolean atStart)
+    {
+        edge.__setPosition(atStart, edges_.size());
+        edges_.add(edge);
+
+        if (adjacencyIndex_ != null)
+            adjacencyIndex_.__add(getNeighbor(edge, atStart).GetFullID());
+        else if (edges_.size() >= ADJACENCY_INDEX_MIN_EDGES)
+        {
+            adjacencyIndex_ = new AdjacencyIndex();
+            for (int i = 0; i < edges_.size(); i++)
+            {
+                Edge existingEdge = edges_.get(i);
+                boolean isAtStart = existingEdge.GetStartVertex() == this &&
+                        existingEdge.__getPosition(true) == i;
+                adjacencyIndex_.__add(getNeighbor(existingEdge, isAtStart).GetFullID());
+            }
+        }
+    }
+
+    private static Vertex getNeighbor(Edge edge, boolean atStart)
+    {
+        return atStart ? edge.GetEndVertex() : edge.GetStartVertex();
+    }
+
     void __move(Point3D position)
     {
-        this.position_ = position;
+        CoordinateStore coordinates = coordinates();
+        if (coordinates != null)
+            coordinates.__setPosition(coordinatesSlot_, position.GetX(), position.GetY(),
+                    position.GetZ());
+        else
+            this.position_ = position;
+
+        SpatialIndex spatialIndex = graph_.__getSpatialIndex();
+        if (spatialIndex != null)
+            spatialIndex.__moveVertex(this, position.GetX(), position.GetY(), position.GetZ());
+        updateSnapshot();
+    }
+
+    void __move(double x, double y, double z)
+    {
+        CoordinateStore coordinates = coordinates();
+        if (coordinates != null)
+            coordinates.__setPosition(coordinatesSlot_, x, y, z);
+        else
+            this.position_ = new Point3D(x, y, z);
+
+        SpatialIndex spatialIndex = graph_.__getSpatialIndex();
+        if (spatialIndex != null)
+            spatialIndex.__moveVertex(this, x, y, z);
+        updateSnapshot();
     }
 
     void __setRotation(Point4D rotation)
     {
-        this.rotation_ = rotation;
+        CoordinateStore coordinates = coordinates();
+        if (coordinates != null)
+            coordinates.__setRotation(coordinatesSlot_, rotation.GetX(), rotation.GetY(),
+                    rotation.GetZ(), rotation.GetW());
+        else
+            this.rotation_ = rotation;
+        updateSnapshot();
+    }
+
+    void __setRotation(double x, double y, double z, double w)
+    {
+        CoordinateStore coordinates = coordinates();
+        if (coordinates != null)
+            coordinates.__setRotation(coordinatesSlot_, x, y, z, w);
+        else
+            this.rotation_ = new Point4D(x, y, z, w);
+        updateSnapshot();
     }
 
     void __setScale(double scale)
     {
-        this.scale_ = scale;
+        CoordinateStore coordinates = coordinates();
+        if (coordinates != null)
+            coordinates.__setScale(coordinatesSlot_, scale);
+        else
+            this.scale_ = scale;
+        updateSnapshot();
+    }
+
+    private void updateSnapshot()
+    {
+        SnapshotWriter snapshotWriter = graph_.__getSnapshotWriter();
+        if (snapshotWriter != null)
+            snapshotWriter.__updateVertex(this);
     }
 
     void __setProperty(String listName, String key, String value)
     {
+        PropertyNames names = graph_.__getPropertyNames();
+        int id = value.equals("") ? names.__find(listName, key) : names.__add(listName, key);
+        if (id < 0)
+            return;
 
-        if (!properties_.containsKey(listName))
-            properties_.put(listName, new Hashtable<String, String>());
+        // A removed vertex can still be changed, but it's not in the indexes any more
+        PropertyIndex<Vertex> index = graph_.__getVertexPropertyIndex(id);
+        if (index != null && graph_.__getVerticesDictionary().Find(fullID_) == this)
+            index.__update(this, __getPropertyValue(id), value);
 
         if (value.equals(""))
-            properties_.get(listName).remove(key);
-        else
-            properties_.get(listName).put(key, value);
+        {
+            if (properties_ == null)
+                return;
+
+            properties_.__set(id, value);
+            if (properties_.__isEmpty())
+                properties_ = null;
+        } else
+        {
+            if (properties_ == null)
+                properties_ = new PropertySet();
+            properties_.__set(id, value);
+        }
+
+        SnapshotWriter snapshotWriter = graph_.__getSnapshotWriter();
+        if (snapshotWriter != null)
+            snapshotWriter.__updateVertexProperties(this);
+    }
+
+    /**
+     * @return null if not found
+     */
+    String __getPropertyValue(int id)
+    {
+        if (properties_ == null)
+            return null;
+
+        return properties_.__get(id);
+    }
+
+    /**
+     * @return null if the vertex has no properties
+     */
+    PropertySet __getProperties()
+    {
+        return properties_;
+    }
+
+    /**
+     * Removes a removed vertex from the property indexes of the graph
+     */
+    void __removeFromPropertyIndexes()
+    {
+        if (properties_ == null)
+            return;
+
+        for (int i = 0; i < properties_.__getCount(); i++)
+        {
+            PropertyIndex<Vertex> index = graph_.__getVertexPropertyIndex(properties_.__getID(i));
+            if (index != null)
+                index.__remove(this, properties_.__getValue(i));
+        }
     }
 
     public Edge ConnectTo(Vertex endVertex)
     {
-        int edgeClientID = graph_.__getClientID();
-        int edgeIDinCreator = graph_.__getLastCreatedEdgeID() + 1;
-        graph_.__setLastCreatedEdgeID(edgeIDinCreator);
+        GraphLock lock = graph_.__getLock();
+        lock.__lockWrite();
+        try
+        {
+            int edgeClientID = graph_.__getClientID();
+            int edgeIDinCreator = graph_.__getLastCreatedEdgeID() + 1;
+            graph_.__setLastCreatedEdgeID(edgeIDinCreator);
 
-        Edge edge = __connectTo(endVertex, new FullID(edgeClientID, edgeIDinCreator));
+            Edge edge = __connectTo(endVertex, new FullID(edgeClientID, edgeIDinCreator));
 
-        graph_.__getCommandSender().__sendInsertEdgeCommand(edge);
+            graph_.__getCommandSender().__sendInsertEdgeCommand(edge);
 
-        return edge;
+            return edge;
+        } finally
+        {
+            lock.__unlockWrite();
+        }
     }
 
     public void Move(Point3D position)
     {
-        __move(position);
-        graph_.__getCommandSender().__sendMoveVertexCommand(this);
+        GraphLock lock = graph_.__getLock();
+        lock.__lockWrite();
+        try
+        {
+            __move(position);
+            graph_.__getCommandSender().__sendMoveVertexCommand(this);
+        } finally
+        {
+            lock.__unlockWrite();
+        }
     }
 
     public void SetRotation(Point4D rotation)
     {
-        __setRotation(rotation);
-        graph_.__getCommandSender().__sendChangeVertexRotationCommand(this);
+        GraphLock lock = graph_.__getLock();
+        lock.__lockWrite();
+        try
+        {
+            __setRotation(rotation);
+            graph_.__getCommandSender().__sendChangeVertexRotationCommand(this);
+        } finally
+        {
+            lock.__unlockWrite();
+        }
     }
 
     public void SetScale(double scale)
     {
-        __setScale(scale);
-        graph_.__getCommandSender().__sendChangeVertexScaleCommand(this);
+        GraphLock lock = graph_.__getLock();
+        lock.__lockWrite();
+        try
+        {
+            __setScale(scale);
+            graph_.__getCommandSender().__sendChangeVertexScaleCommand(this);
+        } finally
+        {
+            lock.__unlockWrite();
+        }
     }
 
     public void Remove()
     {
-        graph_.__removeVertex(this);
-        graph_.__getCommandSender().__sendRemoveVertexCommand(this);
+        GraphLock lock = graph_.__getLock();
+        lock.__lockWrite();
+        try
+        {
+            graph_.__removeVertex(this);
+            graph_.__getCommandSender().__sendRemoveVertexCommand(this);
+        } finally
+        {
+            lock.__unlockWrite();
+        }
     }
 
     public FullID GetFullID()
@@ -119,31 +376,171 @@ public class Vertex implements IHasFullID
         return fullID_;
     }
 
+    /**
+     * Gets the position of the vertex in the list returned by Graph.GetVertices
+     */
     public int GetIndex()
     {
-        return index_;
+        GraphLock lock = graph_.__getLock();
+        lock.__lockRead();
+        try
+        {
+            graph_.__updateVertexIndices(index_);
+            return index_;
+        } finally
+        {
+            lock.__unlockRead();
+        }
     }
 
+    /**
+     * Gets the position of the vertex.
+     * If the graph keeps coordinates in a store, it's a copy which doesn't move the
+     * vertex when changed.
+     */
     public Point3D GetPosition()
     {
-        return position_;
+        // The coordinates are read again under the lock if they changed meanwhile
+        GraphLock lock = graph_.__getLock();
+        long stamp = lock.__tryOptimisticRead();
+        Point3D position = getPosition();
+        if (lock.__validate(stamp))
+            return position;
+
+        lock.__lockRead();
+        try
+        {
+            return getPosition();
+        } finally
+        {
+            lock.__unlockRead();
+        }
     }
 
+    /**
+     * Gets the rotation of the vertex.
+     * If the graph keeps coordinates in a store, it's a copy which doesn't rotate the
+     * vertex when changed.
+     */
     public Point4D GetRotation()
     {
-        return rotation_;
+        GraphLock lock = graph_.__getLock();
+        long stamp = lock.__tryOptimisticRead();
+        Point4D rotation = __getRotation();
+        if (lock.__validate(stamp))
+            return rotation;
+
+        lock.__lockRead();
+        try
+        {
+            return __getRotation();
+        } finally
+        {
+            lock.__unlockRead();
+        }
     }
 
     public double GetScale()
     {
+        GraphLock lock = graph_.__getLock();
+        long stamp = lock.__tryOptimisticRead();
+        double scale = __getScale();
+        if (lock.__validate(stamp))
+            return scale;
+
+        lock.__lockRead();
+        try
+        {
+            return __getScale();
+        } finally
+        {
+            lock.__unlockRead();
+        }
+    }
+
+    // The slot is read once, since these may run while the vertex is being removed
+
+    private Point3D getPosition()
+    {
+        int slot = coordinatesSlot_;
+        if (slot >= 0)
+            return graph_.__getVertexCoordinates().__getPosition(slot);
+
+        return position_;
+    }
+
+    Point4D __getRotation()
+    {
+        int slot = coordinatesSlot_;
+        if (slot >= 0)
+            return graph_.__getVertexCoordinates().__getRotation(slot);
+
+        return rotation_;
+    }
+
+    double __getScale()
+    {
+        int slot = coordinatesSlot_;
+        if (slot >= 0)
+            return graph_.__getVertexCoordinates().__getScale(slot);
+
         return scale_;
     }
 
-    public ArrayList<Edge> GetEdges()
+    /**
+     * Copies the position of the vertex to an array without creating a Point3D
+     *
+     * @param offset The position in the array of the x coordinate
+     */
+    void __getPosition(double[] positions, int offset)
+    {
+        CoordinateStore coordinates = coordinates();
+        if (coordinates != null)
+        {
+            positions[offset] = coordinates.__getX(coordinatesSlot_);
+            positions[offset + 1] = coordinates.__getY(coordinatesSlot_);
+            positions[offset + 2] = coordinates.__getZ(coordinatesSlot_);
+        } else
+        {
+            positions[offset] = position_.GetX();
+            positions[offset + 1] = position_.GetY();
+            positions[offset + 2] = position_.GetZ();
+        }
+    }
+
+    /**
+     * Gets the list of the edges of the vertex, which changes with the graph.
+     * The graph should be locked.
+     */
+    ArrayList<Edge> __getEdges()
     {
         return edges_;
     }
 
+    /**
+     * Gets the edges of the vertex.
+     * The order of the edges changes when an edge is removed.
+     * It's a copy which doesn't change when the graph changes.
+     */
+    public ArrayList<Edge> GetEdges()
+    {
+        // Copying doesn't fail while the list changes, and it's copied again if it did
+        GraphLock lock = graph_.__getLock();
+        long stamp = lock.__tryOptimisticRead();
+        ArrayList<Edge> edges = new ArrayList<Edge>(edges_);
+        if (lock.__validate(stamp))
+            return edges;
+
+        lock.__lockRead();
+        try
+        {
+            return new ArrayList<Edge>(edges_);
+        } finally
+        {
+            lock.__unlockRead();
+        }
+    }
+
     public ArrayList<Vertex> GetAdjacentVertices()
     {
         return GetAdjacentVertices(false);
@@ -151,17 +548,25 @@ public class Vertex implements IHasFullID
 
     public ArrayList<Vertex> GetAdjacentVertices(boolean isDirected)
     {
-        ArrayList<Vertex> result = new ArrayList<Vertex>();
-        for (Edge edge : edges_)
+        GraphLock lock = graph_.__getLock();
+        lock.__lockRead();
+        try
+        {
+            ArrayList<Vertex> result = new ArrayList<Vertex>();
+            for (Edge edge : edges_)
+            {
+                Vertex startVertex = edge.GetStartVertex();
+                Vertex endVertex = edge.GetEndVertex();
+                if (startVertex.GetFullID().equals(fullID_))
+                    result.add(endVertex);
+                else if (endVertex.GetFullID().equals(fullID_) && !isDirected)
+                    result.add(startVertex);
+            }
+            return result;
+        } finally
         {
-            Vertex startVertex = edge.GetStartVertex();
-            Vertex endVertex = edge.GetEndVertex();
-            if (startVertex.GetFullID().equals(fullID_))
-                result.add(endVertex);
-            else if (endVertex.GetFullID().equals(fullID_) && !isDirected)
-                result.add(startVertex);
+            lock.__unlockRead();
         }
-        return result;
     }
 
     /**
@@ -173,26 +578,57 @@ public class Vertex implements IHasFullID
      */
     public String GetPropertyValue(String listName, String key)
     {
-        if (!properties_.containsKey(listName))
+        GraphLock lock = graph_.__getLock();
+        long stamp = lock.__tryOptimisticRead();
+        String value = getPropertyValue(listName, key);
+        if (lock.__validate(stamp))
+            return value;
+
+        lock.__lockRead();
+        try
+        {
+            return getPropertyValue(listName, key);
+        } finally
+        {
+            lock.__unlockRead();
+        }
+    }
+
+    private String getPropertyValue(String listName, String key)
+    {
+        // The properties are read once, since this may run while they change
+        PropertySet properties = properties_;
+        if (properties == null)
             return null;
-        if (!properties_.get(listName).containsKey(key))
+
+        int id = graph_.__getPropertyNames().__find(listName, key);
+        if (id < 0)
             return null;
 
-        return properties_.get(listName).get(key);
+        return properties.__get(id);
     }
 
     /**
-     * Gets the list for a custom property of a vertex specified by a list name
+     * Gets the list for a custom property of a vertex specified by a list name.
+     * It's a copy which doesn't change the vertex when changed.
      *
      * @param listName The list name.
      * @return null if not found
      */
     public Hashtable<String, String> GetPropertyList(String listName)
     {
-        if (properties_.containsKey(listName))
-            return properties_.get(listName);
-        else
-            return null;
+        GraphLock lock = graph_.__getLock();
+        lock.__lockRead();
+        try
+        {
+            if (properties_ == null)
+                return null;
+
+            return properties_.__getList(graph_.__getPropertyNames(), listName);
+        } finally
+        {
+            lock.__unlockRead();
+        }
     }
 
     /**
@@ -206,18 +642,40 @@ public class Vertex implements IHasFullID
     public void SetProperty(String listName, String key, String value,
                             boolean isRenderUpdateNeeded)
     {
-        __setProperty(listName, key, value);
-        graph_.__getCommandSender().__sendSetVertexPropertyCommand(this,
-                listName, key, value, isRenderUpdateNeeded);
+        GraphLock lock = graph_.__getLock();
+        lock.__lockWrite();
+        try
+        {
+            __setProperty(listName, key, value);
+            graph_.__getCommandSender().__sendSetVertexPropertyCommand(this,
+                    listName, key, value, isRenderUpdateNeeded);
+        } finally
+        {
+            lock.__unlockWrite();
+        }
     }
 
     public boolean IsConnectedTo(Vertex vertex)
     {
-        for (Edge edge : edges_)
-            if (edge.GetStartVertex().GetFullID().equals(vertex.GetFullID()) ||
-                    edge.GetEndVertex().GetFullID().equals(vertex.GetFullID()))
-                return true;
+        GraphLock lock = graph_.__getLock();
+        lock.__lockRead();
+        try
+        {
+            if (vertex.GetFullID().equals(fullID_))
+                return !edges_.isEmpty();
+
+            if (adjacencyIndex_ != null)
+                return adjacencyIndex_.__contains(vertex.GetFullID());
+
+            for (Edge edge : edges_)
+                if (edge.GetStartVertex().GetFullID().equals(vertex.GetFullID()) ||
+                        edge.GetEndVertex().GetFullID().equals(vertex.GetFullID()))
+                    return true;
 
-        return false;
+            return false;
+        } finally
+        {
+            lock.__unlockRead();
+        }
     }
 }
\ No newline at end of file
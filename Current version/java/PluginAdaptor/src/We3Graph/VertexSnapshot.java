@@ -0,0 +1,114 @@
+package We3Graph;
+
+import We3Graph.IDSystem.FullID;
+
+import java.util.Hashtable;
+
+/**
+ * The state of a vertex in a GraphSnapshot, which doesn't change when the vertex does
+ */
+public class VertexSnapshot
+{
+    private FullID fullID_;
+    private double x_;
+    private double y_;
+    private double z_;
+    private double rotationX_;
+    private double rotationY_;
+    private double rotationZ_;
+    private double rotationW_;
+    private double scale_;
+    private PropertySet properties_;
+    private PropertyNames names_;
+    // The full IDs of the edges of the vertex
+    private PersistentIDMap<Boolean> edgeIDs_;
+
+    VertexSnapshot(FullID fullID, double[] position, Point4D rotation, double scale,
+                   PropertySet properties, PropertyNames names,
+                   PersistentIDMap<Boolean> edgeIDs)
+    {
+        fullID_ = fullID;
+        x_ = position[0];
+        y_ = position[1];
+        z_ = position[2];
+        rotationX_ = rotation.GetX();
+        rotationY_ = rotation.GetY();
+        rotationZ_ = rotation.GetZ();
+        rotationW_ = rotation.GetW();
+        scale_ = scale;
+        properties_ = properties;
+        names_ = names;
+        edgeIDs_ = edgeIDs;
+    }
+
+    /**
+     * @return null if the vertex has no properties
+     */
+    PropertySet __getProperties()
+    {
+        return properties_;
+    }
+
+    PersistentIDMap<Boolean> __getEdgeIDs()
+    {
+        return edgeIDs_;
+    }
+
+    public FullID GetFullID()
+    {
+        return fullID_;
+    }
+
+    public Point3D GetPosition()
+    {
+        return new Point3D(x_, y_, z_);
+    }
+
+    public Point4D GetRotation()
+    {
+        return new Point4D(rotationX_, rotationY_, rotationZ_, rotationW_);
+    }
+
+    public double GetScale()
+    {
+        return scale_;
+    }
+
+    public int GetEdgeCount()
+    {
+        return edgeIDs_.__getCount();
+    }
+
+    /**
+     * Gets the value for a custom property of the vertex specified by a list name and a key
+     *
+     * @param listName The list name. Use 'None' if there is no list.
+     * @param key      The key for the property.
+     * @return null if not found
+     */
+    public String GetPropertyValue(String listName, String key)
+    {
+        if (properties_ == null)
+            return null;
+
+        int id = names_.__find(listName, key);
+        if (id < 0)
+            return null;
+
+        return properties_.__get(id);
+    }
+
+    /**
+     * Gets the list for a custom property of the vertex specified by a list name
+     *
+     * @param listName The list name.
+     * @return null if not found
+     */
+    public Hashtable<String, String> GetPropertyList(String listName)
+    {
+        if (properties_ == null)
+            return null;
+
+        return properties_.__getList(names_, listName);
+    }
+}
@@ -0,0 +1,488 @@
+package We3Graph;
+
+import We3Graph.EventListeners.EdgeEventListener;
+import We3Graph.EventListeners.VertexEventListener;
+import We3Graph.IDSystem.FullID;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A stress test of the concurrent access to a graph, run as a standalone program.
+ * It's in the test source root, so it's not part of the plugin adaptor.
+ * Reader threads walk the graph while the commands of another client are received
+ * and the application edits it, against a web service kept in memory.
+ * It exits with status 1 if a thread fails or sees the graph in an inconsistent state.
+ * <p>
+ * Usage: java We3Graph.StressTest [readers] [seconds] [vertices] [edges]
+ */
+public class StressTest
+{
+    // The client which created the graph and keeps changing it
+    private static final int REMOTE_CLIENT_ID = 1;
+
+    private static final AtomicBoolean isStopped_ = new AtomicBoolean();
+    private static final AtomicLong failureCount_ = new AtomicLong();
+
+    public static void main(String[] args) throws Exception
+    {
+        int readerCount = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        final int vertexCount = args.length > 2 ? Integer.parseInt(args[2]) : 20000;
+        final int edgeCount = args.length > 3 ? Integer.parseInt(args[3]) : 40000;
+
+        final MemoryWebService webService = new MemoryWebService();
+        webService.generate(vertexCount, edgeCount, new Random(7));
+
+        SystemManager systemManager = new SystemManager("memory:/", webService);
+        systemManager.Login("user", "password");
+        final Graph graph = systemManager.StartGraph(1, true, true);
+        if (graph.GetVertices().size() != vertexCount)
+            fail("Loaded " + graph.GetVertices().size() + " of " + vertexCount + " vertices");
+
+        final AtomicLong appliedCount = new AtomicLong();
+        graph.VertexMoved = new VertexEventListener()
+        {
+            public void OnVertexEvent(Vertex vertex)
+            {
+                appliedCount.incrementAndGet();
+            }
+        };
+        graph.EdgeAdded = new EdgeEventListener()
+        {
+            public void OnEdgeEvent(Edge edge)
+            {
+                appliedCount.incrementAndGet();
+            }
+        };
+        graph.EdgeRemoved = new EdgeEventListener()
+        {
+            public void OnEdgeEvent(Edge edge)
+            {
+                appliedCount.incrementAndGet();
+            }
+        };
+
+        ArrayList<Thread> threads = new ArrayList<Thread>();
+        threads.add(new Thread("Remote client")
+        {
+            public void run()
+            {
+                changeRemotely(webService, vertexCount, edgeCount);
+            }
+        });
+        threads.add(new Thread("Editor")
+        {
+            public void run()
+            {
+                edit(graph);
+            }
+        });
+
+        final AtomicLong passCount = new AtomicLong();
+        for (int i = 0; i < readerCount; i++)
+        {
+            final int kind = i;
+            threads.add(new Thread("Reader " + i)
+            {
+                public void run()
+                {
+                    read(graph, kind, vertexCount, passCount);
+                }
+            });
+        }
+
+        for (Thread thread : threads)
+            thread.start();
+        Thread.sleep(seconds * 1000L);
+        isStopped_.set(true);
+        for (Thread thread : threads)
+        {
+            thread.join(10000);
+            if (thread.isAlive())
+            {
+                fail(thread.getName() + " didn't stop, so it may be deadlocked");
+                System.exit(1);
+            }
+        }
+
+        graph.Finish(true);
+        checkGraph(graph);
+
+        System.out.printf("%d readers: %.1f passes/s, %.0f received commands applied/s, " +
+                        "%d failures%n", readerCount, passCount.get() / (double) seconds,
+                appliedCount.get() / (double) seconds, failureCount_.get());
+        System.exit(failureCount_.get() == 0 ? 0 : 1);
+    }
+
+    /**
+     * Adds moves, edge insertions and edge removals of the remote client in batches
+     */
+    private static void changeRemotely(MemoryWebService webService, int vertexCount,
+                                       int edgeCount)
+    {
+        Random random = new Random(3);
+        int lastEdgeID = edgeCount;
+        ArrayDeque<Integer> edgeIDs = new ArrayDeque<Integer>();
+        for (int i = 1; i <= edgeCount; i++)
+            edgeIDs.add(i);
+
+        while (!isStopped_.get())
+        {
+            synchronized (webService)
+            {
+                for (int i = 0; i < 200; i++)
+                {
+                    int choice = random.nextInt(10);
+                    if (choice < 8)
+                        webService.addCommand(REMOTE_CLIENT_ID, "MoveVertex",
+                                vertexID(random, vertexCount), "" + random.nextDouble(),
+                                "" + random.nextDouble(), "" + random.nextDouble());
+                    else if (choice == 8 || edgeIDs.isEmpty())
+                    {
+                        lastEdgeID++;
+                        edgeIDs.add(lastEdgeID);
+                        webService.addCommand(REMOTE_CLIENT_ID, "InsertEdge",
+                                vertexID(random, vertexCount), vertexID(random, vertexCount),
+                                "" + lastEdgeID);
+                    } else
+                        webService.addCommand(REMOTE_CLIENT_ID, "RemoveEdge",
+                                REMOTE_CLIENT_ID + "-" + edgeIDs.poll());
+                }
+            }
+
+            sleep(2);
+        }
+    }
+
+    /**
+     * Changes the graph as an application would, one vertex or edge at a time and
+     * sometimes all vertices at once
+     */
+    private static void edit(Graph graph)
+    {
+        Random random = new Random(5);
+        ArrayList<Vertex> vertices = graph.GetVertices();
+        while (!isStopped_.get())
+        {
+            try
+            {
+                Vertex vertex = vertices.get(random.nextInt(vertices.size()));
+                vertex.Move(new Point3D(random.nextDouble(), random.nextDouble(), 0));
+
+                if (random.nextInt(50) == 0)
+                {
+                    Edge edge = vertex.ConnectTo(vertices.get(random.nextInt(vertices.size())));
+                    edge.Remove();
+                }
+
+                if (random.nextInt(5000) == 0)
+                {
+                    double[] positions = graph.GetVertexPositions(null);
+                    for (int i = 2; i < positions.length; i += 3)
+                        positions[i] += 1;
+                    graph.MoveVertices(positions);
+                }
+            } catch (Throwable e)
+            {
+                fail(e);
+            }
+
+            sleep(1);
+        }
+    }
+
+    /**
+     * Reads the graph in one of several ways depending on the kind of the reader
+     */
+    private static void read(Graph graph, int kind, int vertexCount, AtomicLong passCount)
+    {
+        Random random = new Random(kind);
+        while (!isStopped_.get())
+        {
+            try
+            {
+                switch (kind % 4)
+                {
+                    case 0:
+                        graph.LockRead();
+                        try
+                        {
+                            checkGraph(graph);
+                        } finally
+                        {
+                            graph.UnlockRead();
+                        }
+                        break;
+                    case 1:
+                        CSRGraphView view = graph.FreezeToCSR(false, true);
+                        int[] offsets = view.GetOffsets();
+                        if (offsets[view.GetVertexCount()] != view.GetTargets().length)
+                            fail("The offsets of a CSR view don't match its targets");
+                        break;
+                    case 2:
+                        graph.LockRead();
+                        try
+                        {
+                            Point3D point = new Point3D(random.nextDouble(),
+                                    random.nextDouble(), random.nextDouble());
+                            int count = graph.GetSpatialIndex()
+                                    .GetNearestVertices(point, 10).size();
+                            if (count != Math.min(10, vertexCount))
+                                fail("The spatial index found " + count + " nearest vertices");
+                        } finally
+                        {
+                            graph.UnlockRead();
+                        }
+                        break;
+                    default:
+                        graph.LockRead();
+                        try
+                        {
+                            checkSnapshot(graph.Snapshot(), vertexCount, random);
+                        } finally
+                        {
+                            graph.UnlockRead();
+                        }
+                        break;
+                }
+
+                passCount.incrementAndGet();
+            } catch (Throwable e)
+            {
+                fail(e);
+            }
+        }
+    }
+
+    /**
+     * Checks that the indices of the vertices and their edges agree.
+     * The graph should not change meanwhile.
+     */
+    private static void checkGraph(Graph graph)
+    {
+        ArrayList<Vertex> vertices = graph.GetVertices();
+        for (int i = 0; i < vertices.size(); i++)
+        {
+            Vertex vertex = vertices.get(i);
+            if (vertex.GetIndex() != i)
+            {
+                fail("Vertex " + vertex.GetFullID() + " has index " + vertex.GetIndex() +
+                        " instead of " + i);
+                return;
+            }
+
+            for (Edge edge : vertex.GetEdges())
+                if (edge.GetStartVertex() != vertex && edge.GetEndVertex() != vertex)
+                {
+                    fail("Edge " + edge.GetFullID() + " is not an edge of vertex " +
+                            vertex.GetFullID());
+                    return;
+                }
+        }
+    }
+
+    /**
+     * Checks that the edges of a few vertices of a snapshot are in it
+     */
+    private static void checkSnapshot(GraphSnapshot snapshot, int vertexCount, Random random)
+    {
+        if (snapshot.GetVertexCount() != vertexCount)
+            fail("A snapshot has " + snapshot.GetVertexCount() + " vertices");
+
+        for (int i = 0; i < 100; i++)
+        {
+            FullID fullID = new FullID(REMOTE_CLIENT_ID, 1 + random.nextInt(vertexCount));
+            VertexSnapshot vertex = snapshot.GetVertex(fullID);
+            for (EdgeSnapshot edge : snapshot.GetEdges(vertex))
+                if (edge == null || (!edge.GetStartVertexID().equals(fullID) &&
+                        !edge.GetEndVertexID().equals(fullID)))
+                {
+                    fail("A snapshot has a wrong edge of vertex " + fullID);
+                    return;
+                }
+        }
+    }
+
+    private static String vertexID(Random random, int vertexCount)
+    {
+        return REMOTE_CLIENT_ID + "-" + (1 + random.nextInt(vertexCount));
+    }
+
+    private static void sleep(int milliseconds)
+    {
+        try
+        {
+            Thread.sleep(milliseconds);
+        } catch (InterruptedException e)
+        {
+        }
+    }
+
+    private static void fail(String message)
+    {
+        if (failureCount_.incrementAndGet() <= 10)
+            System.err.println(Thread.currentThread().getName() + ": " + message);
+    }
+
+    private static void fail(Throwable e)
+    {
+        if (failureCount_.incrementAndGet() <= 10)
+        {
+            System.err.print(Thread.currentThread().getName() + ": ");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * The part of the web service used by a graph, which keeps a single graph in memory.
+     * It's used as the transport of the SystemManager, so no request leaves the process.
+     */
+    private static class MemoryWebService implements IHTTPTransport
+    {
+        private static final int MAX_WAIT_TIMEOUT = 1;
+
+        private ArrayList<JSONObject> commands_ = new ArrayList<JSONObject>();
+        private int nextClientID_ = REMOTE_CLIENT_ID + 1;
+
+        /**
+         * Adds the commands of a graph with random vertices and edges
+         */
+        synchronized void generate(int vertexCount, int edgeCount, Random random)
+        {
+            for (int i = 1; i <= vertexCount; i++)
+                addCommand(REMOTE_CLIENT_ID, "InsertVertex", "" + i, "" + random.nextDouble(),
+                        "" + random.nextDouble(), "" + random.nextDouble());
+            for (int i = 1; i <= edgeCount; i++)
+                addCommand(REMOTE_CLIENT_ID, "InsertEdge", vertexID(random, vertexCount),
+                        vertexID(random, vertexCount), "" + i);
+        }
+
+        synchronized void addCommand(int clientID, String name, String... parameters)
+        {
+            JSONObject command = new JSONObject();
+            command.put("ID", commands_.size() + 1);
+            command.put("Name", name);
+            command.put("ClientID", clientID);
+            for (int i = 0; i < 5; i++)
+                command.put("Param" + (i + 1), i < parameters.length ? parameters[i] : "");
+            commands_.add(command);
+
+            notifyAll();
+        }
+
+        public HTTPResponse Send(String method, String url, Hashtable<String, String> headers,
+                                 byte[] body) throws IOException
+        {
+            String path = url.substring(url.indexOf(':') + 2);
+            Hashtable<String, String> parameters = new Hashtable<String, String>();
+            int queryStart = path.indexOf('?');
+            if (queryStart >= 0)
+            {
+                for (String parameter : path.substring(queryStart + 1).split("&"))
+                {
+                    String[] pair = parameter.split("=", 2);
+                    parameters.put(URLDecoder.decode(pair[0], "UTF-8"),
+                            URLDecoder.decode(pair[1], "UTF-8"));
+                }
+                path = path.substring(0, queryStart);
+            }
+
+            if (path.equals("who-tokens"))
+                return respond(200, "{\"UserID\":1,\"WhoToken\":\"who\"}");
+            if (path.equals("graph-access-tokens"))
+                return respond(200, "{\"GraphAccessToken\":\"access\"}");
+            if (path.equals("clients"))
+                return respond(200, "{\"CreatedClientID\":" + createClientID() + "}");
+            if (path.equals("capabilities"))
+                return respond(200, new JSONObject().put("CommandBatches", true)
+                        .put("MaxCommandsPerBatch", 1000).put("LongPolling", true)
+                        .put("MaxWaitTimeout", MAX_WAIT_TIMEOUT).toString());
+            if (path.equals("commands") && method.equals("GET"))
+                return respond(200, getCommands(
+                        Integer.parseInt(parameters.get("LastCommandID")),
+                        parameters.containsKey("WaitTimeout")).toString());
+            if (path.equals("commands") && method.equals("POST"))
+                return respond(200, addCommands(
+                        new JSONObject(new String(body, StandardCharsets.UTF_8))).toString());
+
+            return respond(404, "{}");
+        }
+
+        public void Close()
+        {
+        }
+
+        private synchronized int createClientID()
+        {
+            return nextClientID_++;
+        }
+
+        /**
+         * Gets a page of the commands after a command, waiting for one if asked
+         */
+        private synchronized JSONArray getCommands(int lastCommandID, boolean isWaiting)
+        {
+            long waitEnd = System.currentTimeMillis() + MAX_WAIT_TIMEOUT * 1000;
+            while (isWaiting && commands_.size() <= lastCommandID &&
+                    System.currentTimeMillis() < waitEnd)
+                try
+                {
+                    wait(waitEnd - System.currentTimeMillis());
+                } catch (InterruptedException e)
+                {
+                    break;
+                }
+
+            JSONArray result = new JSONArray();
+            for (int i = lastCommandID; i < Math.min(commands_.size(), lastCommandID + 100); i++)
+                result.put(commands_.get(i));
+
+            return result;
+        }
+
+        private synchronized JSONObject addCommands(JSONObject request)
+        {
+            int clientID = request.getInt("ClientID");
+            if (!request.has("Commands"))
+            {
+                addCommand(clientID, request);
+                return new JSONObject().put("Result", "Finished successfully");
+            }
+
+            JSONArray commands = request.getJSONArray("Commands");
+            JSONArray results = new JSONArray();
+            for (int i = 0; i < commands.length(); i++)
+            {
+                addCommand(clientID, commands.getJSONObject(i));
+                results.put(new JSONObject().put("Result", "Finished successfully"));
+            }
+
+            return new JSONObject().put("Results", results);
+        }
+
+        private void addCommand(int clientID, JSONObject command)
+        {
+            addCommand(clientID, command.getString("CommandName"),
+                    command.getString("Param1"), command.getString("Param2"),
+                    command.getString("Param3"), command.getString("Param4"),
+                    command.getString("Param5"));
+        }
+
+        private static HTTPResponse respond(int statusCode, String body)
+        {
+            return new HTTPResponse(statusCode, new Hashtable<String, String>(),
+                    new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+        }
+    }
+}
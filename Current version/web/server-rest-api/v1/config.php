@@ -29,4 +29,44 @@ define('DB_NAME', 'we3graph');
  * The email used as sender when sending the reset password email
  */
 define('RESET_EMAIL', 'passwordreset@localhost');
+
+/**
+ * The maximum number of commands accepted in a single batch request
+ */
+define('MAX_COMMANDS_PER_BATCH', 1000);
+
+/**
+ * The maximum time in seconds a request for commands can wait for new commands
+ */
+define('MAX_WAIT_TIMEOUT', 25);
+
+/**
+ * The interval in microseconds between checks for new commands while a
+ * request for commands is waiting. A check reads only the last command ID
+ * of the graph, so it's cheap enough to keep new commands under 20 ms late.
+ */
+define('WAIT_CHECK_INTERVAL', 10000);
+
+/**
+ * The maximum number of commands returned by a single request for commands
+ */
+define('MAX_PAGE_SIZE', 10000);
+
+/**
+ * The minimum number of commands replayed while building a snapshot of a
+ * graph for the snapshot to be saved so later requests start from it
+ */
+define('SNAPSHOT_MIN_COMMANDS', 100);
+
+/**
+ * The minimum size in bytes of a response to be compressed for clients
+ * which accept compressed responses
+ */
+define('RESPONSE_COMPRESSION_THRESHOLD', 1024);
+
+/**
+ * The maximum size in bytes of a compressed request body after it is
+ * decompressed
+ */
+define('MAX_DECOMPRESSED_BODY_SIZE', 67108864);
 ?>
\ No newline at end of file
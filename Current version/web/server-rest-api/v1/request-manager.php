@@ -22,6 +22,9 @@ class RequestManager
         $this->router_ = new RESTRouter();
         $this->router_->AddMapping('GET', '/commands', 'ServiceCore', 'GetCommands');
         $this->router_->AddMapping('POST', '/commands', 'ServiceCore', 'AddCommand');
+        $this->router_->AddMapping('GET', '/command-pages', 'ServiceCore', 'GetCommandPages');
+        $this->router_->AddMapping('GET', '/snapshots', 'ServiceCore', 'GetSnapshot');
+        $this->router_->AddMapping('GET', '/capabilities', 'ServiceCore', 'GetCapabilities', false);
         $this->router_->AddMapping('POST', '/graphs', 'ServiceCore', 'CreateGraph');
         $this->router_->AddMapping('POST', '/folders', 'ServiceCore', 'CreateFolder');
         $this->router_->AddMapping('GET', '/folders', 'ServiceCore', 'GetFolders');
@@ -54,6 +57,9 @@ class RequestManager
     {
         header('Content-Type: application/json');
 
+        // The whole response is buffered so it can be compressed at once
+        ob_start(array(__NAMESPACE__ . '\\Utilities', 'CompressOutput'));
+
         $action = $_SERVER['REQUEST_METHOD'];
         $action = strtoupper($action);
 
@@ -120,6 +126,11 @@ class RequestManager
 
 
             $requestBody = file_get_contents("php://input");
+
+            if (isset($_SERVER['HTTP_CONTENT_ENCODING']))
+                $requestBody = Utilities::DecompressRequestBody($requestBody,
+                    $_SERVER['HTTP_CONTENT_ENCODING']);
+
             $decodedJSONBody = json_decode($requestBody);
             if (json_last_error() != JSON_ERROR_NONE)
             {
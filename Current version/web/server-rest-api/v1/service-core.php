@@ -4,6 +4,7 @@ namespace We3Graph\RestAPI;
 require_once 'utilities.php';
 require_once 'permission-types.php';
 require_once 'auth-manager.php';
+require_once 'snapshot-builder.php';
 
 /**
  * Class ServiceCore
@@ -18,6 +19,12 @@ class ServiceCore
 {
     public static function AddCommand($arguments)
     {
+        if (isset($arguments['Commands']))
+        {
+            self::addCommands($arguments);
+            return;
+        }
+
         $requiredArguments = array('CommandName', 'GraphID', 'ClientID',
             'GraphAccessToken');
         Utilities::CheckRequiredArguments($requiredArguments, $arguments);
@@ -32,30 +39,35 @@ class ServiceCore
         Utilities::ValidateInteger($graphID, 'GraphID');
         Utilities::ValidateInteger($clientID, 'ClientID');
 
+        // Clients which retry sending commands number them with Sequence,
+        // so a command added by an attempt whose response was lost is not
+        // added again
+        $sequence = null;
+        if (isset($arguments['Sequence']))
+        {
+            $sequence = $arguments['Sequence'];
+            Utilities::ValidateInteger($sequence, 'Sequence');
+        }
+
         $userID = $arguments['UserID'];
 
         $mysqli = Utilities::getConnection();
 
-        $query = 'Select ID from clients where ID= ? and UserID= ? and GraphID = ?';
-        $stmt = $mysqli->prepare($query);
-        $stmt->bind_param('isi', $clientID, $userID, $graphID);
-        $stmt->bind_result($id);
+        self::verifyClient($mysqli, $clientID, $userID, $graphID);
 
-        if (!$stmt->execute())
-        {
-            $errorMessage = 'Error in executing MySQL query';
-            Utilities::FatalError(400, 'E4001', $errorMessage);
-        }
+        $mysqli->begin_transaction();
 
-        if (!$stmt->fetch())
+        self::lockGraphCommands($mysqli, $graphID);
+
+        if ($sequence !== null &&
+            $sequence <= self::getLastSequence($mysqli, $clientID)
+        )
         {
-            $errorMessage = 'Access denied.';
-            Utilities::FatalError(403, 'E4002', $errorMessage);
+            $mysqli->commit();
+            echo json_encode(array('Result' => 'Finished successfully'));
+            return;
         }
 
-        $stmt->close();
-
-
         $paramsCount = count($params);
         for ($index = $paramsCount; $index < 5; $index++)
             array_push($params, '');
@@ -77,9 +89,145 @@ class ServiceCore
 
         self::quickCompact($mysqli, $commandID, $commandName, $params);
 
+        self::setLastCommandID($mysqli, $graphID, $commandID);
+
+        if ($sequence !== null)
+            self::setLastSequence($mysqli, $clientID, $sequence);
+
+        $mysqli->commit();
+
         echo json_encode(array('Result' => 'Finished successfully'));
     }
 
+    /**
+     * Adds a batch of commands passed as an array in the Commands argument.
+     * Each item has CommandName and Param1 to Param5. The commands are added in
+     * the order of the array. An invalid command doesn't stop the others and
+     * the result of each command is reported at the same index of Results.
+     * An item can have a Sequence like the one of AddCommand.
+     */
+    private static function addCommands($arguments)
+    {
+        $requiredArguments = array('Commands', 'GraphID', 'ClientID',
+            'GraphAccessToken');
+        Utilities::CheckRequiredArguments($requiredArguments, $arguments);
+
+        AuthManager::VerifyGraphAccessToken($arguments, PermissionTypes::WRITE_ACCESS);
+
+        $commands = $arguments['Commands'];
+        $graphID = $arguments['GraphID'];
+        $clientID = $arguments['ClientID'];
+
+        if (!is_array($commands))
+        {
+            $errorMessage = 'Commands is not in correct format';
+            Utilities::FatalError(400, 'E4041', $errorMessage);
+        }
+
+        if (count($commands) > MAX_COMMANDS_PER_BATCH)
+        {
+            $errorMessage = 'Too many commands in a batch';
+            Utilities::FatalError(400, 'E4042', $errorMessage);
+        }
+
+        Utilities::ValidateInteger($graphID, 'GraphID');
+        Utilities::ValidateInteger($clientID, 'ClientID');
+
+        $userID = $arguments['UserID'];
+
+        $mysqli = Utilities::getConnection();
+
+        self::verifyClient($mysqli, $clientID, $userID, $graphID);
+
+        $query = 'Insert into commands (GraphID,Name,ClientID,Param1,Param2,Param3,Param4,Param5) values(?,?,?,?,?,?,?,?)';
+        $stmt = $mysqli->prepare($query);
+        $stmt->bind_param('isisssss', $graphID, $commandName, $clientID,
+            $param1, $param2, $param3, $param4, $param5);
+
+        $mysqli->begin_transaction();
+
+        self::lockGraphCommands($mysqli, $graphID);
+
+        $lastSequence = self::getLastSequence($mysqli, $clientID);
+        $newLastSequence = $lastSequence;
+        $lastCommandID = null;
+
+        $results = array();
+
+        foreach ($commands as $command)
+        {
+            $command = (array)$command;
+
+            if (isset($command['Sequence']))
+            {
+                $sequence = $command['Sequence'];
+                if (filter_var($sequence, FILTER_VALIDATE_INT) === false)
+                {
+                    $error = array('Code' => 'E4051',
+                        'Message' => 'Sequence is not in correct format');
+                    $results[] = array('Error' => $error);
+                    continue;
+                }
+
+                if ($sequence <= $lastSequence)
+                {
+                    $results[] = array('Result' => 'Finished successfully');
+                    continue;
+                }
+
+                $newLastSequence = max($newLastSequence, intval($sequence));
+            }
+
+            $commandName = '';
+            if (isset($command['CommandName']))
+                $commandName = $command['CommandName'];
+
+            $error = null;
+            $params = Utilities::CheckCommand($commandName, $command, $error);
+            if ($error !== null)
+            {
+                $results[] = array('Error' => $error);
+                continue;
+            }
+
+            $paramsCount = count($params);
+            for ($index = $paramsCount; $index < 5; $index++)
+                array_push($params, '');
+
+            $param1 = $params[0];
+            $param2 = $params[1];
+            $param3 = $params[2];
+            $param4 = $params[3];
+            $param5 = $params[4];
+
+            if (!$stmt->execute())
+            {
+                $mysqli->rollback();
+                $errorMessage = 'Error in executing MySQL query';
+                Utilities::FatalError(500, 'E4043', $errorMessage);
+            }
+
+            $commandID = $mysqli->insert_id;
+            $lastCommandID = $commandID;
+
+            self::quickCompact($mysqli, $commandID, $commandName, $params);
+
+            $results[] = array('Result' => 'Finished successfully');
+        }
+
+        $stmt->close();
+
+        if ($lastCommandID !== null)
+            self::setLastCommandID($mysqli, $graphID, $lastCommandID);
+
+        if ($newLastSequence != $lastSequence)
+            self::setLastSequence($mysqli, $clientID, $newLastSequence);
+
+        $mysqli->commit();
+
+        echo json_encode(array('Results' => $results));
+    }
+
     public static function GetCommands($arguments)
     {
         $requiredArguments = array('GraphID', 'LastCommandID', 'GraphAccessToken');
@@ -100,15 +248,239 @@ class ServiceCore
                 $shouldProcessInEffective = true;
         }
 
+        // With WaitTimeout (in seconds) the request is held until there are
+        // new commands or the timeout passes
+        $waitTimeout = 0;
+        if (isset($arguments['WaitTimeout']))
+        {
+            $waitTimeout = $arguments['WaitTimeout'];
+            Utilities::ValidateInteger($waitTimeout, 'WaitTimeout');
+            $waitTimeout = min(max(intval($waitTimeout), 0), MAX_WAIT_TIMEOUT);
+        }
+
+        $pageSize = 100;
+        if (isset($arguments['PageSize']))
+        {
+            $pageSize = $arguments['PageSize'];
+            Utilities::ValidateInteger($pageSize, 'PageSize');
+            $pageSize = min(max(intval($pageSize), 1), MAX_PAGE_SIZE);
+        }
+
+        // With UntilCommandID only the commands up to that ID are returned,
+        // which lets clients request separate pages in parallel
+        $untilCommandID = null;
+        if (isset($arguments['UntilCommandID']))
+        {
+            $untilCommandID = $arguments['UntilCommandID'];
+            Utilities::ValidateInteger($untilCommandID, 'UntilCommandID');
+        }
+
         $mysqli = Utilities::getConnection();
 
+        // Read before the commands, so that no command added meanwhile is missed
+        $graphLastCommandID = null;
+        if ($waitTimeout > 0)
+            $graphLastCommandID = self::getLastCommandID($mysqli, $graphID);
+
+        $query = 'Select CommandID,Name,ClientID,Param1,Param2,Param3,Param4,Param5 from commands where GraphID=? and CommandID>?';
+        if ($untilCommandID !== null)
+            $query .= ' and CommandID<=?';
+        if (!$shouldProcessInEffective)
+            $query .= ' and IsEffective=1';
+        $query .= ' order by CommandID limit 0,' . $pageSize;
+
+        $result = self::queryCommands($mysqli, $query, $graphID, $lastCommandID,
+            $untilCommandID);
+
+        if ($waitTimeout > 0)
+        {
+            set_time_limit($waitTimeout + 30);
+            $waitUntil = microtime(true) + $waitTimeout;
+            while (count($result) == 0 && microtime(true) < $waitUntil)
+            {
+                usleep(WAIT_CHECK_INTERVAL);
+
+                // The commands are queried again only when some were added
+                $newLastCommandID = self::getLastCommandID($mysqli, $graphID);
+                if ($newLastCommandID == $graphLastCommandID)
+                    continue;
+
+                $graphLastCommandID = $newLastCommandID;
+                $result = self::queryCommands($mysqli, $query, $graphID,
+                    $lastCommandID, $untilCommandID);
+            }
+        }
+
+        echo json_encode($result);
+    }
+
+    /**
+     * Returns the information about optional features supported by this
+     * web service so that clients can decide which ones to use
+     */
+    public static function GetCapabilities($arguments)
+    {
+        echo json_encode(array(
+            'CommandBatches' => true,
+            'MaxCommandsPerBatch' => MAX_COMMANDS_PER_BATCH,
+            'LongPolling' => true,
+            'MaxWaitTimeout' => MAX_WAIT_TIMEOUT,
+            'CommandPages' => true,
+            'MaxPageSize' => MAX_PAGE_SIZE,
+            'Snapshots' => true,
+            'CommandSequences' => true,
+            'RequestCompression' => function_exists('gzdecode')));
+    }
 
-        $query = 'Select CommandID,Name,ClientID,Param1,Param2,Param3,Param4,Param5 from commands where GraphID=? and CommandID>? and IsEffective=1 order by CommandID limit 0,100';
-        if ($shouldProcessInEffective)
-            $query = 'Select CommandID,Name,ClientID,Param1,Param2,Param3,Param4,Param5 from commands where GraphID=? and CommandID>? order by CommandID limit 0,100';
+    /**
+     * Splits the effective commands after LastCommandID into pages of
+     * PageSize commands and returns the boundaries of the pages.
+     * Page i has the commands after Boundaries[i] up to Boundaries[i + 1],
+     * which can be requested by GetCommands using LastCommandID and
+     * UntilCommandID.
+     */
+    public static function GetCommandPages($arguments)
+    {
+        $requiredArguments = array('GraphID', 'LastCommandID', 'PageSize',
+            'GraphAccessToken');
+        Utilities::CheckRequiredArguments($requiredArguments, $arguments);
 
+        AuthManager::VerifyGraphAccessToken($arguments, PermissionTypes::READ_ONLY_ACCESS);
+
+        $graphID = $arguments['GraphID'];
+        $lastCommandID = $arguments['LastCommandID'];
+        $pageSize = $arguments['PageSize'];
+
+        Utilities::ValidateInteger($graphID, 'GraphID');
+        Utilities::ValidateInteger($lastCommandID, 'LastCommandID');
+        Utilities::ValidateInteger($pageSize, 'PageSize');
+
+        $pageSize = min(max(intval($pageSize), 1), MAX_PAGE_SIZE);
+
+        $mysqli = Utilities::getConnection();
+
+        $query = 'Select CommandID from commands where GraphID=? and CommandID>? and IsEffective=1 order by CommandID';
         $stmt = $mysqli->prepare($query);
         $stmt->bind_param('ii', $graphID, $lastCommandID);
+        $stmt->bind_result($commandID);
+
+        if (!$stmt->execute())
+        {
+            $errorMessage = 'Error in executing MySQL query';
+            Utilities::FatalError(500, 'E4044', $errorMessage);
+        }
+
+        $boundaries = array(intval($lastCommandID));
+        $count = 0;
+
+        while ($stmt->fetch())
+        {
+            $count++;
+            if ($count % $pageSize == 0)
+                $boundaries[] = $commandID;
+        }
+
+        if ($count % $pageSize != 0)
+            $boundaries[] = $commandID;
+
+        $stmt->close();
+
+        echo json_encode(array('Boundaries' => $boundaries));
+    }
+
+    /**
+     * Returns the current state of a graph as the shortest list of commands
+     * that recreates it, along with the ID of the last command it reflects.
+     * Clients can load it instead of all the commands and continue getting
+     * commands after LastCommandID.
+     * The state is cached in the snapshots table, so only the commands added
+     * after the cached state are replayed.
+     */
+    public static function GetSnapshot($arguments)
+    {
+        $requiredArguments = array('GraphID', 'GraphAccessToken');
+        Utilities::CheckRequiredArguments($requiredArguments, $arguments);
+
+        AuthManager::VerifyGraphAccessToken($arguments, PermissionTypes::READ_ONLY_ACCESS);
+
+        $graphID = $arguments['GraphID'];
+
+        Utilities::ValidateInteger($graphID, 'GraphID');
+
+        $mysqli = Utilities::getConnection();
+
+        $query = 'Select CommandID,State from snapshots where GraphID=?';
+        $stmt = $mysqli->prepare($query);
+        $stmt->bind_param('i', $graphID);
+        $stmt->bind_result($cachedCommandID, $cachedState);
+
+        if (!$stmt->execute())
+        {
+            $errorMessage = 'Error in executing MySQL query';
+            Utilities::FatalError(500, 'E4045', $errorMessage);
+        }
+
+        $lastCommandID = 0;
+        $state = SnapshotBuilder::CreateEmptyState();
+        if ($stmt->fetch())
+        {
+            $lastCommandID = $cachedCommandID;
+            $state = json_decode($cachedState, true);
+        }
+
+        $stmt->close();
+
+        $query = 'Select CommandID,Name,ClientID,Param1,Param2,Param3,Param4,Param5 from commands where GraphID=? and CommandID>? and IsEffective=1 order by CommandID';
+        $stmt = $mysqli->prepare($query);
+        $stmt->bind_param('ii', $graphID, $lastCommandID);
+        $stmt->bind_result($commandID, $name, $clientID, $param1, $param2,
+            $param3, $param4, $param5);
+
+        if (!$stmt->execute())
+        {
+            $errorMessage = 'Error in executing MySQL query';
+            Utilities::FatalError(500, 'E4046', $errorMessage);
+        }
+
+        $replayedCount = 0;
+        while ($stmt->fetch())
+        {
+            SnapshotBuilder::ApplyCommand($state, $name, $clientID,
+                array($param1, $param2, $param3, $param4, $param5));
+            $lastCommandID = $commandID;
+            $replayedCount++;
+        }
+
+        $stmt->close();
+
+        if ($replayedCount >= SNAPSHOT_MIN_COMMANDS)
+        {
+            $encodedState = json_encode($state);
+            $query = 'Replace into snapshots (GraphID,CommandID,State) values(?,?,?)';
+            $stmt = $mysqli->prepare($query);
+            $stmt->bind_param('iis', $graphID, $lastCommandID, $encodedState);
+
+            if (!$stmt->execute())
+            {
+                $errorMessage = 'Error in executing MySQL query';
+                Utilities::FatalError(500, 'E4047', $errorMessage);
+            }
+
+            $stmt->close();
+        }
+
+        echo json_encode(array('LastCommandID' => intval($lastCommandID),
+            'Commands' => SnapshotBuilder::ToCommands($state, $lastCommandID)));
+    }
+
+    private static function queryCommands($mysqli, $query, $graphID,
+                                          $lastCommandID, $untilCommandID)
+    {
+        $stmt = $mysqli->prepare($query);
+        if ($untilCommandID === null)
+            $stmt->bind_param('ii', $graphID, $lastCommandID);
+        else
+            $stmt->bind_param('iii', $graphID, $lastCommandID, $untilCommandID);
         $stmt->bind_result($commandID, $name, $clientID, $param1, $param2,
             $param3, $param4, $param5);
 
@@ -129,7 +501,8 @@ class ServiceCore
         }
 
         $stmt->close();
-        echo json_encode($result);
+
+        return $result;
     }
 
     public static function CreateGraph($arguments)
@@ -478,6 +851,17 @@ class ServiceCore
         }
 
 
+        $query = 'Delete from snapshots where GraphID=?';
+        $stmt = $mysqli->prepare($query);
+        $stmt->bind_param('i', $graphID);
+
+        if (!$stmt->execute())
+        {
+            $errorMessage = 'Error in executing MySQL query';
+            Utilities::FatalError(500, 'E4048', $errorMessage);
+        }
+
+
         $query = 'Delete from graphs where ID=?';
         $stmt = $mysqli->prepare($query);
         $stmt->bind_param('i', $graphID);
@@ -860,6 +1244,123 @@ class ServiceCore
         $stmt->close();
     }
 
+    private static function verifyClient($mysqli, $clientID, $userID, $graphID)
+    {
+        $query = 'Select ID from clients where ID= ? and UserID= ? and GraphID = ?';
+        $stmt = $mysqli->prepare($query);
+        $stmt->bind_param('isi', $clientID, $userID, $graphID);
+        $stmt->bind_result($id);
+
+        if (!$stmt->execute())
+        {
+            $errorMessage = 'Error in executing MySQL query';
+            Utilities::FatalError(400, 'E4001', $errorMessage);
+        }
+
+        if (!$stmt->fetch())
+        {
+            $errorMessage = 'Access denied.';
+            Utilities::FatalError(403, 'E4002', $errorMessage);
+        }
+
+        $stmt->close();
+    }
+
+    /**
+     * Locks the row of a graph until the transaction ends, so that the
+     * commands of a graph are committed in the order of their CommandIDs.
+     * Otherwise a client could get a command with a higher CommandID while
+     * a transaction with lower ones is open, and never get those.
+     */
+    private static function lockGraphCommands($mysqli, $graphID)
+    {
+        $query = 'Select ID from graphs where ID=? for update';
+        $stmt = $mysqli->prepare($query);
+        $stmt->bind_param('i', $graphID);
+
+        if (!$stmt->execute())
+        {
+            $mysqli->rollback();
+            $errorMessage = 'Error in executing MySQL query';
+            Utilities::FatalError(500, 'E4052', $errorMessage);
+        }
+
+        $stmt->close();
+    }
+
+    /**
+     * Gets the ID of the last command added to a graph, which changes only
+     * when commands are added
+     */
+    private static function getLastCommandID($mysqli, $graphID)
+    {
+        $query = 'Select LastCommandID from graphs where ID=?';
+        $stmt = $mysqli->prepare($query);
+        $stmt->bind_param('i', $graphID);
+        $stmt->bind_result($lastCommandID);
+
+        if (!$stmt->execute())
+        {
+            $errorMessage = 'Error in executing MySQL query';
+            Utilities::FatalError(500, 'E4053', $errorMessage);
+        }
+
+        $stmt->fetch();
+        $stmt->close();
+
+        return $lastCommandID;
+    }
+
+    private static function setLastCommandID($mysqli, $graphID, $lastCommandID)
+    {
+        $query = 'Update graphs set LastCommandID=? where ID=?';
+        $stmt = $mysqli->prepare($query);
+        $stmt->bind_param('ii', $lastCommandID, $graphID);
+
+        if (!$stmt->execute())
+        {
+            $mysqli->rollback();
+            $errorMessage = 'Error in executing MySQL query';
+            Utilities::FatalError(500, 'E4054', $errorMessage);
+        }
+
+        $stmt->close();
+    }
+
+    private static function getLastSequence($mysqli, $clientID)
+    {
+        $query = 'Select LastSequence from clients where ID=? for update';
+        $stmt = $mysqli->prepare($query);
+        $stmt->bind_param('i', $clientID);
+        $stmt->bind_result($lastSequence);
+
+        if (!$stmt->execute())
+        {
+            $errorMessage = 'Error in executing MySQL query';
+            Utilities::FatalError(500, 'E4049', $errorMessage);
+        }
+
+        $stmt->fetch();
+        $stmt->close();
+
+        return $lastSequence;
+    }
+
+    private static function setLastSequence($mysqli, $clientID, $lastSequence)
+    {
+        $query = 'Update clients set LastSequence=? where ID=?';
+        $stmt = $mysqli->prepare($query);
+        $stmt->bind_param('ii', $lastSequence, $clientID);
+
+        if (!$stmt->execute())
+        {
+            $errorMessage = 'Error in executing MySQL query';
+            Utilities::FatalError(500, 'E4050', $errorMessage);
+        }
+
+        $stmt->close();
+    }
+
     private static function quickCompact($mysqli, $commandID, $commandName, $params)
     {
         if ($commandName == 'MoveVertex')
@@ -0,0 +1,296 @@
+<?php
+namespace We3Graph\RestAPI;
+
+/**
+ * Class SnapshotBuilder
+ * @package We3Graph\RestAPI
+ * A static class that replays commands into the state of a graph, i.e. its
+ * vertices, edges, bends, properties and camera, and converts the state back
+ * to the shortest list of commands that recreates it.
+ * Commands are applied the same way as the clients apply them, so loading the
+ * list gives the same graph as replaying the whole history of the graph.
+ */
+class SnapshotBuilder
+{
+    /**
+     * Returns the state of a graph without any vertices or edges
+     */
+    public static function CreateEmptyState()
+    {
+        return array('Vertices' => array(), 'Edges' => array(),
+            'CameraPosition' => null, 'CameraRotation' => null);
+    }
+
+    /**
+     * Applies a command to the state
+     * @param array $state The state returned by CreateEmptyState
+     * @param string $name The command name
+     * @param int $clientID The ID of the client that created the command
+     * @param array $params The command parameters, Param1 to Param5
+     */
+    public static function ApplyCommand(& $state, $name, $clientID, $params)
+    {
+        switch ($name)
+        {
+            case 'InsertVertex':
+                $vertexID = self::fullID($clientID . '-' . $params[0]);
+                $state['Vertices'][$vertexID] = array(
+                    'ClientID' => intval($clientID), 'IDinCreator' => $params[0],
+                    'Position' => array($params[1], $params[2], $params[3]),
+                    'Rotation' => null, 'Scale' => null, 'Edges' => array(),
+                    'Properties' => array());
+                break;
+
+            case 'InsertEdge':
+                $fromID = self::fullID($params[0]);
+                $toID = self::fullID($params[1]);
+                if (!isset($state['Vertices'][$fromID]) ||
+                    !isset($state['Vertices'][$toID])
+                )
+                    break;
+
+                if (self::isConnectedTo($state, $fromID, $toID))
+                    break;
+
+                $edgeID = self::fullID($clientID . '-' . $params[2]);
+                $state['Edges'][$edgeID] = array(
+                    'ClientID' => intval($clientID), 'IDinCreator' => $params[2],
+                    'From' => $fromID, 'To' => $toID, 'Bends' => array(),
+                    'Properties' => array());
+                $state['Vertices'][$fromID]['Edges'][] = $edgeID;
+                $state['Vertices'][$toID]['Edges'][] = $edgeID;
+                break;
+
+            case 'BreakEdgeLine':
+                $edgeID = self::fullID($params[0]);
+                if (!isset($state['Edges'][$edgeID]))
+                    break;
+
+                // Breaking the edge line at index adds a bend at the same index
+                array_splice($state['Edges'][$edgeID]['Bends'], intval($params[1]), 0,
+                    array(array($params[2], $params[3], $params[4])));
+                break;
+
+            case 'RemoveVertex':
+                $vertexID = self::fullID($params[0]);
+                if (!isset($state['Vertices'][$vertexID]))
+                    break;
+
+                foreach ($state['Vertices'][$vertexID]['Edges'] as $edgeID)
+                    self::removeEdge($state, $edgeID);
+                unset($state['Vertices'][$vertexID]);
+                break;
+
+            case 'RemoveEdge':
+                self::removeEdge($state, self::fullID($params[0]));
+                break;
+
+            case 'RemoveBend':
+                $edgeID = self::fullID($params[0]);
+                if (!isset($state['Edges'][$edgeID]))
+                    break;
+
+                array_splice($state['Edges'][$edgeID]['Bends'], intval($params[1]), 1);
+                break;
+
+            case 'MoveVertex':
+                $vertexID = self::fullID($params[0]);
+                if (isset($state['Vertices'][$vertexID]))
+                    $state['Vertices'][$vertexID]['Position'] =
+                        array($params[1], $params[2], $params[3]);
+                break;
+
+            case 'ChangeVertexScale':
+                $vertexID = self::fullID($params[0]);
+                if (isset($state['Vertices'][$vertexID]))
+                    $state['Vertices'][$vertexID]['Scale'] = $params[1];
+                break;
+
+            case 'ChangeVertexRotation':
+                $vertexID = self::fullID($params[0]);
+                if (isset($state['Vertices'][$vertexID]))
+                    $state['Vertices'][$vertexID]['Rotation'] =
+                        array($params[1], $params[2], $params[3], $params[4]);
+                break;
+
+            case 'MoveBend':
+                $edgeID = self::fullID($params[0]);
+                $index = intval($params[1]);
+                if (isset($state['Edges'][$edgeID]['Bends'][$index]))
+                    $state['Edges'][$edgeID]['Bends'][$index] =
+                        array($params[2], $params[3], $params[4]);
+                break;
+
+            case 'ChangeCameraPosition':
+                $state['CameraPosition'] = array($params[0], $params[1], $params[2]);
+                break;
+
+            case 'ChangeCameraRotation':
+                $state['CameraRotation'] =
+                    array($params[0], $params[1], $params[2], $params[3]);
+                break;
+
+            case 'SetVertexProperty':
+                $vertexID = self::fullID($params[0]);
+                if (isset($state['Vertices'][$vertexID]))
+                    self::setProperty($state['Vertices'][$vertexID]['Properties'],
+                        $params[1], $params[2], $params[3]);
+                break;
+
+            case 'SetEdgeProperty':
+                $edgeID = self::fullID($params[0]);
+                if (isset($state['Edges'][$edgeID]))
+                    self::setProperty($state['Edges'][$edgeID]['Properties'],
+                        $params[1], $params[2], $params[3]);
+                break;
+        }
+    }
+
+    /**
+     * Converts the state to the list of commands that recreates it
+     * The commands are in the same format as the ones returned by GetCommands
+     * and all of them have the ID of the last command applied to the state.
+     * @param array $state The state
+     * @param int $lastCommandID The ID of the last command applied to the state
+     * @return array
+     */
+    public static function ToCommands($state, $lastCommandID)
+    {
+        $commands = array();
+
+        foreach ($state['Vertices'] as $vertexID => $vertex)
+        {
+            $clientID = $vertex['ClientID'];
+            $position = $vertex['Position'];
+            $commands[] = self::command($lastCommandID, 'InsertVertex', $clientID,
+                array($vertex['IDinCreator'], $position[0], $position[1], $position[2]));
+
+            if ($vertex['Rotation'] !== null)
+            {
+                $rotation = $vertex['Rotation'];
+                $commands[] = self::command($lastCommandID, 'ChangeVertexRotation',
+                    $clientID, array($vertexID, $rotation[0], $rotation[1],
+                        $rotation[2], $rotation[3]));
+            }
+
+            if ($vertex['Scale'] !== null)
+                $commands[] = self::command($lastCommandID, 'ChangeVertexScale',
+                    $clientID, array($vertexID, $vertex['Scale']));
+
+            self::addPropertyCommands($commands, $lastCommandID, 'SetVertexProperty',
+                $clientID, $vertexID, $vertex['Properties']);
+        }
+
+        foreach ($state['Edges'] as $edgeID => $edge)
+        {
+            $clientID = $edge['ClientID'];
+            $commands[] = self::command($lastCommandID, 'InsertEdge', $clientID,
+                array($edge['From'], $edge['To'], $edge['IDinCreator']));
+
+            foreach ($edge['Bends'] as $index => $bend)
+                $commands[] = self::command($lastCommandID, 'BreakEdgeLine', $clientID,
+                    array($edgeID, $index, $bend[0], $bend[1], $bend[2]));
+
+            self::addPropertyCommands($commands, $lastCommandID, 'SetEdgeProperty',
+                $clientID, $edgeID, $edge['Properties']);
+        }
+
+        if ($state['CameraPosition'] !== null)
+            $commands[] = self::command($lastCommandID, 'ChangeCameraPosition', 0,
+                $state['CameraPosition']);
+
+        if ($state['CameraRotation'] !== null)
+            $commands[] = self::command($lastCommandID, 'ChangeCameraRotation', 0,
+                $state['CameraRotation']);
+
+        return $commands;
+    }
+
+    /**
+     * Converts an ID in form of ClientID-IDinCreator to the form clients
+     * compare, so that e.g. 03-5 and 3-5 are the same ID
+     */
+    private static function fullID($id)
+    {
+        $parts = explode('-', $id, 2);
+        if (count($parts) != 2)
+            return $id;
+
+        return intval($parts[0]) . '-' . intval($parts[1]);
+    }
+
+    /**
+     * Same as Vertex.IsConnectedTo in the clients which checks both ends of
+     * every edge of the first vertex
+     */
+    private static function isConnectedTo($state, $fromID, $toID)
+    {
+        foreach ($state['Vertices'][$fromID]['Edges'] as $edgeID)
+        {
+            $edge = $state['Edges'][$edgeID];
+            if ($edge['From'] == $toID || $edge['To'] == $toID)
+                return true;
+        }
+
+        return false;
+    }
+
+    private static function removeEdge(& $state, $edgeID)
+    {
+        if (!isset($state['Edges'][$edgeID]))
+            return;
+
+        $edge = $state['Edges'][$edgeID];
+        foreach (array($edge['From'], $edge['To']) as $vertexID)
+        {
+            $edges = & $state['Vertices'][$vertexID]['Edges'];
+            $index = array_search($edgeID, $edges);
+            if ($index !== false)
+                array_splice($edges, $index, 1);
+            unset($edges);
+        }
+
+        unset($state['Edges'][$edgeID]);
+    }
+
+    private static function setProperty(& $properties, $listName, $key, $value)
+    {
+        if (!isset($properties[$listName]))
+            $properties[$listName] = array();
+
+        if ($value === '')
+            unset($properties[$listName][$key]);
+        else
+            $properties[$listName][$key] = $value;
+    }
+
+    private static function addPropertyCommands(& $commands, $lastCommandID,
+                                                $commandName, $clientID, $id,
+                                                $properties)
+    {
+        foreach ($properties as $listName => $list)
+        {
+            // Clients create a list even if all of its keys are removed,
+            // which is what setting an empty value does
+            if (count($list) == 0)
+                $commands[] = self::command($lastCommandID, $commandName, $clientID,
+                    array($id, $listName, '', '', 0));
+
+            foreach ($list as $key => $value)
+                $commands[] = self::command($lastCommandID, $commandName, $clientID,
+                    array($id, $listName, $key, $value, 0));
+        }
+    }
+
+    private static function command($commandID, $name, $clientID, $params)
+    {
+        $command = array('ID' => intval($commandID), 'Name' => $name,
+            'ClientID' => intval($clientID));
+        for ($i = 0; $i < 5; $i++)
+            $command['Param' . ($i + 1)] = isset($params[$i]) ? strval($params[$i]) : '';
+
+        return $command;
+    }
+}
+
+?>
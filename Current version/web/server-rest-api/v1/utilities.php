@@ -32,6 +32,71 @@ class Utilities
         exit;
     }
 
+    /**
+     * The output buffer handler that compresses responses larger than
+     * RESPONSE_COMPRESSION_THRESHOLD with gzip or deflate if the client
+     * accepts it
+     * @param string $output The whole response
+     * @return string
+     */
+    public static function CompressOutput($output)
+    {
+        if (strlen($output) < RESPONSE_COMPRESSION_THRESHOLD ||
+            !isset($_SERVER['HTTP_ACCEPT_ENCODING']) ||
+            !function_exists('gzencode') || headers_sent()
+        )
+            return $output;
+
+        $acceptEncoding = strtolower($_SERVER['HTTP_ACCEPT_ENCODING']);
+        header('Vary: Accept-Encoding');
+
+        if (strpos($acceptEncoding, 'gzip') !== false)
+        {
+            header('Content-Encoding: gzip');
+            return gzencode($output);
+        }
+
+        if (strpos($acceptEncoding, 'deflate') !== false)
+        {
+            header('Content-Encoding: deflate');
+            return gzcompress($output);
+        }
+
+        return $output;
+    }
+
+    /**
+     * Decompresses a request body sent with a Content-Encoding header
+     * @param string $body The request body
+     * @param string $contentEncoding The value of Content-Encoding header
+     * @return string
+     */
+    public static function DecompressRequestBody($body, $contentEncoding)
+    {
+        $contentEncoding = strtolower(trim($contentEncoding));
+
+        if ($contentEncoding == 'identity' || $contentEncoding == '')
+            return $body;
+
+        if ($contentEncoding == 'gzip')
+            $body = @gzdecode($body, MAX_DECOMPRESSED_BODY_SIZE);
+        else if ($contentEncoding == 'deflate')
+            $body = @gzuncompress($body, MAX_DECOMPRESSED_BODY_SIZE);
+        else
+        {
+            $errorMessage = 'Content encoding is not supported';
+            self::FatalError(415, 'E5023', $errorMessage);
+        }
+
+        if ($body === false)
+        {
+            $errorMessage = 'Request body can not be decompressed';
+            self::FatalError(400, 'E5024', $errorMessage);
+        }
+
+        return $body;
+    }
+
     public static function GetConnection()
     {
         static $dbConection = null;
@@ -56,10 +121,32 @@ class Utilities
 
     public static function ValidateCommand($commandName, $arguments)
     {
+        $error = null;
+        $params = self::CheckCommand($commandName, $arguments, $error);
+        if ($error !== null)
+            self::FatalError(400, $error['Code'], $error['Message']);
+
+        return $params;
+    }
+
+    /**
+     * Validates a command like ValidateCommand but reports an invalid command
+     * through $error instead of ending the request, so that one invalid
+     * command in a batch does not reject the others
+     * @param string $commandName The name of the command
+     * @param [] $arguments The array containing Param1 to Param5 of the command
+     * @param [] $error Set to an array of 'Code' and 'Message' if the command
+     * is not valid, otherwise null
+     * @return [] The validated parameters or null if the command is not valid
+     */
+    public static function CheckCommand($commandName, $arguments, & $error)
+    {
+        $error = null;
+
         if (!array_key_exists($commandName, Commands::$CommandsList))
         {
-            $errorMessage = 'Invalid command name';
-            self::FatalError(400, 'E5003', $errorMessage);
+            $error = array('Code' => 'E5003', 'Message' => 'Invalid command name');
+            return null;
         }
 
         $paramTypes = Commands::$CommandsList[$commandName];
@@ -73,8 +160,9 @@ class Utilities
             $argumentName = 'Param' . ($index + 1);
             if (!isset($arguments[$argumentName]))
             {
-                $errorMessage = $argumentName . ' is not specified';
-                self::FatalError(400, 'E5004', $errorMessage);
+                $error = array('Code' => 'E5004',
+                    'Message' => $argumentName . ' is not specified');
+                return null;
             }
 
             $argument = $arguments[$argumentName];
@@ -83,21 +171,21 @@ class Utilities
             else if (is_float($argument))
                 $argument = number_format($argument, 17, '.', '');
 
+            $errorCode = null;
             if ($paramType == 'i')
-            {
-                self::ValidateFullIDParameter($argument, $argumentName);
-            }
+                $errorCode = self::getFullIDParameterErrorCode($argument);
             else if ($paramType == 'p')
-            {
-                self::ValidatePositiveParameter($argument, $argumentName);
-            }
+                $errorCode = self::getPositiveParameterErrorCode($argument);
             else if ($paramType == 'f')
-            {
-                self::ValidateFloatParameter($argument, $argumentName);
-            }
+                $errorCode = self::getFloatParameterErrorCode($argument);
             else if ($paramType == 's')
+                $errorCode = self::getString50ParameterErrorCode($argument);
+
+            if ($errorCode !== null)
             {
-                self::ValidateString50Parameter($argument, $argumentName);
+                $error = array('Code' => $errorCode,
+                    'Message' => $argumentName . ' is not in correct format');
+                return null;
             }
 
             array_push($params, $argument);
@@ -108,57 +196,90 @@ class Utilities
 
     public static function ValidateFullIDParameter($variable, $variableName)
     {
-        $pos = strpos($variable, '-');
-        $len = strlen($variable);
-        if ($pos === FALSE || $pos == $len - 1)
+        $errorCode = self::getFullIDParameterErrorCode($variable);
+        if ($errorCode !== null)
         {
             $errorMessage = $variableName . ' is not in correct format';
-            self::FatalError(400, 'E5005', $errorMessage);
+            self::FatalError(400, $errorCode, $errorMessage);
         }
-
-
-        $part1 = substr($variable, 0, $pos);
-        $part2 = substr($variable, $pos + 1);
-
-        self::ValidatePositiveParameter($part1, $variableName);
-        self::ValidatePositiveParameter($part2, $variableName);
     }
 
     public static function ValidatePositiveParameter($variable, $variableName)
     {
-        if (!ctype_digit($variable))
+        $errorCode = self::getPositiveParameterErrorCode($variable);
+        if ($errorCode !== null)
         {
             $errorMessage = $variableName . ' is not in correct format';
-            self::FatalError(400, 'E5006', $errorMessage);
-        }
-
-        $len = strlen($variable);
-
-        if ($len < 1 || $len > 18)
-        {
-            $errorMessage = $variableName . ' is not in correct format';
-            self::FatalError(400, 'E5007', $errorMessage);
+            self::FatalError(400, $errorCode, $errorMessage);
         }
     }
 
     public static function ValidateFloatParameter($variable, $variableName)
     {
-        if (filter_var($variable, FILTER_VALIDATE_FLOAT) === false)
+        $errorCode = self::getFloatParameterErrorCode($variable);
+        if ($errorCode !== null)
         {
             $errorMessage = $variableName . ' is not in correct format';
-            self::FatalError(400, 'E5008', $errorMessage);
+            self::FatalError(400, $errorCode, $errorMessage);
         }
     }
 
     public static function ValidateString50Parameter($variable, $variableName)
     {
-        if (strlen($variable) > 50)
+        $errorCode = self::getString50ParameterErrorCode($variable);
+        if ($errorCode !== null)
         {
             $errorMessage = $variableName . ' is not in correct format';
-            self::FatalError(400, 'E5009', $errorMessage);
+            self::FatalError(400, $errorCode, $errorMessage);
         }
     }
 
+    private static function getFullIDParameterErrorCode($variable)
+    {
+        $pos = strpos($variable, '-');
+        $len = strlen($variable);
+        if ($pos === FALSE || $pos == $len - 1)
+            return 'E5005';
+
+        $part1 = substr($variable, 0, $pos);
+        $part2 = substr($variable, $pos + 1);
+
+        $errorCode = self::getPositiveParameterErrorCode($part1);
+        if ($errorCode !== null)
+            return $errorCode;
+
+        return self::getPositiveParameterErrorCode($part2);
+    }
+
+    private static function getPositiveParameterErrorCode($variable)
+    {
+        if (!ctype_digit($variable))
+            return 'E5006';
+
+        $len = strlen($variable);
+
+        if ($len < 1 || $len > 18)
+            return 'E5007';
+
+        return null;
+    }
+
+    private static function getFloatParameterErrorCode($variable)
+    {
+        if (filter_var($variable, FILTER_VALIDATE_FLOAT) === false)
+            return 'E5008';
+
+        return null;
+    }
+
+    private static function getString50ParameterErrorCode($variable)
+    {
+        if (strlen($variable) > 50)
+            return 'E5009';
+
+        return null;
+    }
+
     public static function ValidateInteger($variable, $variableName)
     {
         if (filter_var($variable, FILTER_VALIDATE_INT) === false)